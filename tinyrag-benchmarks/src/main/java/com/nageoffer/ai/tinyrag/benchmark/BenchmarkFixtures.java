@@ -0,0 +1,112 @@
+package com.nageoffer.ai.tinyrag.benchmark;
+
+import com.nageoffer.ai.tinyrag.benchmark.fake.FakeEmbeddingModel;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache;
+import com.nageoffer.ai.tinyrag.service.cache.RewriteCache;
+import com.nageoffer.ai.tinyrag.service.cache.SemanticAnswerCache;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+/**
+ * 基准测试公共数据：与 application.yaml 一致的 RAG 参数、离线可用的指标组件，以及按固定种子生成的文档
+ */
+public final class BenchmarkFixtures {
+
+    public static final String KB = "hr";
+
+    private static final String[] SENTENCES = {
+            "员工入职满一年后可享受带薪年假五天，满十年后增加至十天。",
+            "病假需提供二级以上医院开具的诊断证明，并在返岗后三个工作日内提交。",
+            "差旅报销须在出差结束后十五个自然日内通过 OA 系统发起，逾期不予受理。",
+            "The reimbursement policy applies to all full-time employees and contractors with a valid agreement.",
+            "加班以调休为主，确需支付加班费的，须经部门负责人与人力资源部共同审批。",
+            "信息安全要求：严禁将客户数据上传至未经批准的第三方云盘或即时通讯工具。",
+            "Quarterly performance reviews are calibrated across departments before results are published.",
+            "试用期员工的绩效考核由直属上级发起，人力资源部负责复核与归档。",
+            "办公设备领用需登记资产编号，离职时须完成资产归还并由 IT 部门确认。",
+            "Remote work requests must be submitted at least two business days in advance.",
+    };
+
+    private BenchmarkFixtures() {
+    }
+
+    public static RAGProperties ragProperties() {
+        RAGProperties properties = new RAGProperties();
+        properties.setRerankModel("fake-reranker");
+        properties.setRerankEndpoint("http://localhost/fake-rerank");
+        properties.setRetrieveTopK(8);
+        properties.setRerankTopN(4);
+        properties.setRerankMaxDocumentChars(12000);
+        properties.setChunkSize(800);
+        properties.setMinChunkSizeChars(350);
+        properties.setMinChunkLengthToEmbed(10);
+        properties.setMaxNumChunks(1000);
+        properties.setKeywordTopK(8);
+        properties.setRrfK(60);
+        return properties;
+    }
+
+    public static RAGMetrics ragMetrics(RAGProperties properties) {
+        EmbeddingModel embeddingModel = new FakeEmbeddingModel(FakeEmbeddingModel.DEFAULT_DIMENSIONS);
+        return new RAGMetrics(new SimpleMeterRegistry(), properties, List.of(),
+                new SemanticAnswerCache(embeddingModel, properties), new RerankCache(properties), new RewriteCache(properties), embeddingModel,
+                new PooledHttpTransport(properties), new InMemoryChatMemoryRepository(), "fake-chat");
+    }
+
+    /**
+     * 生成约 targetBytes 字节（UTF-8）的中英混排制度文档，按段落换行
+     */
+    public static String document(int targetBytes, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(targetBytes / 2);
+        int bytes = 0;
+        int sentencesInParagraph = 0;
+        while (bytes < targetBytes) {
+            String sentence = SENTENCES[random.nextInt(SENTENCES.length)];
+            text.append(sentence);
+            bytes += sentence.getBytes(StandardCharsets.UTF_8).length;
+            if (++sentencesInParagraph >= 4 + random.nextInt(4)) {
+                text.append("\n\n");
+                bytes += 2;
+                sentencesInParagraph = 0;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * 生成检索结果形态的文档：指定 id 前缀、来源文件数，分数按排名递减
+     */
+    public static List<Document> retrievedDocuments(String idPrefix, int count, int sourceFiles, int textChars, long seed) {
+        String text = document(textChars * 3, seed);
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("source", "handbook-" + (i % Math.max(1, sourceFiles)) + ".pdf");
+            metadata.put("kb", KB);
+            metadata.put("file_type", "pdf");
+            metadata.put("chunk_index", i);
+            int offset = (i * 97) % Math.max(1, text.length() - textChars);
+            documents.add(Document.builder()
+                    .id(idPrefix + i)
+                    .text(text.substring(offset, Math.min(text.length(), offset + textChars)))
+                    .metadata(metadata)
+                    .score(1.0 - (double) i / (count + 1))
+                    .build());
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,65 @@
+package com.nageoffer.ai.tinyrag.benchmark.fake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 进程内 ES 替身：基于 JDK HttpServer，_search 返回预置响应，_bulk 返回全部成功，其余请求返回空对象。
+ * 用于测量 RestClient 往返 + 序列化 / 反序列化的开销，不依赖真实 ES
+ */
+public class FakeElasticsearchServer implements AutoCloseable {
+
+    private static final byte[] BULK_OK = "{\"took\":1,\"errors\":false,\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    public FakeElasticsearchServer(String searchResponse) throws IOException {
+        byte[] searchBody = searchResponse.getBytes(StandardCharsets.UTF_8);
+        // 与 FakeEmbeddingServer 相同，关闭 Nagle，避免与延迟 ACK 叠加出约 40ms 的额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/_search")) {
+                respond(exchange, searchBody);
+            } else if (path.endsWith("/_bulk")) {
+                respond(exchange, BULK_OK);
+            } else {
+                respond(exchange, EMPTY);
+            }
+        });
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        try (InputStream request = exchange.getRequestBody()) {
+            request.transferTo(OutputStream.nullOutputStream());
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
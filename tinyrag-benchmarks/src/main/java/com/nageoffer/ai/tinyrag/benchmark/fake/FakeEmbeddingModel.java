@@ -0,0 +1,54 @@
+package com.nageoffer.ai.tinyrag.benchmark.fake;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * 离线 Embedding 模型：按文本 hashCode 生成确定性向量，不发起任何网络请求
+ */
+public class FakeEmbeddingModel implements EmbeddingModel {
+
+    public static final int DEFAULT_DIMENSIONS = 1536;
+
+    private final int dimensions;
+
+    public FakeEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(vector(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return vector(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private float[] vector(String text) {
+        float[] vector = new float[dimensions];
+        int seed = text == null ? 0 : text.hashCode();
+        for (int i = 0; i < dimensions; i++) {
+            seed = seed * 1103515245 + 12345;
+            vector[i] = (seed >>> 8) / (float) (1 << 24) - 0.5f;
+        }
+        return vector;
+    }
+}
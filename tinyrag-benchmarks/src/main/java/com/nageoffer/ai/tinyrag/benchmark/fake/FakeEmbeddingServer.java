@@ -0,0 +1,107 @@
+package com.nageoffer.ai.tinyrag.benchmark.fake;
+
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 进程内 OpenAI 兼容 Embedding 接口替身：POST /v1/embeddings 固定延迟后返回 input 条数相同的向量。
+ * 同时处理中的请求超过 capacity 时直接返回 429，模拟服务端限流
+ */
+public class FakeEmbeddingServer implements AutoCloseable {
+
+    private static final byte[] TOO_MANY_REQUESTS =
+            "{\"error\":{\"message\":\"Requests rate limit exceeded\",\"type\":\"rate_limit_error\"}}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMillis;
+    private final int capacity;
+    private final String vectorJson;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public FakeEmbeddingServer(long latencyMillis, int capacity, int dimensions) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.capacity = capacity;
+        StringBuilder vector = new StringBuilder(dimensions * 12).append('[');
+        for (int i = 0; i < dimensions; i++) {
+            vector.append(i == 0 ? "" : ",").append(((i * 7919) % 2000 - 1000) / 1000.0);
+        }
+        this.vectorJson = vector.append(']').toString();
+        // 响应头与响应体分两次写出，不关闭 Nagle 时会与客户端的延迟 ACK 叠加出约 40ms 的额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/v1/embeddings", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long throttledCount() {
+        return throttled.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (inFlight.incrementAndGet() > capacity) {
+            inFlight.decrementAndGet();
+            throttled.incrementAndGet();
+            respond(exchange, 429, TOO_MANY_REQUESTS);
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+            int inputs = JsonParser.parseString(request).getAsJsonObject().getAsJsonArray("input").size();
+            respond(exchange, 200, response(inputs));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, new byte[0]);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private byte[] response(int inputs) {
+        StringBuilder json = new StringBuilder(inputs * (vectorJson.length() + 64)).append("{\"object\":\"list\",\"data\":[");
+        for (int i = 0; i < inputs; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"object\":\"embedding\",\"index\":").append(i)
+                    .append(",\"embedding\":").append(vectorJson).append('}');
+        }
+        json.append("],\"model\":\"fake-embedding\",\"usage\":{\"prompt_tokens\":0,\"total_tokens\":0}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
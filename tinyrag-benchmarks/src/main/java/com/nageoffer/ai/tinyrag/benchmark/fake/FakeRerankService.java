@@ -0,0 +1,35 @@
+package com.nageoffer.ai.tinyrag.benchmark.fake;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.RerankService;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 离线 Rerank：按候选顺序倒序给出 topN 结果；failing 为 true 时模拟接口失败，走向量分数降级
+ */
+public class FakeRerankService extends RerankService {
+
+    private final boolean failing;
+
+    public FakeRerankService(RAGProperties ragProperties, boolean failing) {
+        super(ragProperties, new PooledHttpTransport(ragProperties), "fake-api-key");
+        this.failing = failing;
+    }
+
+    @Override
+    public List<RerankItem> rerank(String query, List<String> documents, int topN) {
+        if (failing) {
+            throw new IllegalStateException("fake rerank failure");
+        }
+        int size = Math.min(topN, documents.size());
+        List<RerankItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int index = documents.size() - 1 - i;
+            items.add(new RerankItem(index, 1.0 - (double) i / size));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,44 @@
+package com.nageoffer.ai.tinyrag.benchmark.fake;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * 离线向量库：写入只计数，检索返回预置结果
+ */
+public class FakeVectorStore implements VectorStore {
+
+    private final List<Document> searchResults;
+    private final LongAdder added = new LongAdder();
+
+    public FakeVectorStore(List<Document> searchResults) {
+        this.searchResults = searchResults;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        added.add(documents.size());
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return searchResults.subList(0, Math.min(request.getTopK(), searchResults.size()));
+    }
+
+    public long addedCount() {
+        return added.sum();
+    }
+}
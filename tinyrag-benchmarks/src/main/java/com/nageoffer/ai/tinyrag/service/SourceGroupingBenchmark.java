@@ -0,0 +1,50 @@
+package com.nageoffer.ai.tinyrag.service;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+/**
+ * SSE sources 事件的来源聚合（RAGService.pushSources）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceGroupingBenchmark {
+
+    @Param({"4", "50"})
+    public int sources;
+
+    @Param({"1", "10"})
+    public int sourceFiles;
+
+    private List<Document> documents;
+
+    @Setup
+    public void setUp() {
+        documents = BenchmarkFixtures.retrievedDocuments("chunk-", sources, sourceFiles, 200, 6L);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> groupSources() {
+        return RAGService.groupSources(documents);
+    }
+}
@@ -0,0 +1,119 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+import com.nageoffer.ai.tinyrag.benchmark.fake.FakeEmbeddingServer;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * 入库 Embedding 吞吐（chunks/s）：真实的 OpenAiEmbeddingModel 通过 HTTP 访问进程内 Embedding 接口替身，
+ * 对比 Spring AI 默认的串行分批与 BatchingEmbeddingModel 在不同 maxInFlight 下的吞吐。
+ * 替身每个请求固定延迟 latencyMillis，同时处理的请求超过 serverCapacity 时返回 429，
+ * 可用 -p serverCapacity=4 观察限流下的自适应退避
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class EmbeddingBatchBenchmark {
+
+    private static final int CHUNKS = 200;
+
+    @Param({"1", "2", "4", "8"})
+    public int maxInFlight;
+
+    @Param({"50"})
+    public long latencyMillis;
+
+    @Param({"64"})
+    public int serverCapacity;
+
+    /**
+     * 向量维度只影响响应 JSON 的序列化 / 解析开销；默认取较小值，让结果主要反映网络往返的并发度，
+     * 需要贴近 text-embedding-v4 时用 -p dimensions=1024
+     */
+    @Param({"128"})
+    public int dimensions;
+
+    private FakeEmbeddingServer server;
+    private OpenAiEmbeddingModel openAiEmbeddingModel;
+    private BatchingEmbeddingModel batchingEmbeddingModel;
+    private ThreadPoolTaskExecutor executor;
+    private List<Document> chunks;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeEmbeddingServer(latencyMillis, serverCapacity, dimensions);
+        OpenAiApi openAiApi = OpenAiApi.builder()
+                .baseUrl(server.url())
+                .apiKey("fake-key")
+                .build();
+        openAiEmbeddingModel = new OpenAiEmbeddingModel(openAiApi, MetadataMode.EMBED,
+                OpenAiEmbeddingOptions.builder().model("fake-embedding").build());
+
+        RAGProperties.EmbeddingBatch properties = new RAGProperties.EmbeddingBatch();
+        properties.setMaxInFlight(maxInFlight);
+        properties.setInitialBackoff(Duration.ofMillis(20));
+        properties.setMaxBackoff(Duration.ofMillis(500));
+        properties.setMaxRetries(20);
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxInFlight);
+        executor.setMaxPoolSize(maxInFlight);
+        executor.setQueueCapacity(maxInFlight);
+        executor.setThreadNamePrefix("bench-embedding-");
+        executor.initialize();
+        batchingEmbeddingModel = new BatchingEmbeddingModel(openAiEmbeddingModel, properties, executor);
+
+        // 约 300 token 一个 chunk，按 maxBatchSize=10 打包为 20 个批次
+        chunks = BenchmarkFixtures.retrievedDocuments("chunk-", CHUNKS, 10, 400, 11L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        server.close();
+    }
+
+    /**
+     * Spring AI 默认路径：TokenCountBatchingStrategy 分批后逐批串行请求，与 maxInFlight 无关
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int sequentialDefault() {
+        return openAiEmbeddingModel.embed(chunks, EmbeddingOptions.builder().build(), new TokenCountBatchingStrategy()).size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int batched() {
+        return batchingEmbeddingModel.embed(chunks, EmbeddingOptions.builder().build(), new TokenCountBatchingStrategy()).size();
+    }
+}
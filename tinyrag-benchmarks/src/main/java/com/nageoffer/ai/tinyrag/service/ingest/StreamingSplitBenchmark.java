@@ -0,0 +1,78 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+/**
+ * 入库切分（IngestionPipeline 的切分阶段）：1–20 MB 文档按 segmentChars 分段送入 StreamingTextSplitter，
+ * 切分参数与 application.yaml 一致。单次调用为秒级，使用单次计时模式并加大堆（-Xmx2g）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StreamingSplitBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int sizeMb;
+
+    private TokenTextSplitter tokenTextSplitter;
+    private int maxChunks;
+    private List<String> segments;
+
+    @Setup
+    public void setUp() {
+        RAGProperties properties = BenchmarkFixtures.ragProperties();
+        tokenTextSplitter = TokenTextSplitter.builder()
+                .withChunkSize(properties.getChunkSize())
+                .withMinChunkSizeChars(properties.getMinChunkSizeChars())
+                .withMinChunkLengthToEmbed(properties.getMinChunkLengthToEmbed())
+                .withMaxNumChunks(properties.getMaxNumChunks())
+                .withKeepSeparator(true)
+                .build();
+        maxChunks = properties.getMaxNumChunks();
+
+        String content = BenchmarkFixtures.document(sizeMb * 1024 * 1024, 7L);
+        int segmentChars = properties.getIngest().getSegmentChars();
+        segments = new ArrayList<>(content.length() / segmentChars + 1);
+        for (int start = 0; start < content.length(); start += segmentChars) {
+            segments.add(content.substring(start, Math.min(content.length(), start + segmentChars)));
+        }
+    }
+
+    @Benchmark
+    public int split() {
+        StreamingTextSplitter splitter = new StreamingTextSplitter(tokenTextSplitter,
+                Map.of("source", "employee-handbook.pdf", "kb", BenchmarkFixtures.KB, "file_type", "pdf"), maxChunks);
+        int chunks = 0;
+        for (String segment : segments) {
+            List<Document> produced = splitter.accept(segment);
+            chunks += produced.size();
+            if (splitter.isFull()) {
+                break;
+            }
+        }
+        return chunks + splitter.finish().size();
+    }
+}
@@ -0,0 +1,95 @@
+package com.nageoffer.ai.tinyrag.service.prompt;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * 单次请求的 prompt 渲染开销：
+ * resourcePerRequest 为改造前 ChatClient 收到 Resource + param 时的路径（每次读取 .st 文件并经 StringTemplate 解析渲染），
+ * stringTemplate 只保留 StringTemplate 解析渲染，registry 为预编译模板的拼接渲染
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptRenderBenchmark {
+
+    @Param({PromptTemplateRegistry.TITLE_USER, PromptTemplateRegistry.REWRITE_USER, PromptTemplateRegistry.SUGGESTIONS_USER})
+    public String template;
+
+    /**
+     * 推荐问题模板中参考文档段落的字节数，其余模板只有问题本身
+     */
+    @Param({"1000", "8000"})
+    public int contextBytes;
+
+    private PromptTemplateRegistry registry;
+    private Resource resource;
+    private String templateText;
+    private String question;
+    private String retrievedDocuments;
+    private String toolDescriptions;
+    private Map<String, Object> params;
+
+    @Setup
+    public void setUp() throws IOException {
+        registry = new PromptTemplateRegistry(BenchmarkFixtures.ragProperties());
+        resource = new ClassPathResource("prompts/" + template + ".st");
+        templateText = resource.getContentAsString(StandardCharsets.UTF_8);
+        question = "请问员工入职满一年后年假有几天？试用期内请病假工资怎么算？";
+        retrievedDocuments = "参考文档：\n" + BenchmarkFixtures.document(contextBytes, 1L);
+        toolDescriptions = "可用工具：\nweather: 查询城市天气\nholiday: 查询法定节假日安排";
+        params = switch (template) {
+            case PromptTemplateRegistry.SUGGESTIONS_USER -> Map.of("question", question,
+                    "retrievedDocuments", retrievedDocuments, "toolDescriptions", toolDescriptions);
+            default -> Map.of("question", question);
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        registry.destroy();
+    }
+
+    @Benchmark
+    public String resourcePerRequest() throws IOException {
+        String text = resource.getContentAsString(StandardCharsets.UTF_8);
+        return new PromptTemplate(text).render(params);
+    }
+
+    @Benchmark
+    public String stringTemplate() {
+        return new PromptTemplate(templateText).render(params);
+    }
+
+    @Benchmark
+    public String registry() {
+        return switch (template) {
+            case PromptTemplateRegistry.TITLE_USER -> registry.titleUser(question);
+            case PromptTemplateRegistry.REWRITE_USER -> registry.rewriteUser(question);
+            default -> registry.suggestionsUser(question, retrievedDocuments, toolDescriptions);
+        };
+    }
+}
@@ -0,0 +1,172 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+import com.nageoffer.ai.tinyrag.benchmark.fake.FakeElasticsearchServer;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * ES 请求构造与响应解析：检索请求体、检索响应 → Document、_bulk NDJSON 序列化，
+ * 以及经由 RestClient 访问进程内 ES 替身的完整检索往返与批量写入往返（按 es-bulk 配置拆分并发发送）。
+ * <p>
+ * parseSearchResponseMaps 保留改为流式解析之前的实现（整个响应读成 String → 嵌套 Map → 复制 metadata）作为对照，
+ * 配合 -prof gc 比较两者每次调用的分配量（gc.alloc.rate.norm）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElasticsearchRequestBenchmark {
+
+    /**
+     * 检索响应命中数，同时也是 _bulk 请求的文档数的 1/10
+     */
+    private static final Gson GSON = new Gson();
+    private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    @Param({"8", "100"})
+    public int hits;
+
+    private ElasticsearchDocumentRepository repository;
+    private FakeElasticsearchServer server;
+    private ThreadPoolTaskExecutor bulkExecutor;
+    private PooledHttpTransport httpTransport;
+    private byte[] searchResponse;
+    private List<Document> bulkDocuments;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Document> hitDocuments = BenchmarkFixtures.retrievedDocuments("chunk-", hits, 10, 800, 4L);
+        searchResponse = searchResponse(hitDocuments).getBytes(StandardCharsets.UTF_8);
+        bulkDocuments = BenchmarkFixtures.retrievedDocuments("chunk-", hits * 10, 10, 800, 5L);
+
+        server = new FakeElasticsearchServer(new String(searchResponse, StandardCharsets.UTF_8));
+        RAGProperties properties = BenchmarkFixtures.ragProperties();
+        properties.setEsUrl(server.url());
+        int maxInFlight = properties.getEsBulk().getMaxInFlight();
+        bulkExecutor = new ThreadPoolTaskExecutor();
+        bulkExecutor.setCorePoolSize(maxInFlight);
+        bulkExecutor.setMaxPoolSize(maxInFlight);
+        bulkExecutor.initialize();
+        httpTransport = new PooledHttpTransport(properties);
+        repository = new ElasticsearchDocumentRepository(properties, BenchmarkFixtures.ragMetrics(properties),
+                bulkExecutor, httpTransport);
+        repository.init();
+    }
+
+    @TearDown
+    public void tearDown() {
+        bulkExecutor.shutdown();
+        httpTransport.destroy();
+        server.close();
+    }
+
+    @Benchmark
+    public String buildSearchRequest() {
+        return repository.buildSearchRequest("员工年假有多少天", BenchmarkFixtures.KB, hits);
+    }
+
+    @Benchmark
+    public List<Document> parseSearchResponse() throws IOException {
+        return repository.parseSearchResponse(new ByteArrayInputStream(searchResponse));
+    }
+
+    @Benchmark
+    public List<Document> parseSearchResponseMaps() {
+        return parseWithMaps(new String(searchResponse, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void writeBulkRequest() throws IOException {
+        repository.writeBulkRequest(bulkDocuments, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public List<Document> searchRoundTrip() {
+        return repository.search("员工年假有多少天", BenchmarkFixtures.KB, hits);
+    }
+
+    @Benchmark
+    public Set<String> indexRoundTrip() {
+        return repository.indexDocuments(bulkDocuments);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> parseWithMaps(String response) {
+        Map<String, Object> result = GSON.fromJson(response, MAP_TYPE);
+        Map<String, Object> hits = (Map<String, Object>) result.get("hits");
+        List<Map<String, Object>> hitList = (List<Map<String, Object>>) hits.get("hits");
+
+        List<Document> results = new ArrayList<>();
+        for (Map<String, Object> hit : hitList) {
+            Map<String, Object> source = (Map<String, Object>) hit.get("_source");
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("source", source.getOrDefault("source", ""));
+            metadata.put("kb", source.getOrDefault("kb", ""));
+            metadata.put("file_type", source.getOrDefault("file_type", ""));
+            metadata.put("chunk_index", source.getOrDefault("chunk_index", 0));
+            double score = hit.get("_score") instanceof Number n ? n.doubleValue() : 0.0;
+            results.add(Document.builder()
+                    .id((String) source.getOrDefault("doc_id", hit.get("_id")))
+                    .text((String) source.getOrDefault("content", ""))
+                    .metadata(metadata)
+                    .score(score)
+                    .build());
+        }
+        return results;
+    }
+
+    private static String searchResponse(List<Document> documents) {
+        List<Map<String, Object>> hitList = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            Map<String, Object> source = new LinkedHashMap<>(document.getMetadata());
+            source.put("content", document.getText());
+            source.put("doc_id", document.getId());
+
+            Map<String, Object> hit = new LinkedHashMap<>();
+            hit.put("_index", "tinyrag_chunks");
+            hit.put("_id", document.getId());
+            hit.put("_score", document.getScore() * 10);
+            hit.put("_source", source);
+            hitList.add(hit);
+        }
+        Map<String, Object> hitsBody = new LinkedHashMap<>();
+        hitsBody.put("total", Map.of("value", documents.size(), "relation", "eq"));
+        hitsBody.put("max_score", 10.0);
+        hitsBody.put("hits", hitList);
+        return GSON.toJson(Map.of("took", 3, "timed_out", false, "hits", hitsBody));
+    }
+}
@@ -0,0 +1,73 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+import com.nageoffer.ai.tinyrag.benchmark.fake.FakeRerankService;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+
+/**
+ * Rerank 后处理：候选过滤、截断、按 Rerank 结果挑选（或失败时按向量分数降级）。
+ * Rerank 接口由进程内替身代替，测的是本地处理开销，包含 Rerank 阶段截止时间控制的线程切换
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RerankPostProcessBenchmark {
+
+    @Param({"8", "32", "100"})
+    public int candidates;
+
+    /**
+     * 单个候选文档字符数，超过 rerankMaxDocumentChars（12000）时会被截断
+     */
+    @Param({"800", "16000"})
+    public int documentChars;
+
+    @Param({"false", "true"})
+    public boolean rerankFailing;
+
+    /**
+     * 开启时除首次调用外均命中 RerankCache，测量的是命中路径
+     */
+    @Param({"false", "true"})
+    public boolean rerankCache;
+
+    private RerankDocumentPostProcessor postProcessor;
+    private Query query;
+    private List<Document> documents;
+
+    @Setup
+    public void setUp() {
+        RAGProperties properties = BenchmarkFixtures.ragProperties();
+        properties.getRerankCache().setEnabled(rerankCache);
+        postProcessor = new RerankDocumentPostProcessor(new FakeRerankService(properties, rerankFailing),
+                new RerankCache(properties), properties, BenchmarkFixtures.ragMetrics(properties));
+        query = Query.builder().text("员工年假有多少天？").build();
+        documents = BenchmarkFixtures.retrievedDocuments("chunk-", candidates, 10, documentChars, 3L);
+    }
+
+    @Benchmark
+    public List<Document> process() {
+        return postProcessor.process(query, documents);
+    }
+}
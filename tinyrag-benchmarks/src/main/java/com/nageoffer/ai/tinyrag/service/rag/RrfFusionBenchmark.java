@@ -0,0 +1,111 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.benchmark.BenchmarkFixtures;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+/**
+ * 混合检索融合：两路结果数、重叠比例与融合算法对融合耗时的影响，
+ * rrfFusionMaps 为改用数组与部分堆排序之前基于 Map 与全量排序的 RRF 实现，作为对照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RrfFusionBenchmark {
+
+    /**
+     * 每路检索返回的文档数
+     */
+    @Param({"8", "50", "200"})
+    public int resultsPerSource;
+
+    /**
+     * 两路结果中 id 相同的比例（百分比）
+     */
+    @Param({"0", "50", "100"})
+    public int overlapPercent;
+
+    @Param({"RRF", "MIN_MAX", "Z_SCORE", "DBSF"})
+    public RAGProperties.FusionMethod method;
+
+    private HybridDocumentRetriever retriever;
+    private RAGProperties.FusionProfile profile;
+    private int rrfK;
+    private int topK;
+    private List<Document> vectorDocs;
+    private List<Document> keywordDocs;
+
+    @Setup
+    public void setUp() {
+        RAGProperties properties = BenchmarkFixtures.ragProperties();
+        // 融合是纯内存计算，检索器与隔离舱都不会被调用
+        retriever = new HybridDocumentRetriever(null, null, properties, null, null,
+                BenchmarkFixtures.ragMetrics(properties));
+        properties.getFusion().setMethod(method);
+        profile = properties.getFusion().profile(BenchmarkFixtures.KB);
+        rrfK = properties.getRrfK();
+        topK = properties.getRetrieveTopK();
+
+        vectorDocs = BenchmarkFixtures.retrievedDocuments("chunk-", resultsPerSource, 10, 600, 1L);
+        int shared = resultsPerSource * overlapPercent / 100;
+        keywordDocs = new ArrayList<>(resultsPerSource);
+        // 共享的文档在关键词结果中倒序出现，模拟两路排名不一致
+        for (int i = shared - 1; i >= 0; i--) {
+            keywordDocs.add(vectorDocs.get(i));
+        }
+        keywordDocs.addAll(BenchmarkFixtures.retrievedDocuments("keyword-", resultsPerSource - shared, 10, 600, 2L));
+    }
+
+    @Benchmark
+    public List<Document> fusion() {
+        return retriever.fuse(profile, vectorDocs, keywordDocs);
+    }
+
+    @Benchmark
+    public List<Document> rrfFusionMaps() {
+        Map<String, Double> scoreMap = new HashMap<>();
+        Map<String, Document> docMap = new LinkedHashMap<>();
+        accumulateScores(vectorDocs, scoreMap, docMap);
+        accumulateScores(keywordDocs, scoreMap, docMap);
+        return scoreMap.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(entry -> {
+                    Document doc = docMap.get(entry.getKey());
+                    Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+                    metadata.put(HybridDocumentRetriever.FUSED_SCORE, entry.getValue());
+                    return doc.mutate().metadata(metadata).build();
+                })
+                .toList();
+    }
+
+    private void accumulateScores(List<Document> docs, Map<String, Double> scoreMap, Map<String, Document> docMap) {
+        for (int i = 0; i < docs.size(); i++) {
+            Document doc = docs.get(i);
+            scoreMap.merge(doc.getId(), 1.0 / (rrfK + i + 1), Double::sum);
+            docMap.putIfAbsent(doc.getId(), doc);
+        }
+    }
+}
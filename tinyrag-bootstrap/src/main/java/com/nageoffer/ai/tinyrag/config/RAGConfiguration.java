@@ -1,39 +1,69 @@
 package com.nageoffer.ai.tinyrag.config;
 
+import com.nageoffer.ai.tinyrag.service.OnnxCrossEncoderReranker;
+import com.nageoffer.ai.tinyrag.service.RerankService;
+import com.nageoffer.ai.tinyrag.service.Reranker;
+import com.nageoffer.ai.tinyrag.service.cache.CachingEmbeddingModel;
+import com.nageoffer.ai.tinyrag.service.cache.EmbeddingCacheRepository;
+import com.nageoffer.ai.tinyrag.service.cache.RewriteCache;
+import com.nageoffer.ai.tinyrag.service.http.RequestDeadlineInterceptor;
+import com.nageoffer.ai.tinyrag.service.ingest.BatchingEmbeddingModel;
+import com.nageoffer.ai.tinyrag.service.memory.ChatMemoryStore;
+import com.nageoffer.ai.tinyrag.service.memory.SummarizingChatMemory;
+import com.nageoffer.ai.tinyrag.service.memory.TieredChatMemoryRepository;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+import com.nageoffer.ai.tinyrag.service.prompt.PromptTemplateRegistry;
 import com.nageoffer.ai.tinyrag.service.rag.ElasticsearchDocumentRepository;
 import com.nageoffer.ai.tinyrag.service.rag.HybridDocumentRetriever;
 import com.nageoffer.ai.tinyrag.service.rag.KeywordDocumentRetriever;
+import com.nageoffer.ai.tinyrag.service.rag.RetrievalBulkhead;
+import com.nageoffer.ai.tinyrag.service.rag.RetrievalContextPublisher;
 import com.nageoffer.ai.tinyrag.service.rag.RewriteQueryTransformer;
 import com.nageoffer.ai.tinyrag.service.rag.NonReturnDirectToolCallback;
 
 import io.modelcontextprotocol.client.McpSyncClient;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.tika.Tika;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.mcp.SyncMcpToolCallbackProvider;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
 import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
 import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.http.client.HttpComponentsClientHttpRequestFactoryBuilder;
+import org.springframework.boot.http.client.autoconfigure.ClientHttpRequestFactoryBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.Resource;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 
+@Slf4j
 @Configuration
 @EnableConfigurationProperties(RAGProperties.class)
 public class RAGConfiguration {
@@ -49,14 +79,80 @@ public class RAGConfiguration {
                 .toArray(ToolCallback[]::new);
     }
 
+    /**
+     * 默认按 token 预算压缩会话记忆，关闭 app.rag.summary-memory.enabled 时按条数截取
+     */
     @Bean
-    public ChatMemory chatMemory(RAGProperties ragProperties) {
+    public ChatMemory chatMemory(RAGProperties ragProperties,
+                                 ChatMemoryRepository chatMemoryRepository,
+                                 ChatModel chatModel,
+                                 PromptTemplateRegistry prompts,
+                                 @Qualifier("memorySummaryExecutor") TaskExecutor memorySummaryExecutor) {
+        if (ragProperties.getSummaryMemory().isEnabled()) {
+            return new SummarizingChatMemory(chatMemoryRepository, ragProperties, chatModel,
+                    prompts, memorySummaryExecutor);
+        }
         return MessageWindowChatMemory.builder()
-                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .chatMemoryRepository(chatMemoryRepository)
                 .maxMessages(ragProperties.getMemoryMaxMessages())
                 .build();
     }
 
+    @Bean
+    public TieredChatMemoryRepository chatMemoryRepository(RAGProperties ragProperties,
+                                                           JdbcTemplate jdbcTemplate,
+                                                           @Qualifier("chatMemoryScheduler") TaskScheduler chatMemoryScheduler) {
+        RAGProperties.MemoryStore properties = ragProperties.getMemoryStore();
+        ChatMemoryStore store = null;
+        if (properties.isPersistent()) {
+            store = new ChatMemoryStore(jdbcTemplate);
+            store.initSchema();
+        }
+        return new TieredChatMemoryRepository(properties, store, chatMemoryScheduler);
+    }
+
+    /**
+     * 应用统一使用的 EmbeddingModel：OpenAI 兼容接口 → 可选的缓存 → 可选的入库批处理（最外层）
+     */
+    @Bean
+    @Primary
+    public EmbeddingModel ragEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                            JdbcTemplate jdbcTemplate,
+                                            RAGProperties ragProperties,
+                                            @Qualifier("embeddingBatchExecutor") TaskExecutor embeddingBatchExecutor,
+                                            @Value("${spring.ai.openai.embedding.options.model:}") String embeddingModel) {
+        EmbeddingModel model = openAiEmbeddingModel;
+        RAGProperties.EmbeddingCache cacheProperties = ragProperties.getEmbeddingCache();
+        if (cacheProperties.isEnabled()) {
+            EmbeddingCacheRepository persistentCache = null;
+            if (cacheProperties.isPersistent()) {
+                persistentCache = new EmbeddingCacheRepository(jdbcTemplate);
+                persistentCache.initSchema();
+            }
+            model = new CachingEmbeddingModel(openAiEmbeddingModel, embeddingModel,
+                    cacheProperties.getMaximumSize(), persistentCache);
+        }
+        RAGProperties.EmbeddingBatch batchProperties = ragProperties.getEmbeddingBatch();
+        if (batchProperties.isEnabled()) {
+            model = new BatchingEmbeddingModel(model, batchProperties, embeddingBatchExecutor);
+        }
+        return model;
+    }
+
+    /**
+     * 按 app.rag.rerank-engine 选择 Rerank 引擎，RerankDocumentPostProcessor 注入的是这里的实例
+     */
+    @Bean
+    @Primary
+    public Reranker reranker(RAGProperties ragProperties,
+                             RerankService remoteRerankService,
+                             @Qualifier("localRerankExecutor") TaskExecutor localRerankExecutor) {
+        if (ragProperties.getRerankEngine() == RAGProperties.RerankEngine.LOCAL) {
+            return new OnnxCrossEncoderReranker(ragProperties.getLocalRerank(), localRerankExecutor);
+        }
+        return remoteRerankService;
+    }
+
     @Bean
     public KeywordDocumentRetriever keywordDocumentRetriever(
             ElasticsearchDocumentRepository esRepository,
@@ -68,12 +164,16 @@ public class RAGConfiguration {
     public HybridDocumentRetriever hybridDocumentRetriever(
             VectorStore vectorStore,
             KeywordDocumentRetriever keywordDocumentRetriever,
-            RAGProperties ragProperties) {
+            RAGProperties ragProperties,
+            @Qualifier("vectorRetrieveBulkhead") RetrievalBulkhead vectorBulkhead,
+            @Qualifier("keywordRetrieveBulkhead") RetrievalBulkhead keywordBulkhead,
+            RAGMetrics ragMetrics) {
         VectorStoreDocumentRetriever vectorRetriever = VectorStoreDocumentRetriever.builder()
                 .vectorStore(vectorStore)
                 .topK(ragProperties.getRetrieveTopK())
                 .build();
-        return new HybridDocumentRetriever(vectorRetriever, keywordDocumentRetriever, ragProperties);
+        return new HybridDocumentRetriever(vectorRetriever, keywordDocumentRetriever, ragProperties,
+                vectorBulkhead, keywordBulkhead, ragMetrics);
     }
 
     @Bean
@@ -81,29 +181,39 @@ public class RAGConfiguration {
             HybridDocumentRetriever hybridDocumentRetriever,
             RewriteQueryTransformer rewriteQueryTransformer,
             List<DocumentPostProcessor> documentPostProcessors,
-            @Value("classpath:/prompts/answer-user.st") Resource ragAugmentPrompt) {
+            PromptTemplateRegistry prompts) {
+        // 模板原文只用于占位符校验，渲染走注册表中预编译的当前版本
+        PromptTemplate augmentTemplate = PromptTemplate.builder()
+                .template(prompts.template(PromptTemplateRegistry.ANSWER_USER))
+                .renderer(prompts.renderer(PromptTemplateRegistry.ANSWER_USER))
+                .build();
         ContextualQueryAugmenter queryAugmenter = ContextualQueryAugmenter.builder()
-                .promptTemplate(new PromptTemplate(ragAugmentPrompt))
+                .promptTemplate(augmentTemplate)
                 .allowEmptyContext(true)
                 .build();
 
+        // 发布器必须放在最后，推荐问题等下游任务拿到的是 Rerank 之后的文档
+        List<DocumentPostProcessor> postProcessors = new ArrayList<>(documentPostProcessors);
+        postProcessors.add(new RetrievalContextPublisher());
+
         return RetrievalAugmentationAdvisor.builder()
                 .queryTransformers(rewriteQueryTransformer)
                 .documentRetriever(hybridDocumentRetriever)
-                .documentPostProcessors(documentPostProcessors)
+                .documentPostProcessors(postProcessors)
                 .queryAugmenter(queryAugmenter)
                 .build();
     }
 
+    /**
+     * 系统提示词由 RAGService 按请求从 PromptTemplateRegistry 取，模板热更新后立即生效
+     */
     @Bean
     public ChatClient chatClient(ChatModel chatModel,
                                  ToolCallback[] toolCallbacks,
                                  ChatMemory chatMemory,
-                                 RetrievalAugmentationAdvisor retrievalAugmentationAdvisor,
-                                 @Value("classpath:/prompts/answer-system.st") Resource answerSystemPrompt) {
+                                 RetrievalAugmentationAdvisor retrievalAugmentationAdvisor) {
         MessageChatMemoryAdvisor memoryAdvisor = MessageChatMemoryAdvisor.builder(chatMemory).build();
         return ChatClient.builder(chatModel)
-                .defaultSystem(answerSystemPrompt)
                 .defaultToolCallbacks(toolCallbacks)
                 .defaultAdvisors(memoryAdvisor, retrievalAugmentationAdvisor)
                 .build();
@@ -125,29 +235,235 @@ public class RAGConfiguration {
         return new Tika();
     }
 
+    /**
+     * 自动配置的 RestClient（OpenAI 兼容的改写等同步调用）同样按请求截止时间收紧响应超时
+     */
+    @Bean
+    public ClientHttpRequestFactoryBuilderCustomizer<HttpComponentsClientHttpRequestFactoryBuilder> requestDeadlineHttpClientCustomizer() {
+        return builder -> builder.withHttpClientCustomizer(httpClient ->
+                httpClient.addExecInterceptorFirst(RequestDeadlineInterceptor.NAME, new RequestDeadlineInterceptor()));
+    }
+
     @Bean
     public RewriteQueryTransformer rewriteQueryTransformer(
             ChatModel chatModel,
             RAGProperties ragProperties,
-            @Value("classpath:/prompts/rewrite-system.st") Resource rewriteSystemPrompt,
-            @Value("classpath:/prompts/rewrite-user.st") Resource rewriteUserPrompt) {
+            RAGMetrics ragMetrics,
+            PromptTemplateRegistry prompts,
+            RewriteCache rewriteCache,
+            HybridDocumentRetriever hybridDocumentRetriever) {
         return new RewriteQueryTransformer(
                 chatModel,
-                rewriteSystemPrompt,
-                rewriteUserPrompt,
-                ragProperties.getRewriteModel());
+                prompts,
+                ragProperties,
+                ragMetrics,
+                rewriteCache,
+                hybridDocumentRetriever);
+    }
+
+    /**
+     * SSE 问答线程池
+     * <p>
+     * 每个 SSE 会话在整个 LLM 流式输出期间都占用一个线程，平台线程池的 maxPoolSize 就是单节点并发会话上限；
+     * 虚拟线程模式下阻塞等待几乎不占资源，并发上限由 virtualConcurrencyLimit 控制。
+     * 平台线程池模式下由 actuator 自动暴露 executor.active / executor.queued 等饱和度指标
+     */
+    @Bean
+    public TaskExecutor ragTaskExecutor(RAGProperties ragProperties) {
+        RAGProperties.Executor executorProperties = ragProperties.getExecutor();
+        if (useVirtualThreads(executorProperties)) {
+            return virtualThreadExecutor("rag-sse-", executorProperties.getVirtualConcurrencyLimit());
+        }
+        return platformThreadExecutor("rag-sse-", executorProperties.getCorePoolSize(),
+                executorProperties.getMaxPoolSize(), executorProperties.getQueueCapacity());
+    }
+
+    /**
+     * 会话内的标题生成与推荐问题线程池
+     * <p>
+     * 这两类任务由 SSE 会话线程提交，会话要等推荐问题生成完才结束；若与会话共用 ragTaskExecutor，
+     * 虚拟线程模式下并发会话数达到 virtualConcurrencyLimit 时 execute 会阻塞在限流上，占满许可的会话互相等待而卡死，
+     * 平台线程池模式下则排在会话任务之后。单独建池后会话数仍只受 ragTaskExecutor 限制，
+     * 虚拟线程模式下这里不设并发上限（每个会话最多提交两个任务）
+     */
+    @Bean
+    public TaskExecutor ragFollowUpExecutor(RAGProperties ragProperties) {
+        RAGProperties.Executor executorProperties = ragProperties.getExecutor();
+        if (useVirtualThreads(executorProperties)) {
+            return virtualThreadExecutor("rag-followup-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+        }
+        return platformThreadExecutor("rag-followup-", executorProperties.getCorePoolSize(),
+                executorProperties.getMaxPoolSize(), executorProperties.getQueueCapacity());
+    }
+
+    /**
+     * 入库切分线程池，每个文件在切分阶段占用一个线程；与写入线程池分开，
+     * 避免切分任务占满线程后等待排在队列里的写入任务而互相卡死
+     */
+    @Bean
+    public TaskExecutor ingestSplitExecutor(RAGProperties ragProperties) {
+        RAGProperties.Ingest ingestProperties = ragProperties.getIngest();
+        if (useVirtualThreads(ragProperties.getExecutor())) {
+            return virtualThreadExecutor("rag-ingest-split-", ingestProperties.getSplitPoolSize());
+        }
+        return platformThreadExecutor("rag-ingest-split-", ingestProperties.getSplitPoolSize(),
+                ingestProperties.getSplitPoolSize(), ingestProperties.getSplitQueueCapacity());
+    }
+
+    /**
+     * 入库写入线程池：Embedding + pgvector 写入与 ES 写入，所有文件共享，单个文件的并发批次数由流水线限制
+     */
+    @Bean
+    public TaskExecutor ingestWriteExecutor(RAGProperties ragProperties) {
+        RAGProperties.Ingest ingestProperties = ragProperties.getIngest();
+        if (useVirtualThreads(ragProperties.getExecutor())) {
+            return virtualThreadExecutor("rag-ingest-write-", ingestProperties.getWritePoolSize());
+        }
+        return platformThreadExecutor("rag-ingest-write-", ingestProperties.getWritePoolSize(),
+                ingestProperties.getWritePoolSize(), ingestProperties.getWriteQueueCapacity());
+    }
+
+    /**
+     * 入库 Embedding 批次的请求线程，同时进行中的批次数由 BatchingEmbeddingModel 的自适应上限控制，
+     * 这里按上限配置线程数，队列只用于吸收许可释放与线程归还之间的短暂重叠
+     */
+    @Bean
+    public TaskExecutor embeddingBatchExecutor(RAGProperties ragProperties) {
+        int maxInFlight = ragProperties.getEmbeddingBatch().getMaxInFlight();
+        if (useVirtualThreads(ragProperties.getExecutor())) {
+            return virtualThreadExecutor("rag-embedding-", maxInFlight);
+        }
+        return platformThreadExecutor("rag-embedding-", maxInFlight, maxInFlight, maxInFlight);
     }
 
+    /**
+     * ES _bulk 请求的发送线程，线程数即所有写入共享的 _bulk 并发数；队列满时由调用线程自行发送
+     */
     @Bean
-    public TaskExecutor ragTaskExecutor() {
+    public TaskExecutor esBulkExecutor(RAGProperties ragProperties) {
+        int maxInFlight = ragProperties.getEsBulk().getMaxInFlight();
+        if (useVirtualThreads(ragProperties.getExecutor())) {
+            return virtualThreadExecutor("rag-es-bulk-", maxInFlight);
+        }
+        return platformThreadExecutor("rag-es-bulk-", maxInFlight, maxInFlight, 64);
+    }
+
+    /**
+     * 本地 Rerank 推理线程，推理为 CPU 密集型任务，始终使用平台线程；未启用本地 Rerank 时不会创建线程
+     */
+    @Bean
+    public TaskExecutor localRerankExecutor(RAGProperties ragProperties) {
+        int poolSize = ragProperties.getLocalRerank().getPoolSize();
+        return platformThreadExecutor("rag-rerank-", poolSize, poolSize, 64);
+    }
+
+    /**
+     * 会话记忆的后台摘要压缩，单线程即可，队列满时本次跳过
+     */
+    @Bean
+    public TaskExecutor memorySummaryExecutor() {
+        return platformThreadExecutor("rag-memory-summary-", 1, 1, 256);
+    }
+
+    /**
+     * 异步入库任务 worker 的轮询线程，每个 worker 常驻占用一个线程
+     */
+    @Bean
+    public TaskExecutor ingestJobExecutor(RAGProperties ragProperties) {
+        int workerConcurrency = ragProperties.getIngestJob().getWorkerConcurrency();
+        if (useVirtualThreads(ragProperties.getExecutor())) {
+            return virtualThreadExecutor("rag-ingest-job-", workerConcurrency);
+        }
+        return platformThreadExecutor("rag-ingest-job-", workerConcurrency, workerConcurrency, 0);
+    }
+
+    /**
+     * 入库任务的进度写回（心跳）与 SSE 进度推送，均为短小的数据库读写
+     */
+    @Bean
+    public TaskScheduler ingestProgressScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("rag-ingest-progress-");
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    /**
+     * 会话记忆的批量写回与过期清理
+     */
+    @Bean
+    public TaskScheduler chatMemoryScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("rag-memory-flush-");
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    /**
+     * 混合检索中向量检索的隔离舱，与关键词检索互不影响，pgvector JDBC 阻塞调用不再占用 commonPool
+     */
+    @Bean
+    public RetrievalBulkhead vectorRetrieveBulkhead(RAGProperties ragProperties) {
+        RAGProperties.Executor executorProperties = ragProperties.getExecutor();
+        return new RetrievalBulkhead("vector",
+                executorProperties.getVectorPoolSize(),
+                executorProperties.getVectorQueueCapacity(),
+                retrieveThreadFactory(executorProperties, "rag-vector-"));
+    }
+
+    /**
+     * 混合检索中关键词（ES BM25）检索的隔离舱
+     */
+    @Bean
+    public RetrievalBulkhead keywordRetrieveBulkhead(RAGProperties ragProperties) {
+        RAGProperties.Executor executorProperties = ragProperties.getExecutor();
+        return new RetrievalBulkhead("keyword",
+                executorProperties.getKeywordPoolSize(),
+                executorProperties.getKeywordQueueCapacity(),
+                retrieveThreadFactory(executorProperties, "rag-keyword-"));
+    }
+
+    private static ThreadFactory retrieveThreadFactory(RAGProperties.Executor executorProperties, String threadNamePrefix) {
+        if (useVirtualThreads(executorProperties)) {
+            return new VirtualThreadTaskExecutor(threadNamePrefix).getVirtualThreadFactory();
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    private static boolean useVirtualThreads(RAGProperties.Executor executorProperties) {
+        if (!executorProperties.isVirtualThreads()) {
+            return false;
+        }
+        if (Runtime.version().feature() < 21) {
+            log.warn("[Executor] 当前运行时为 Java {}, 不支持虚拟线程, 回退为平台线程池", Runtime.version().feature());
+            return false;
+        }
+        return true;
+    }
+
+    private static ThreadPoolTaskExecutor platformThreadExecutor(String threadNamePrefix, int corePoolSize,
+                                                                 int maxPoolSize, int queueCapacity) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(4);
-        executor.setMaxPoolSize(8);
-        executor.setQueueCapacity(200);
-        executor.setThreadNamePrefix("rag-sse-");
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.setAwaitTerminationSeconds(30);
         executor.initialize();
         return executor;
     }
+
+    private static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix, int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        executor.setTaskTerminationTimeout(30000);
+        log.info("[Executor] {} 使用虚拟线程, 并发上限={}", threadNamePrefix, concurrencyLimit);
+        return executor;
+    }
 }
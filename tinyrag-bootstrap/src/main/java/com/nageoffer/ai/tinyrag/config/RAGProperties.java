@@ -1,13 +1,24 @@
 package com.nageoffer.ai.tinyrag.config;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Setter
 @Getter
 @Validated
@@ -24,6 +35,12 @@ public class RAGProperties {
     @NotBlank
     private String rerankEndpoint;
 
+    /**
+     * Rerank 引擎：remote 调用 rerankEndpoint，local 使用 localRerank 配置的进程内 ONNX 模型
+     */
+    @NotNull
+    private RerankEngine rerankEngine = RerankEngine.REMOTE;
+
     @Min(1)
     @Max(100)
     private Integer retrieveTopK;
@@ -56,6 +73,15 @@ public class RAGProperties {
     @Max(100)
     private Integer memoryMaxMessages = 20;
 
+    @Valid
+    private MemoryStore memoryStore = new MemoryStore();
+
+    @Valid
+    private SummaryMemory summaryMemory = new SummaryMemory();
+
+    @Valid
+    private Prompts prompts = new Prompts();
+
     @Min(1)
     @Max(100)
     private Integer keywordTopK = 8;
@@ -64,7 +90,844 @@ public class RAGProperties {
     @Max(200)
     private Integer rrfK = 60;
 
+    @Valid
+    private Fusion fusion = new Fusion();
+
+    @Valid
+    private RetrievalRouting retrievalRouting = new RetrievalRouting();
+
+    @Valid
+    private SpeculativeRetrieval speculativeRetrieval = new SpeculativeRetrieval();
+
     private String esAnalyzer = "standard";
 
     private String esUrl = "http://localhost:9200";
+
+    @Valid
+    private AnswerCache answerCache = new AnswerCache();
+
+    @Valid
+    private LocalRerank localRerank = new LocalRerank();
+
+    @Valid
+    private RerankCache rerankCache = new RerankCache();
+
+    @Valid
+    private RerankGate rerankGate = new RerankGate();
+
+    @Valid
+    private RewriteCache rewriteCache = new RewriteCache();
+
+    @Valid
+    private RewriteGate rewriteGate = new RewriteGate();
+
+    @Valid
+    private EmbeddingCache embeddingCache = new EmbeddingCache();
+
+    @Valid
+    private EmbeddingBatch embeddingBatch = new EmbeddingBatch();
+
+    @Valid
+    private EsBulk esBulk = new EsBulk();
+
+    @Valid
+    private HttpClient httpClient = new HttpClient();
+
+    @Valid
+    private Executor executor = new Executor();
+
+    @Valid
+    private Deadline deadline = new Deadline();
+
+    @Valid
+    private Ingest ingest = new Ingest();
+
+    @Valid
+    private IngestJob ingestJob = new IngestJob();
+
+    @Valid
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 语义答案缓存配置：问题向量与已缓存问题的余弦相似度超过阈值时直接回放缓存答案
+     */
+    @Setter
+    @Getter
+    public static class AnswerCache {
+
+        private boolean enabled = false;
+
+        @DecimalMin("0.5")
+        @DecimalMax("1.0")
+        private Double similarityThreshold = 0.95;
+
+        @NotNull
+        private Duration ttl = Duration.ofMinutes(10);
+
+        @NotNull
+        private DataSize maxMemory = DataSize.ofMegabytes(64);
+    }
+
+    /**
+     * 当前生效的 Rerank 模型标识
+     */
+    public String activeRerankModel() {
+        return rerankEngine == RerankEngine.LOCAL ? localRerank.getModelName() : rerankModel;
+    }
+
+    public enum RerankEngine {
+        REMOTE, LOCAL
+    }
+
+    /**
+     * 混合检索融合算法
+     * <ul>
+     *     <li>RRF：按排名融合，w / (rrfK + rank)，不看原始分数</li>
+     *     <li>MIN_MAX：每路分数按 (s - min) / (max - min) 归一化到 0~1 后加权求和</li>
+     *     <li>Z_SCORE：每路分数按 (s - mean) / std 标准化后加权求和</li>
+     *     <li>DBSF：以 mean ± 3std 为上下界做 min-max 归一化并截断到 0~1，对离群分数更稳健</li>
+     * </ul>
+     */
+    public enum FusionMethod {
+        RRF, MIN_MAX, Z_SCORE, DBSF
+    }
+
+    /**
+     * 混合检索融合配置：默认算法与两路权重，可按 kb 覆盖
+     */
+    @Setter
+    @Getter
+    public static class Fusion {
+
+        @NotNull
+        private FusionMethod method = FusionMethod.RRF;
+
+        @DecimalMin("0.0")
+        @DecimalMax("10.0")
+        private Double vectorWeight = 1.0;
+
+        @DecimalMin("0.0")
+        @DecimalMax("10.0")
+        private Double keywordWeight = 1.0;
+
+        /**
+         * 按 kb 覆盖，未配置的字段沿用上面的默认值
+         */
+        private Map<String, @Valid KbFusion> kb = new HashMap<>();
+
+        /**
+         * 指定 kb 实际生效的融合配置
+         */
+        public FusionProfile profile(String kbName) {
+            KbFusion override = kbName == null ? null : kb.get(kbName);
+            if (override == null) {
+                return new FusionProfile(method, vectorWeight, keywordWeight);
+            }
+            return new FusionProfile(
+                    override.getMethod() != null ? override.getMethod() : method,
+                    override.getVectorWeight() != null ? override.getVectorWeight() : vectorWeight,
+                    override.getKeywordWeight() != null ? override.getKeywordWeight() : keywordWeight);
+        }
+    }
+
+    /**
+     * 推测检索配置：调用改写模型的同时用原问题开始检索，改写结果变化较大时再用改写后的问题检索一次并合并
+     */
+    @Setter
+    @Getter
+    public static class SpeculativeRetrieval {
+
+        private boolean enabled = false;
+
+        /**
+         * 改写前后问题的 token 重合度（Jaccard）不低于该值时直接使用原问题的检索结果，不再检索第二次
+         */
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        private Double minTokenOverlap = 0.5;
+    }
+
+    /**
+     * 检索路由配置：按问题特征决定只走关键词、只走向量还是两路都走，以及两路都走时的对冲模式
+     */
+    @Setter
+    @Getter
+    public static class RetrievalRouting {
+
+        /**
+         * 默认关闭：只走一路会损失另一路的召回，开启前应先用线上问题评估路由结果
+         */
+        private boolean enabled = false;
+
+        /**
+         * 含编号类词且不超过该长度（字符数）的问题只走关键词检索
+         */
+        @Min(1)
+        @Max(200)
+        private Integer keywordMaxLength = 24;
+
+        /**
+         * 不含编号、引号且不短于该长度的问题只走向量检索
+         */
+        @Min(1)
+        @Max(1000)
+        private Integer vectorMinLength = 40;
+
+        /**
+         * 对冲模式：两路都走时，先返回的一路结果已足够好就直接使用，并取消另一路
+         */
+        private boolean hedged = false;
+
+        /**
+         * 先返回的一路至少有多少个文档才算足够好
+         */
+        @Min(1)
+        @Max(100)
+        private Integer hedgeMinDocuments = 3;
+
+        /**
+         * 先返回的是向量检索时，第一名相似度的下限
+         */
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        private Double hedgeMinVectorScore = 0.75;
+
+        /**
+         * 先返回的是关键词检索时，第一名 BM25 分数的下限；BM25 分数不做归一化，0 表示只看文档数
+         */
+        @DecimalMin("0.0")
+        private Double hedgeMinKeywordScore = 0.0;
+    }
+
+    @Setter
+    @Getter
+    public static class KbFusion {
+
+        private FusionMethod method;
+
+        @DecimalMin("0.0")
+        @DecimalMax("10.0")
+        private Double vectorWeight;
+
+        @DecimalMin("0.0")
+        @DecimalMax("10.0")
+        private Double keywordWeight;
+    }
+
+    public record FusionProfile(FusionMethod method, double vectorWeight, double keywordWeight) {
+    }
+
+    /**
+     * 本地 cross-encoder Rerank 配置：ONNX 模型与 HuggingFace tokenizer.json，CPU 推理
+     */
+    @Setter
+    @Getter
+    public static class LocalRerank {
+
+        /**
+         * 模型标识，用于指标标签与 Rerank 结果缓存键
+         */
+        @NotBlank
+        private String modelName = "bge-reranker-base";
+
+        /**
+         * ONNX 模型文件路径，rerankEngine 为 local 时必填
+         */
+        private String modelPath;
+
+        /**
+         * tokenizer.json 文件路径，rerankEngine 为 local 时必填
+         */
+        private String tokenizerPath;
+
+        /**
+         * 问题 + 候选文本的最大 token 数，超出时截断候选文本
+         */
+        @Min(16)
+        @Max(8192)
+        private Integer maxSequenceLength = 512;
+
+        /**
+         * 单次推理的 (问题, 候选) 对数量
+         */
+        @Min(1)
+        @Max(256)
+        private Integer batchSize = 16;
+
+        /**
+         * 推理线程数，即同时执行的批次数上限
+         */
+        @Min(1)
+        @Max(64)
+        private Integer poolSize = 2;
+
+        /**
+         * 单个批次内部算子的并行线程数
+         */
+        @Min(1)
+        @Max(64)
+        private Integer intraOpThreads = 2;
+    }
+
+    /**
+     * Rerank 结果缓存配置：问题与候选文档集合都相同时复用上次的 Rerank 结果
+     */
+    @Setter
+    @Getter
+    public static class RerankCache {
+
+        private boolean enabled = true;
+
+        @NotNull
+        private Duration ttl = Duration.ofMinutes(10);
+
+        @Min(1)
+        @Max(1000000)
+        private Integer maximumSize = 10000;
+    }
+
+    /**
+     * Rerank 跳过策略配置：检索结果已足够确定时不调用 Rerank，直接按融合顺序取 rerankTopN
+     */
+    @Setter
+    @Getter
+    public static class RerankGate {
+
+        private boolean enabled = true;
+
+        /**
+         * 候选数不超过 rerankTopN 时跳过
+         */
+        private boolean skipWhenFewCandidates = true;
+
+        /**
+         * 融合算法 → 第一名与第二名融合分数的相对差距（相对第一名）达到该值时跳过，未配置的算法不按分数差距跳过。
+         * 各算法的分数尺度不同，需分别用 Rerank 结果与融合顺序的一致率校准，默认全部不启用；
+         * 例如 RRF（rrfK=60、权重均为 1）下只要有一个文档在两路都排第一，相对差距就约为 0.5，并不代表结果确定
+         */
+        private Map<FusionMethod, @DecimalMin("0.0") @DecimalMax("1.0") Double> minRelativeGap = new HashMap<>();
+
+        /**
+         * 全部候选来自同一文件、且 chunk_index 跨度小于该值时跳过，0 表示不启用
+         */
+        @Min(0)
+        @Max(100)
+        private Integer singleWindowChunks = 4;
+    }
+
+    /**
+     * 问题改写结果缓存配置：相同改写模型、改写模板与问题命中时跳过改写调用
+     */
+    @Setter
+    @Getter
+    public static class RewriteCache {
+
+        private boolean enabled = true;
+
+        @NotNull
+        private Duration ttl = Duration.ofMinutes(30);
+
+        @Min(1)
+        @Max(1000000)
+        private Integer maximumSize = 10000;
+    }
+
+    /**
+     * 问题改写跳过策略配置：问题本身已适合检索时不调用改写模型，直接用原问题检索
+     */
+    @Setter
+    @Getter
+    public static class RewriteGate {
+
+        private boolean enabled = true;
+
+        /**
+         * 不超过该长度、不含寒暄语、连续标点且只有一个问题的短问题跳过改写，0 表示不启用
+         */
+        @Min(0)
+        @Max(200)
+        private Integer shortQuestionMaxLength = 16;
+
+        /**
+         * 以编号类词（SKU、错误码、版本号、常量名）为主的问题跳过改写，避免模型改动编号
+         */
+        private boolean skipIdentifierQuestions = true;
+    }
+
+    /**
+     * Embedding 缓存配置：进程内缓存按条目数限制，持久化缓存写入 pgvector 所在的 Postgres
+     */
+    @Setter
+    @Getter
+    public static class EmbeddingCache {
+
+        private boolean enabled = true;
+
+        @Min(1)
+        @Max(1000000)
+        private Integer maximumSize = 10000;
+
+        private boolean persistent = false;
+    }
+
+    /**
+     * 会话记忆存储配置：堆内热数据按字节数与空闲时长淘汰，persistent 为 true 时异步批量写回 Postgres
+     */
+    @Setter
+    @Getter
+    public static class MemoryStore {
+
+        /**
+         * 热数据占用堆内存的上限（按消息文本长度估算）
+         */
+        @NotNull
+        private DataSize maxResidentBytes = DataSize.ofMegabytes(64);
+
+        /**
+         * 会话空闲多久后移出热数据，持久化时下次访问从 Postgres 重新加载
+         */
+        @NotNull
+        private Duration idleTtl = Duration.ofMinutes(30);
+
+        private boolean persistent = true;
+
+        @NotNull
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * 单次批量写入的会话数，待写回的会话数达到该值时提前刷写
+         */
+        @Min(1)
+        @Max(10000)
+        private Integer flushBatchSize = 200;
+
+        /**
+         * 待写回会话数的上限，达到上限后新会话的写入改为同步写入 Postgres，不再进入队列
+         */
+        @Min(1)
+        @Max(1000000)
+        private Integer maxPendingWrites = 10000;
+
+        /**
+         * Postgres 中会话的保留时长，超过该时长未更新的会话每小时清理一次
+         */
+        @NotNull
+        private Duration retention = Duration.ofDays(30);
+    }
+
+    /**
+     * 摘要压缩记忆配置：早期对话在后台合并为摘要，带入 prompt 的历史按 token 预算截取
+     */
+    @Setter
+    @Getter
+    public static class SummaryMemory {
+
+        /**
+         * 关闭时退回按条数截取的 MessageWindowChatMemory
+         */
+        private boolean enabled = true;
+
+        /**
+         * 带入 prompt 的历史（摘要 + 最近消息）的 token 上限
+         */
+        @Min(100)
+        @Max(100000)
+        private Integer maxPromptTokens = 2000;
+
+        /**
+         * 摘要之外的消息超过该 token 数时触发后台压缩
+         */
+        @Min(100)
+        @Max(100000)
+        private Integer compressThresholdTokens = 1500;
+
+        /**
+         * 压缩时保留不动的最近对话轮数
+         */
+        @Min(0)
+        @Max(20)
+        private Integer keepRecentRounds = 2;
+
+        @Min(32)
+        @Max(2048)
+        private Integer summaryMaxTokens = 300;
+
+        /**
+         * 缓存逐条 token 数的会话数上限
+         */
+        @Min(1)
+        @Max(10000000)
+        private Integer maxCachedSessions = 100000;
+    }
+
+    /**
+     * prompt 模板配置：模板启动时从 classpath:/prompts 加载并预编译
+     */
+    @Setter
+    @Getter
+    public static class Prompts {
+
+        /**
+         * 模板覆盖目录，其中的同名 .st 文件优先于 classpath 版本，修改后自动重新加载；为空时不监听
+         */
+        private String watchDir;
+    }
+
+    /**
+     * 问答线程池与检索隔离舱配置：virtualThreads 为 true 且运行时为 Java 21+ 时使用虚拟线程，否则使用平台线程
+     */
+    @Setter
+    @Getter
+    public static class Executor {
+
+        private boolean virtualThreads = false;
+
+        /**
+         * 虚拟线程模式下同时执行的任务上限，-1 表示不限制
+         */
+        @Min(-1)
+        private Integer virtualConcurrencyLimit = 512;
+
+        @Min(1)
+        @Max(512)
+        private Integer corePoolSize = 4;
+
+        @Min(1)
+        @Max(1024)
+        private Integer maxPoolSize = 8;
+
+        @Min(0)
+        @Max(100000)
+        private Integer queueCapacity = 200;
+
+        @Min(1)
+        @Max(256)
+        private Integer vectorPoolSize = 8;
+
+        @Min(0)
+        @Max(10000)
+        private Integer vectorQueueCapacity = 64;
+
+        @Min(1)
+        @Max(256)
+        private Integer keywordPoolSize = 8;
+
+        @Min(0)
+        @Max(10000)
+        private Integer keywordQueueCapacity = 64;
+    }
+
+    /**
+     * 问答请求的时间预算：total 为整个请求的上限，各阶段预算与剩余总时间取较小值
+     */
+    @Setter
+    @Getter
+    public static class Deadline {
+
+        @NotNull
+        private Duration total = Duration.ofSeconds(120);
+
+        @NotNull
+        private Duration rewrite = Duration.ofSeconds(5);
+
+        @NotNull
+        private Duration vector = Duration.ofSeconds(10);
+
+        @NotNull
+        private Duration keyword = Duration.ofSeconds(5);
+
+        @NotNull
+        private Duration rerank = Duration.ofSeconds(8);
+
+        /**
+         * 从首 token 开始计算的生成时长上限，超出后截断回答
+         */
+        @NotNull
+        private Duration generation = Duration.ofSeconds(90);
+
+        /**
+         * 推荐问题从检索完成开始计算的生成时长上限，超出后推送兜底文案
+         */
+        @NotNull
+        private Duration suggestions = Duration.ofSeconds(15);
+    }
+
+    /**
+     * 入库流水线配置：Tika 流式解析 → 增量切分 → 分批并发 Embedding 与 ES 写入，各阶段之间均为有界缓冲
+     */
+    @Setter
+    @Getter
+    public static class Ingest {
+
+        /**
+         * 解析阶段每攒够多少字符交给切分阶段一次
+         */
+        @Min(4096)
+        @Max(1048576)
+        private Integer segmentChars = 65536;
+
+        /**
+         * 解析与切分之间的缓冲段数，切分跟不上时解析线程阻塞
+         */
+        @Min(1)
+        @Max(1024)
+        private Integer segmentQueueCapacity = 8;
+
+        /**
+         * 每批写入向量库（含 Embedding）与 ES 的 chunk 数
+         */
+        @Min(1)
+        @Max(1000)
+        private Integer batchSize = 32;
+
+        /**
+         * 单个文件同时进行中的 Embedding + pgvector 写入批次数
+         */
+        @Min(1)
+        @Max(64)
+        private Integer embeddingConcurrency = 4;
+
+        /**
+         * 单个文件同时进行中的 ES 写入批次数
+         */
+        @Min(1)
+        @Max(64)
+        private Integer indexConcurrency = 2;
+
+        /**
+         * 切分线程数，即同时进行切分的文件数上限，超出的文件排队等待
+         */
+        @Min(1)
+        @Max(64)
+        private Integer splitPoolSize = 4;
+
+        @Min(0)
+        @Max(10000)
+        private Integer splitQueueCapacity = 64;
+
+        /**
+         * 所有文件共享的写入（Embedding + pgvector、ES）线程数
+         */
+        @Min(1)
+        @Max(512)
+        private Integer writePoolSize = 16;
+
+        @Min(0)
+        @Max(100000)
+        private Integer writeQueueCapacity = 256;
+    }
+
+    /**
+     * 异步入库任务配置：任务与文件内容持久化在 Postgres，各节点的 worker 从表中抢占任务执行
+     */
+    @Setter
+    @Getter
+    public static class IngestJob {
+
+        /**
+         * 单个节点同时执行的任务数
+         */
+        @Min(1)
+        @Max(64)
+        private Integer workerConcurrency = 2;
+
+        /**
+         * 没有待执行任务时的轮询间隔
+         */
+        @NotNull
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * 执行中任务的进度写回间隔，同时作为心跳，也是 SSE 进度推送的间隔
+         */
+        @NotNull
+        private Duration progressInterval = Duration.ofSeconds(1);
+
+        /**
+         * 执行中任务超过该时长没有心跳，视为所在节点已宕机，由其他 worker 重新执行
+         */
+        @NotNull
+        private Duration leaseTimeout = Duration.ofMinutes(2);
+
+        /**
+         * 单个任务最多被执行的次数（含宕机后重新执行）
+         */
+        @Min(1)
+        @Max(10)
+        private Integer maxAttempts = 3;
+
+        /**
+         * 进度 SSE 连接的最长保持时间
+         */
+        @NotNull
+        private Duration sseTimeout = Duration.ofMinutes(30);
+    }
+
+    /**
+     * 入库 Embedding 批处理配置：按 token 预算打包，多批并发请求，遇到 429 / 5xx 时退避并自适应降低并发
+     */
+    @Setter
+    @Getter
+    public static class EmbeddingBatch {
+
+        private boolean enabled = true;
+
+        /**
+         * 单次请求的最大文本数，百炼 text-embedding-v3 / v4 上限为 10
+         */
+        @Min(1)
+        @Max(2048)
+        private Integer maxBatchSize = 10;
+
+        /**
+         * 单次请求的最大 token 数（估算值）
+         */
+        @Min(1)
+        private Integer maxBatchTokens = 8000;
+
+        /**
+         * 同时进行中的请求数上限，限流后自适应下调，恢复后逐步回升到该值
+         */
+        @Min(1)
+        @Max(64)
+        private Integer maxInFlight = 4;
+
+        /**
+         * 自适应下调的下限
+         */
+        @Min(1)
+        private Integer minInFlight = 1;
+
+        /**
+         * 单个批次遇到 429 / 5xx 时的最大重试次数
+         */
+        @Min(0)
+        @Max(20)
+        private Integer maxRetries = 5;
+
+        /**
+         * 首次重试的退避时间，之后按 2 倍递增并加随机抖动
+         */
+        @NotNull
+        private Duration initialBackoff = Duration.ofMillis(500);
+
+        @NotNull
+        private Duration maxBackoff = Duration.ofSeconds(20);
+    }
+
+    /**
+     * ES 批量写入配置：按条数与请求体大小拆分 _bulk 请求，并发发送，被拒绝的条目退避后重试
+     */
+    @Setter
+    @Getter
+    public static class EsBulk {
+
+        /**
+         * 单个 _bulk 请求的最大条目数
+         */
+        @Min(1)
+        @Max(10000)
+        private Integer maxActions = 500;
+
+        /**
+         * 单个 _bulk 请求体的估算大小上限，需小于 ES 的 http.max_content_length（默认 100MB）
+         */
+        @NotNull
+        private DataSize maxRequestSize = DataSize.ofMegabytes(5);
+
+        /**
+         * 所有写入共享的 _bulk 请求并发数
+         */
+        @Min(1)
+        @Max(32)
+        private Integer maxInFlight = 2;
+
+        /**
+         * 被拒绝（429 / 503）的条目或请求的最大重试次数
+         */
+        @Min(0)
+        @Max(10)
+        private Integer maxRetries = 3;
+
+        /**
+         * 首次重试的退避时间，之后按 2 倍递增
+         */
+        @NotNull
+        private Duration initialBackoff = Duration.ofMillis(200);
+
+        @NotNull
+        private Duration maxBackoff = Duration.ofSeconds(5);
+    }
+
+    /**
+     * ES 与 Rerank 共用的 HTTP 连接池配置
+     */
+    @Setter
+    @Getter
+    public static class HttpClient {
+
+        @Min(1)
+        @Max(1000)
+        private Integer maxConnections = 100;
+
+        /**
+         * 单个目标地址（ES / Rerank 各为一个）的连接数上限
+         */
+        @Min(1)
+        @Max(1000)
+        private Integer maxConnectionsPerRoute = 50;
+
+        @NotNull
+        private Duration connectTimeout = Duration.ofSeconds(2);
+
+        /**
+         * 连接池耗尽时等待空闲连接的最长时间，超时直接失败而不是无限排队
+         */
+        @NotNull
+        private Duration poolAcquireTimeout = Duration.ofSeconds(1);
+
+        /**
+         * 服务端未返回 Keep-Alive 头时连接的保活时长，空闲超过该时长的连接会被后台清理
+         */
+        @NotNull
+        private Duration keepAlive = Duration.ofSeconds(30);
+
+        /**
+         * 空闲超过该时长的连接在复用前先校验是否仍然可用
+         */
+        @NotNull
+        private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+        /**
+         * 是否发送 Accept-Encoding 并自动解压 gzip / deflate 响应
+         */
+        private boolean compression = true;
+
+        /**
+         * ES 请求（检索、批量写入）的响应超时
+         */
+        @NotNull
+        private Duration esResponseTimeout = Duration.ofSeconds(10);
+
+        @NotNull
+        private Duration rerankResponseTimeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * 指标标签配置
+     * <p>
+     * 请求级指标的 kb 标签只取已知知识库：这里配置的 kbs、fusion.kb 中按 kb 覆盖的知识库，以及入库过的知识库
+     * （启动时从版本表加载，之后随入库追加），合计不超过 maxKbTags 个，其余 kb 一律记为 other，
+     * 避免客户端随意传入的 kb 在 Prometheus 中产生无上限的时间序列
+     */
+    @Setter
+    @Getter
+    public static class Metrics {
+
+        private List<String> kbs = new ArrayList<>();
+
+        @Min(0)
+        @Max(1000)
+        private Integer maxKbTags = 100;
+    }
 }
@@ -1,16 +1,21 @@
 package com.nageoffer.ai.tinyrag.controller;
 
+import com.nageoffer.ai.tinyrag.model.IngestJobResponse;
 import com.nageoffer.ai.tinyrag.model.RAGRequest;
 import com.nageoffer.ai.tinyrag.model.UploadResponse;
 import com.nageoffer.ai.tinyrag.service.KnowledgeIngestionService;
 import com.nageoffer.ai.tinyrag.service.RAGService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
@@ -39,4 +44,21 @@ public class RAGController {
                                      @RequestParam(value = "kb", required = false) String kb) {
         return ingestionService.ingest(file, kb);
     }
+
+    @PostMapping(value = "/knowledge/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public IngestJobResponse submitIngestJob(@RequestParam("file") MultipartFile file,
+                                             @RequestParam(value = "kb", required = false) String kb) {
+        return ingestionService.submit(file, kb);
+    }
+
+    @GetMapping("/knowledge/jobs/{jobId}")
+    public IngestJobResponse getIngestJob(@PathVariable("jobId") String jobId) {
+        return ingestionService.getJob(jobId);
+    }
+
+    @GetMapping(value = "/knowledge/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamIngestJob(@PathVariable("jobId") String jobId) {
+        return ingestionService.streamJob(jobId);
+    }
 }
@@ -0,0 +1,53 @@
+package com.nageoffer.ai.tinyrag.model;
+
+import java.time.Instant;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 异步入库任务的状态与进度
+ */
+@Setter
+@Getter
+public class IngestJobResponse {
+
+    private String jobId;
+
+    private String fileName;
+
+    private String kb;
+
+    /**
+     * PENDING / RUNNING / SUCCEEDED / FAILED
+     */
+    private String status;
+
+    /**
+     * 已执行次数，节点宕机后任务会被重新执行
+     */
+    private Integer attempts;
+
+    private Long parsedChars;
+
+    private Long chunked;
+
+    private Long embedded;
+
+    private Long indexed;
+
+    /**
+     * 成功后的 chunk 总数
+     */
+    private Integer chunkCount;
+
+    private String error;
+
+    private Instant createdAt;
+
+    private Instant finishedAt;
+
+    public boolean isFinished() {
+        return "SUCCEEDED".equals(status) || "FAILED".equals(status);
+    }
+}
@@ -13,6 +13,21 @@ public class UploadResponse {
 
     private Integer chunkCount;
 
+    /**
+     * 该文件在知识库中的版本号，首次上传为 1
+     */
+    private Integer version;
+
+    /**
+     * 与上一版本相同、未重新写入的 chunk 数
+     */
+    private Integer skippedCount;
+
+    /**
+     * 上一版本有、本次已删除的 chunk 数
+     */
+    private Integer deletedCount;
+
     public UploadResponse(String fileName, String kb, Integer chunkCount) {
         this.fileName = fileName;
         this.kb = kb;
@@ -1,92 +1,211 @@
 package com.nageoffer.ai.tinyrag.service;
 
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.model.IngestJobResponse;
 import com.nageoffer.ai.tinyrag.model.UploadResponse;
-import com.nageoffer.ai.tinyrag.service.rag.ElasticsearchDocumentRepository;
-
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache;
+import com.nageoffer.ai.tinyrag.service.cache.SemanticAnswerCache;
+import com.nageoffer.ai.tinyrag.service.ingest.ChunkDiff;
+import com.nageoffer.ai.tinyrag.service.ingest.DocumentVersionService;
+import com.nageoffer.ai.tinyrag.service.ingest.IngestJobRepository;
+import com.nageoffer.ai.tinyrag.service.ingest.IngestionPipeline;
+import com.nageoffer.ai.tinyrag.service.ingest.IngestionProgress;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.Lock;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tika.Tika;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class KnowledgeIngestionService {
 
     private static final Set<String> SUPPORTED_EXTENSIONS = Set.of("pdf", "doc", "docx", "md", "markdown");
 
-    private final VectorStore vectorStore;
-    private final TokenTextSplitter tokenTextSplitter;
-    private final Tika tika;
-    private final ElasticsearchDocumentRepository esRepository;
+    private final IngestionPipeline ingestionPipeline;
+    private final DocumentVersionService versionService;
+    private final SemanticAnswerCache answerCache;
+    private final RerankCache rerankCache;
+    private final IngestJobRepository jobRepository;
+    private final RAGProperties ragProperties;
+    private final TaskScheduler progressScheduler;
+    private final RAGMetrics ragMetrics;
+
+    public KnowledgeIngestionService(IngestionPipeline ingestionPipeline,
+                                     DocumentVersionService versionService,
+                                     SemanticAnswerCache answerCache,
+                                     RerankCache rerankCache,
+                                     IngestJobRepository jobRepository,
+                                     RAGProperties ragProperties,
+                                     @Qualifier("ingestProgressScheduler") TaskScheduler progressScheduler,
+                                     RAGMetrics ragMetrics) {
+        this.ingestionPipeline = ingestionPipeline;
+        this.versionService = versionService;
+        this.answerCache = answerCache;
+        this.rerankCache = rerankCache;
+        this.jobRepository = jobRepository;
+        this.ragProperties = ragProperties;
+        this.progressScheduler = progressScheduler;
+        this.ragMetrics = ragMetrics;
+    }
+
+    /**
+     * 入库过的知识库登记为指标的 kb 标签，版本表不可用时只用配置的知识库
+     */
+    @PostConstruct
+    public void registerIngestedKbs() {
+        try {
+            ragMetrics.registerKbs(versionService.ingestedKbs(ragProperties.getMetrics().getMaxKbTags()));
+        } catch (Exception ex) {
+            log.warn("[Ingest] 加载已入库知识库失败: {}", ex.getMessage());
+        }
+    }
 
+    /**
+     * 同步入库：阻塞到所有 chunk 写入完成
+     */
     public UploadResponse ingest(MultipartFile file, String kb) {
         String fileName = normalizeFileName(file.getOriginalFilename());
         validateFileType(fileName);
         String kbName = normalizeKb(kb);
 
+        try (InputStream inputStream = file.getInputStream()) {
+            return ingest(inputStream, fileName, kbName, new IngestionProgress());
+        } catch (IOException ex) {
+            throw new ResponseStatusException(BAD_REQUEST, "读取上传文件失败", ex);
+        }
+    }
+
+    /**
+     * 入库一个已校验过的文件，同步上传与异步任务 worker 共用。
+     * 同一 (kb, 文件名) 视为同一文档的新版本：未变化的 chunk 跳过，已移除的 chunk 删除
+     *
+     * @param progress 进度，流水线各阶段完成后累加，调用方可在执行期间读取
+     */
+    public UploadResponse ingest(InputStream inputStream, String fileName, String kbName, IngestionProgress progress) {
         log.info("[Ingest] 开始处理文件: {}, kb={}", fileName, kbName);
-        String content = parseContentWithTika(file);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", fileName);
+        metadata.put("filename", fileName);
+        metadata.put("kb", kbName);
+        metadata.put("file_type", getFileExtension(fileName));
+
+        Lock lock = versionService.lock(kbName, fileName);
+        lock.lock();
+        int version;
+        try {
+            ChunkDiff diff = versionService.begin(kbName, fileName);
+            ingestionPipeline.run(inputStream, fileName, metadata, progress, diff);
+            version = versionService.commit(diff, progress);
+            ragMetrics.registerKbs(List.of(kbName));
+        } finally {
+            lock.unlock();
+            // 流水线中途失败时已有部分批次写入，同样需要让该 kb 的缓存答案与 Rerank 结果失效
+            if (progress.embedded() > 0 || progress.indexed() > 0 || progress.deleted() > 0) {
+                answerCache.invalidate(kbName);
+                rerankCache.invalidate(kbName);
+            }
+        }
+
+        int chunkCount = (int) progress.chunked();
+        log.info("[Ingest] 入库完成: file={}, kb={}, version={}, chunks={}, skipped={}, deleted={}",
+                fileName, kbName, version, chunkCount, progress.skipped(), progress.deleted());
+        UploadResponse response = new UploadResponse(fileName, kbName, chunkCount);
+        response.setVersion(version);
+        response.setSkippedCount((int) progress.skipped());
+        response.setDeletedCount((int) progress.deleted());
+        return response;
+    }
+
+    /**
+     * 异步入库：校验后把文件内容写入任务表立即返回，由 IngestJobWorker 执行
+     */
+    public IngestJobResponse submit(MultipartFile file, String kb) {
+        String fileName = normalizeFileName(file.getOriginalFilename());
+        validateFileType(fileName);
+        String kbName = normalizeKb(kb);
 
-        if (!StringUtils.hasText(content)) {
+        if (file.isEmpty()) {
             throw new ResponseStatusException(BAD_REQUEST, "上传文件内容为空");
         }
-        log.info("[Ingest] Tika 解析完成, 内容长度: {} 字符", content.length());
-
-        List<Document> chunks = splitToDocuments(content, fileName, kbName);
-        if (chunks.isEmpty()) {
-            throw new ResponseStatusException(BAD_REQUEST, "文件切分后无有效文本");
+        // 按块从上传的临时文件读出写入任务表，不把整个文件读入内存
+        IngestJobResponse job;
+        try (InputStream inputStream = file.getInputStream()) {
+            job = jobRepository.create(fileName, kbName, inputStream);
+        } catch (IOException ex) {
+            throw new ResponseStatusException(BAD_REQUEST, "读取上传文件失败", ex);
         }
-        log.info("[Ingest] 文本切分完成, 共 {} 个 chunk", chunks.size());
-
-        vectorStore.add(chunks);
-        esRepository.indexDocuments(chunks);
-        log.info("[Ingest] 入库完成: file={}, kb={}, chunks={}", fileName, kbName, chunks.size());
-        return new UploadResponse(fileName, kbName, chunks.size());
+        log.info("[IngestJob] 已提交入库任务: jobId={}, file={}, kb={}, bytes={}",
+                job.getJobId(), fileName, kbName, file.getSize());
+        return job;
     }
 
-    private List<Document> splitToDocuments(String content, String fileName, String kb) {
-        String extension = getFileExtension(fileName);
+    public IngestJobResponse getJob(String jobId) {
+        return jobRepository.findById(jobId)
+                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "入库任务不存在"));
+    }
 
-        Document sourceDoc = Document.builder()
-                .text(content)
-                .metadata("source", fileName)
-                .metadata("filename", fileName)
-                .metadata("kb", kb)
-                .metadata("file_type", extension)
-                .build();
-
-        List<Document> splitDocs = tokenTextSplitter.split(sourceDoc);
-        List<Document> chunks = new ArrayList<>(splitDocs.size());
-
-        for (int i = 0; i < splitDocs.size(); i++) {
-            Document doc = splitDocs.get(i);
-            Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
-            metadata.put("chunk_index", i);
-
-            chunks.add(Document.builder()
-                    .text(doc.getText())
-                    .metadata(metadata)
-                    .build());
+    /**
+     * 按 progressInterval 推送任务进度（progress 事件），任务结束后推送 done 事件并关闭连接
+     */
+    public SseEmitter streamJob(String jobId) {
+        IngestJobResponse job = getJob(jobId);
+        RAGProperties.IngestJob jobProperties = ragProperties.getIngestJob();
+        SseEmitter emitter = new SseEmitter(jobProperties.getSseTimeout().toMillis());
+        if (!pushJob(emitter, job)) {
+            return emitter;
         }
 
-        return chunks;
+        ScheduledFuture<?> pushTask = progressScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                jobRepository.findById(jobId).ifPresent(latest -> pushJob(emitter, latest));
+            } catch (Exception ex) {
+                log.warn("[IngestJob] 查询任务进度失败: jobId={}, {}", jobId, ex.getMessage());
+            }
+        }, Instant.now().plus(jobProperties.getProgressInterval()), jobProperties.getProgressInterval());
+        emitter.onCompletion(() -> pushTask.cancel(false));
+        emitter.onTimeout(() -> pushTask.cancel(false));
+        emitter.onError(ex -> pushTask.cancel(false));
+        return emitter;
+    }
+
+    /**
+     * @return 任务未结束且连接仍可用时返回 true
+     */
+    private boolean pushJob(SseEmitter emitter, IngestJobResponse job) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(job));
+            if (job.isFinished()) {
+                emitter.send(SseEmitter.event().name("done").data(job));
+                emitter.complete();
+                return false;
+            }
+            return true;
+        } catch (IOException | IllegalStateException ex) {
+            log.info("[SSE] 客户端已断开连接，停止推送任务进度: jobId={}", job.getJobId());
+            emitter.completeWithError(ex);
+            return false;
+        }
     }
 
     private String normalizeFileName(String fileName) {
@@ -117,13 +236,4 @@ public class KnowledgeIngestionService {
         }
         return extension.toLowerCase(Locale.ROOT);
     }
-
-    private String parseContentWithTika(MultipartFile file) {
-        try (InputStream inputStream = file.getInputStream()) {
-            String content = tika.parseToString(inputStream);
-            return content == null ? "" : content.trim();
-        } catch (Exception ex) {
-            throw new ResponseStatusException(BAD_REQUEST, "使用 Tika 解析文件失败", ex);
-        }
-    }
 }
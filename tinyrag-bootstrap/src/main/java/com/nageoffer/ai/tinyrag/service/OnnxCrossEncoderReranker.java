@@ -0,0 +1,183 @@
+package com.nageoffer.ai.tinyrag.service;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.djl.util.PairList;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.util.StringUtils;
+
+/**
+ * 本地 Rerank：在进程内用 ONNX Runtime 运行 cross-encoder 模型（如 bge-reranker、ms-marco-MiniLM）
+ * <p>
+ * 候选按 batchSize 分批，每批将 (问题, 候选) 对编码为一个定长张量后推理，多个批次在专用线程池上并行执行。
+ * 会话在启动时创建并预热一次，之后常驻复用（OrtSession 线程安全）。分数取模型输出 logit 的 sigmoid
+ */
+@Slf4j
+public class OnnxCrossEncoderReranker implements Reranker, DisposableBean {
+
+    private static final String INPUT_IDS = "input_ids";
+    private static final String ATTENTION_MASK = "attention_mask";
+    private static final String TOKEN_TYPE_IDS = "token_type_ids";
+
+    private final RAGProperties.LocalRerank properties;
+    private final TaskExecutor executor;
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final HuggingFaceTokenizer tokenizer;
+    private final boolean needsTokenTypeIds;
+
+    public OnnxCrossEncoderReranker(RAGProperties.LocalRerank properties, TaskExecutor executor) {
+        if (!StringUtils.hasText(properties.getModelPath()) || !StringUtils.hasText(properties.getTokenizerPath())) {
+            throw new IllegalStateException("本地 Rerank 需要配置 app.rag.local-rerank.model-path 与 tokenizer-path");
+        }
+        this.properties = properties;
+        this.executor = executor;
+        try {
+            // 只截断候选文本，问题保持完整；不做 padding，按批次内最长序列统一补齐
+            this.tokenizer = HuggingFaceTokenizer.newInstance(Path.of(properties.getTokenizerPath()), Map.of(
+                    "maxLength", String.valueOf(properties.getMaxSequenceLength()),
+                    "truncation", "only_second",
+                    "padding", "false"));
+            this.environment = OrtEnvironment.getEnvironment();
+            OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            options.setIntraOpNumThreads(properties.getIntraOpThreads());
+            this.session = environment.createSession(properties.getModelPath(), options);
+            this.needsTokenTypeIds = session.getInputNames().contains(TOKEN_TYPE_IDS);
+        } catch (IOException | OrtException ex) {
+            throw new IllegalStateException("本地 Rerank 模型加载失败: " + ex.getMessage(), ex);
+        }
+
+        long startNanos = System.nanoTime();
+        score("warmup", List.of("warmup"));
+        log.info("[Rerank] 本地模型 {} 加载完成, 输入={}, 预热耗时 {}ms", properties.getModelName(),
+                session.getInputNames(), (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    @Override
+    public List<RerankItem> rerank(String query, List<String> documents, int topN) {
+        if (!StringUtils.hasText(query) || documents == null || documents.isEmpty()) {
+            return List.of();
+        }
+
+        int batchSize = properties.getBatchSize();
+        List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        for (int start = 0; start < documents.size(); start += batchSize) {
+            List<String> batch = documents.subList(start, Math.min(documents.size(), start + batchSize));
+            futures.add(submit(query, batch));
+        }
+
+        List<RerankItem> items = new ArrayList<>(documents.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                float[] scores = futures.get(i).join();
+                for (int j = 0; j < scores.length; j++) {
+                    items.add(new RerankItem(i * batchSize + j, scores[j]));
+                }
+            }
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+        items.sort(Comparator.comparingDouble(RerankItem::score).reversed());
+        return List.copyOf(items.subList(0, Math.max(1, Math.min(topN, items.size()))));
+    }
+
+    @Override
+    public String model() {
+        return properties.getModelName();
+    }
+
+    private CompletableFuture<float[]> submit(String query, List<String> batch) {
+        try {
+            return CompletableFuture.supplyAsync(() -> score(query, batch), executor);
+        } catch (RejectedExecutionException ex) {
+            // 推理线程池已满时在调用线程上执行
+            return CompletableFuture.completedFuture(score(query, batch));
+        }
+    }
+
+    /**
+     * 对一批 (问题, 候选) 推理，返回与 batch 一一对应的分数
+     */
+    private float[] score(String query, List<String> batch) {
+        PairList<String, String> pairs = new PairList<>(batch.size());
+        for (String document : batch) {
+            pairs.add(query, document);
+        }
+        Encoding[] encodings = tokenizer.batchEncode(pairs);
+
+        int rows = encodings.length;
+        int columns = 1;
+        for (Encoding encoding : encodings) {
+            columns = Math.max(columns, encoding.getIds().length);
+        }
+        // 补齐部分 attention_mask 为 0，不影响分数
+        LongBuffer inputIds = LongBuffer.allocate(rows * columns);
+        LongBuffer attentionMask = LongBuffer.allocate(rows * columns);
+        LongBuffer tokenTypeIds = LongBuffer.allocate(rows * columns);
+        for (int row = 0; row < rows; row++) {
+            int offset = row * columns;
+            inputIds.put(offset, encodings[row].getIds());
+            attentionMask.put(offset, encodings[row].getAttentionMask());
+            tokenTypeIds.put(offset, encodings[row].getTypeIds());
+        }
+
+        long[] shape = {rows, columns};
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put(INPUT_IDS, OnnxTensor.createTensor(environment, inputIds, shape));
+            inputs.put(ATTENTION_MASK, OnnxTensor.createTensor(environment, attentionMask, shape));
+            if (needsTokenTypeIds) {
+                inputs.put(TOKEN_TYPE_IDS, OnnxTensor.createTensor(environment, tokenTypeIds, shape));
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                return toScores(result.get(0), rows);
+            }
+        } catch (OrtException ex) {
+            throw new IllegalStateException("本地 Rerank 推理失败: " + ex.getMessage(), ex);
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+        }
+    }
+
+    /**
+     * 输出为 [batch, 1] 的 logit，或 [batch, 2] 的二分类 logit（取正类），统一转为 0~1 的分数
+     */
+    private static float[] toScores(OnnxValue output, int rows) throws OrtException {
+        float[][] logits = (float[][]) output.getValue();
+        float[] scores = new float[rows];
+        for (int row = 0; row < rows; row++) {
+            float[] logit = logits[row];
+            float value = logit.length == 1 ? logit[0] : logit[logit.length - 1] - logit[0];
+            scores[row] = (float) (1.0 / (1.0 + Math.exp(-value)));
+        }
+        return scores;
+    }
+
+    @Override
+    public void destroy() throws OrtException {
+        session.close();
+        tokenizer.close();
+    }
+}
@@ -3,9 +3,18 @@ package com.nageoffer.ai.tinyrag.service;
 import cn.hutool.core.collection.CollUtil;
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
 import com.nageoffer.ai.tinyrag.model.RAGRequest;
+import com.nageoffer.ai.tinyrag.service.cache.SemanticAnswerCache;
+import com.nageoffer.ai.tinyrag.service.cache.SemanticAnswerCache.CachedAnswer;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+import com.nageoffer.ai.tinyrag.service.prompt.PromptTemplateRegistry;
 import com.nageoffer.ai.tinyrag.service.rag.ChatResponseUtils;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Stage;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Status;
+import com.nageoffer.ai.tinyrag.service.rag.RetrievalContext;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -13,7 +22,10 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import org.springframework.ai.document.Document;
@@ -22,13 +34,14 @@ import org.springframework.ai.rag.advisor.RetrievalAugmentationAdvisor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.ChatClientResponse;
+import reactor.core.publisher.Flux;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
@@ -38,28 +51,42 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 @Service
 public class RAGService {
 
+    /**
+     * 缓存答案回放时每个 token 事件的字符数
+     */
+    private static final int REPLAY_CHUNK_CHARS = 16;
+
     private final ChatClient chatClient;
     private final ChatClient titleClient;
     private final RAGProperties ragProperties;
-    private final Resource titleSystemPrompt;
-    private final Resource titleUserPrompt;
+    private final PromptTemplateRegistry prompts;
     private final TaskExecutor taskExecutor;
+    private final TaskExecutor followUpExecutor;
     private final SuggestionService suggestionService;
+    private final ChatMemory chatMemory;
+    private final SemanticAnswerCache answerCache;
+    private final RAGMetrics ragMetrics;
 
     public RAGService(ChatClient chatClient,
                       ChatModel chatModel,
                       RAGProperties ragProperties,
-                      @Value("classpath:/prompts/title-system.st") Resource titleSystemPrompt,
-                      @Value("classpath:/prompts/title-user.st") Resource titleUserPrompt,
+                      PromptTemplateRegistry prompts,
                       @Qualifier("ragTaskExecutor") TaskExecutor taskExecutor,
-                      SuggestionService suggestionService) {
+                      @Qualifier("ragFollowUpExecutor") TaskExecutor followUpExecutor,
+                      SuggestionService suggestionService,
+                      ChatMemory chatMemory,
+                      SemanticAnswerCache answerCache,
+                      RAGMetrics ragMetrics) {
         this.chatClient = chatClient;
         this.titleClient = ChatClient.builder(chatModel).build();
         this.ragProperties = ragProperties;
-        this.titleSystemPrompt = titleSystemPrompt;
-        this.titleUserPrompt = titleUserPrompt;
+        this.prompts = prompts;
         this.taskExecutor = taskExecutor;
+        this.followUpExecutor = followUpExecutor;
         this.suggestionService = suggestionService;
+        this.chatMemory = chatMemory;
+        this.answerCache = answerCache;
+        this.ragMetrics = ragMetrics;
     }
 
     public SseEmitter streamChat(RAGRequest request) {
@@ -71,31 +98,40 @@ public class RAGService {
                 : request.getSessionId();
         log.info("[RAG] sessionId={}, newSession={}, rawSessionId=[{}]", sessionId, newSession, request.getSessionId());
 
+        RequestDeadline deadline = new RequestDeadline(ragProperties.getDeadline());
         taskExecutor.execute(() -> {
             try {
                 sendEvent(emitter, "meta", Map.of("sessionId", sessionId));
 
                 // 新会话：异步生成标题，生成完单独推送
                 if (newSession) {
-                    CompletableFuture.supplyAsync(() -> generateTitle(request.getQuestion()), taskExecutor)
+                    CompletableFuture.supplyAsync(() -> generateTitle(request.getQuestion()), followUpExecutor)
                             .thenAccept(title -> {
                                 log.info("[RAG] 会话标题: {}", title);
                                 sendEvent(emitter, "title", Map.of("sessionTitle", title));
                             });
                 }
 
-                CompletableFuture<List<String>> suggestionsFuture = CompletableFuture
-                        .supplyAsync(() -> suggestionService.generate(request.getQuestion(), request.getKb()), taskExecutor);
+                // 推荐问题订阅主流程的检索结果，Rerank 一结束就开始生成，不再单独检索向量库
+                RetrievalContext retrievalContext = new RetrievalContext();
+                CompletableFuture<List<String>> suggestionsFuture = retrievalContext.documents()
+                        .thenApplyAsync(docs -> {
+                            deadline.markStarted(Stage.SUGGESTIONS);
+                            List<String> suggestions = suggestionService.generate(request.getQuestion(), request.getKb(), docs);
+                            deadline.finish(Stage.SUGGESTIONS, Status.OK);
+                            return suggestions;
+                        }, followUpExecutor);
 
                 List<Document> sources = streamAnswer(request.getQuestion(), request.getKb(), sessionId,
-                        token -> sendEvent(emitter, "token", token));
+                        retrievalContext, deadline, token -> sendEvent(emitter, "token", token));
 
                 pushSources(emitter, sources);
-                pushSuggestions(emitter, suggestionsFuture);
-                sendEvent(emitter, "done", "[DONE]");
+                pushSuggestions(emitter, suggestionsFuture, deadline);
+                sendEvent(emitter, "done", Map.of("status", "[DONE]", "timings", deadline.timings()));
                 emitter.complete();
             } catch (RuntimeException ex) {
                 if (ex.getCause() instanceof IOException) {
+                    ragMetrics.recordSseDisconnect();
                     return;
                 }
                 try {
@@ -111,33 +147,67 @@ public class RAGService {
 
     private void pushSources(SseEmitter emitter, List<Document> sources) {
         if (!sources.isEmpty()) {
-            LinkedHashMap<String, Map<String, Object>> grouped = new LinkedHashMap<>();
-            for (Document doc : sources) {
-                String fileName = String.valueOf(doc.getMetadata().getOrDefault("source", "未知来源"));
-                grouped.computeIfAbsent(fileName, k -> {
-                    Map<String, Object> item = new LinkedHashMap<>();
-                    item.put("source", fileName);
-                    item.put("kb", String.valueOf(doc.getMetadata().getOrDefault("kb", "")));
-                    item.put("chunkCount", 0);
-                    return item;
-                });
-                grouped.get(fileName).merge("chunkCount", 1, (a, b) -> (int) a + (int) b);
-            }
-            sendEvent(emitter, "sources", Map.of("documents", List.copyOf(grouped.values())));
+            sendEvent(emitter, "sources", Map.of("documents", groupSources(sources)));
         }
     }
 
+    /**
+     * 按来源文件聚合引用文档，统计每个文件命中的 chunk 数
+     */
+    static List<Map<String, Object>> groupSources(List<Document> sources) {
+        LinkedHashMap<String, Map<String, Object>> grouped = new LinkedHashMap<>();
+        for (Document doc : sources) {
+            String fileName = String.valueOf(doc.getMetadata().getOrDefault("source", "未知来源"));
+            grouped.computeIfAbsent(fileName, k -> {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("source", fileName);
+                item.put("kb", String.valueOf(doc.getMetadata().getOrDefault("kb", "")));
+                item.put("chunkCount", 0);
+                return item;
+            });
+            grouped.get(fileName).merge("chunkCount", 1, (a, b) -> (int) a + (int) b);
+        }
+        return List.copyOf(grouped.values());
+    }
+
     public List<Document> streamAnswer(String question, String kb, String sessionId,
                                        Consumer<String> tokenConsumer) {
+        return streamAnswer(question, kb, sessionId, new RetrievalContext(),
+                new RequestDeadline(ragProperties.getDeadline()), tokenConsumer);
+    }
+
+    public List<Document> streamAnswer(String question, String kb, String sessionId,
+                                       RetrievalContext retrievalContext,
+                                       RequestDeadline deadline,
+                                       Consumer<String> tokenConsumer) {
         List<Document> sources = new ArrayList<>();
         try {
             long startTime = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
             log.info("[RAG] 原始问题: {}", question);
 
+            // 语义缓存只用于没有历史对话的会话，多轮追问的答案依赖上下文，不能跨会话复用
+            float[] questionEmbedding = null;
+            long cacheGeneration = answerCache.generation();
+            if (answerCache.isEnabled() && CollUtil.isEmpty(chatMemory.get(sessionId))) {
+                questionEmbedding = answerCache.embedQuestion(question);
+                CachedAnswer cached = questionEmbedding == null ? null : answerCache.get(questionEmbedding, kb);
+                if (cached != null) {
+                    retrievalContext.skip();
+                    replayCachedAnswer(cached, sessionId, question, tokenConsumer);
+                    log.info("[RAG] 语义缓存命中, 跳过检索与生成 ({}ms)", System.currentTimeMillis() - startTime);
+                    return new ArrayList<>(cached.sources());
+                }
+            }
+
             ChatClient.ChatClientRequestSpec requestSpec = chatClient.prompt()
+                    .system(prompts.answerSystem())
                     .user(question);
 
-            requestSpec.advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, sessionId));
+            requestSpec.advisors(spec -> spec
+                    .param(ChatMemory.CONVERSATION_ID, sessionId)
+                    .param(RetrievalContext.CONTEXT_KEY, retrievalContext)
+                    .param(RequestDeadline.CONTEXT_KEY, deadline));
             if (StringUtils.hasText(kb)) {
                 requestSpec.advisors(spec -> spec.param(
                         VectorStoreDocumentRetriever.FILTER_EXPRESSION,
@@ -152,7 +222,17 @@ public class RAGService {
             log.info("[RAG] 开始流式调用 LLM...");
             long llmStartTime = System.currentTimeMillis();
 
-            requestSpec.stream().chatClientResponse().toStream().forEach(chunk -> {
+            // 整个请求的剩余时间是硬上限（卡住不出 token 也会结束）；首 token 之后再受生成阶段预算约束。
+            // 只有 take / takeUntil 真正切断了上游才算截断，预算耗尽前后自然结束的回答仍按完整回答处理
+            StringBuilder answer = new StringBuilder();
+            AtomicLong firstTokenNanos = new AtomicLong();
+            AtomicInteger tokenCount = new AtomicInteger();
+            AtomicBoolean cutOff = new AtomicBoolean();
+            Flux<ChatClientResponse> responses = requestSpec.stream().chatClientResponse()
+                    .doOnCancel(() -> cutOff.set(true))
+                    .take(Duration.ofNanos(Math.max(1L, deadline.remainingNanos())))
+                    .takeUntil(chunk -> deadline.remainingNanos(Stage.GENERATION) <= 0);
+            responses.toStream().forEach(chunk -> {
                 if (CollUtil.isEmpty(sources)) {
                     @SuppressWarnings("unchecked")
                     List<Document> docs = (List<Document>) chunk.context()
@@ -163,10 +243,32 @@ public class RAGService {
                 }
                 String token = ChatResponseUtils.extractText(chunk);
                 if (StringUtils.hasText(token)) {
+                    deadline.markStarted(Stage.GENERATION);
+                    if (tokenCount.getAndIncrement() == 0) {
+                        firstTokenNanos.set(System.nanoTime());
+                        ragMetrics.recordFirstToken(kb, firstTokenNanos.get() - startNanos);
+                    }
+                    answer.append(token);
                     tokenConsumer.accept(token);
                 }
             });
 
+            if (tokenCount.get() > 0) {
+                ragMetrics.recordGeneration(kb, tokenCount.get(), System.nanoTime() - firstTokenNanos.get());
+            }
+
+            boolean truncated = cutOff.get();
+            deadline.finish(Stage.GENERATION, truncated ? Status.TIMEOUT : Status.OK);
+            if (truncated) {
+                log.warn("[RAG] 生成超出时间预算, 回答已截断");
+                tokenConsumer.accept("\n\n（回答超出时间预算，已截断）");
+            }
+
+            // 只缓存有知识库依据的答案，纯工具调用类回答（天气、汇率等）时效性强，不进入缓存
+            if (questionEmbedding != null && !sources.isEmpty() && !truncated) {
+                answerCache.put(questionEmbedding, kb, question, answer.toString(), sources, cacheGeneration);
+            }
+
             log.info("[RAG] LLM 流式调用完成 ({}ms, 总 {}ms)",
                     System.currentTimeMillis() - llmStartTime,
                     System.currentTimeMillis() - startTime);
@@ -176,16 +278,43 @@ public class RAGService {
             }
             log.error("[RAG] 问答过程出错", e);
             tokenConsumer.accept("处理问题时出错：" + e.getMessage());
+        } finally {
+            // 检索链路未走到发布点（异常、提前返回）时也要让订阅方结束等待
+            retrievalContext.publish(sources);
         }
 
         return sources;
     }
 
-    private void pushSuggestions(SseEmitter emitter, CompletableFuture<List<String>> suggestionsFuture) {
+    private void replayCachedAnswer(CachedAnswer cached, String sessionId, String question,
+                                    Consumer<String> tokenConsumer) {
+        String answer = cached.answer();
+        int start = 0;
+        while (start < answer.length()) {
+            int end = Math.min(start + REPLAY_CHUNK_CHARS, answer.length());
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            tokenConsumer.accept(answer.substring(start, end));
+            start = end;
+        }
+        // 命中缓存时同样写入会话记忆，保证后续追问有上下文
+        chatMemory.add(sessionId, List.of(new UserMessage(question), new AssistantMessage(answer)));
+    }
+
+    private void pushSuggestions(SseEmitter emitter, CompletableFuture<List<String>> suggestionsFuture,
+                                 RequestDeadline deadline) {
         List<String> suggestions;
         try {
-            suggestions = suggestionsFuture.get(15, TimeUnit.SECONDS);
+            long waitNanos = Math.max(0L, deadline.remainingNanos(Stage.SUGGESTIONS));
+            suggestions = suggestionsFuture.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            suggestionsFuture.cancel(true);
+            deadline.finish(Stage.SUGGESTIONS, Status.TIMEOUT);
+            log.warn("[RAG] 推荐问题超出时间预算, 推送兜底文案");
+            suggestions = List.of();
         } catch (Exception ex) {
+            deadline.finish(Stage.SUGGESTIONS, Status.ERROR);
             log.warn("[RAG] 推荐问题获取失败: {}", ex.getMessage());
             suggestions = List.of();
         }
@@ -213,8 +342,8 @@ public class RAGService {
     private String generateTitle(String question) {
         try {
             ChatClientResponse response = titleClient.prompt()
-                    .system(system -> system.text(titleSystemPrompt))
-                    .user(user -> user.text(titleUserPrompt).param("question", question))
+                    .system(prompts.titleSystem())
+                    .user(prompts.titleUser(question))
                     .options(ChatOptions.builder().temperature(0.0).maxTokens(32).build())
                     .call()
                     .chatClientResponse();
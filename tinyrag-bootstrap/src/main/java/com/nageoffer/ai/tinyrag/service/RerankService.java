@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -17,8 +18,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClient;
 
+/**
+ * 远程 Rerank：调用 rerankEndpoint 配置的 Rerank 接口
+ */
 @Service
-public class RerankService {
+public class RerankService implements Reranker {
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
@@ -27,12 +31,14 @@ public class RerankService {
     private final String apiKey;
 
     public RerankService(RAGProperties ragProperties,
+                         PooledHttpTransport httpTransport,
                          @Value("${spring.ai.openai.api-key:}") String apiKey) {
         this.ragProperties = ragProperties;
         this.apiKey = apiKey;
-        this.restClient = RestClient.builder().build();
+        this.restClient = httpTransport.restClientBuilder(ragProperties.getHttpClient().getRerankResponseTimeout()).build();
     }
 
+    @Override
     public List<RerankItem> rerank(String query, List<String> documents, int topN) {
         if (!StringUtils.hasText(query) || documents == null || documents.isEmpty()) {
             return List.of();
@@ -48,6 +54,11 @@ public class RerankService {
         return parseResults(body);
     }
 
+    @Override
+    public String model() {
+        return ragProperties.getRerankModel();
+    }
+
     private Map<String, Object> buildRequest(String query, List<String> documents, int topN) {
         int safeTopN = Math.max(1, Math.min(topN, documents.size()));
 
@@ -114,7 +125,4 @@ public class RerankService {
         }
         return 0.0;
     }
-
-    public record RerankItem(int index, double score) {
-    }
 }
@@ -0,0 +1,25 @@
+package com.nageoffer.ai.tinyrag.service;
+
+import java.util.List;
+
+/**
+ * Rerank 引擎：对 (问题, 候选文本) 打分并返回得分最高的 topN 个候选
+ * <p>
+ * 实现由 app.rag.rerank-engine 选择：remote 调用远程 Rerank 接口（RerankService），
+ * local 在进程内运行 ONNX cross-encoder 模型（OnnxCrossEncoderReranker）
+ */
+public interface Reranker {
+
+    /**
+     * @return 按分数从高到低排列的结果，index 为候选在 documents 中的下标
+     */
+    List<RerankItem> rerank(String query, List<String> documents, int topN);
+
+    /**
+     * 模型标识，用于指标标签与 Rerank 结果缓存键
+     */
+    String model();
+
+    record RerankItem(int index, double score) {
+    }
+}
@@ -1,6 +1,7 @@
 package com.nageoffer.ai.tinyrag.service;
 
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.prompt.PromptTemplateRegistry;
 import com.nageoffer.ai.tinyrag.service.rag.ChatResponseUtils;
 
 import java.util.Arrays;
@@ -18,17 +19,16 @@ import org.springframework.ai.document.Document;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 /**
  * 推荐问题生成服务
  * <p>
- * 基于用户问题做独立向量检索 + 收集 MCP 工具描述，调用 LLM 生成有据可答的推荐问题
+ * 基于检索文档 + 收集 MCP 工具描述，调用 LLM 生成有据可答的推荐问题
  * 该服务无状态、线程安全，可在任意线程池中并行调用
- * 不过有个性能问题，那就是常规的知识问答会调用一次向量库，这里还会重复调用一次向量库。如果是对底层向量库性能敏感，考虑优化
+ * 问答链路中优先复用主流程 Rerank 后的检索结果（见 {@link com.nageoffer.ai.tinyrag.service.rag.RetrievalContext}），
+ * 只有拿不到主流程结果时才做一次独立向量检索
  */
 @Slf4j
 @Service
@@ -38,22 +38,19 @@ public class SuggestionService {
     private final VectorStore vectorStore;
     private final ToolCallback[] toolCallbacks;
     private final RAGProperties ragProperties;
-    private final Resource systemPrompt;
-    private final Resource userPrompt;
+    private final PromptTemplateRegistry prompts;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public SuggestionService(ChatModel chatModel,
                              VectorStore vectorStore,
                              ToolCallback[] toolCallbacks,
                              RAGProperties ragProperties,
-                             @Value("classpath:/prompts/suggestions-system.st") Resource systemPrompt,
-                             @Value("classpath:/prompts/suggestions-user.st") Resource userPrompt) {
+                             PromptTemplateRegistry prompts) {
         this.suggestionsClient = ChatClient.builder(chatModel).build();
         this.vectorStore = vectorStore;
         this.toolCallbacks = toolCallbacks;
         this.ragProperties = ragProperties;
-        this.systemPrompt = systemPrompt;
-        this.userPrompt = userPrompt;
+        this.prompts = prompts;
     }
 
     /**
@@ -64,18 +61,27 @@ public class SuggestionService {
      * @return 推荐问题列表，失败时返回空列表
      */
     public List<String> generate(String question, String kb) {
+        return generate(question, kb, null);
+    }
+
+    /**
+     * 基于已有检索结果生成推荐问题
+     *
+     * @param question  用户原始问题
+     * @param kb        知识库标识（可为空）
+     * @param documents 主流程检索结果，为 null 时退回独立向量检索
+     * @return 推荐问题列表，失败时返回空列表
+     */
+    public List<String> generate(String question, String kb, List<Document> documents) {
         try {
-            // 1. 独立向量检索，获取相关文档
-            SearchRequest.Builder searchBuilder = SearchRequest.builder()
-                    .query(question)
-                    .topK(ragProperties.getRetrieveTopK());
-            if (StringUtils.hasText(kb)) {
-                searchBuilder.filterExpression("kb == '" + escapeForFilter(kb) + "'");
+            // 1. 获取相关文档：优先复用主流程检索结果
+            if (documents == null) {
+                documents = searchDocuments(question, kb);
             }
-            List<Document> documents = vectorStore.similaritySearch(searchBuilder.build());
 
             String docContext = documents.stream()
                     .map(Document::getText)
+                    .filter(StringUtils::hasText)
                     .collect(Collectors.joining("\n---\n"));
 
             // 2. 收集 MCP 工具描述
@@ -89,11 +95,10 @@ public class SuggestionService {
 
             // 3. 调用 LLM 生成推荐问题
             ChatClientResponse response = suggestionsClient.prompt()
-                    .system(system -> system.text(systemPrompt))
-                    .user(user -> user.text(userPrompt)
-                            .param("question", question)
-                            .param("retrievedDocuments", formatSection("参考文档", docContext))
-                            .param("toolDescriptions", formatSection("可用工具", toolDesc)))
+                    .system(prompts.suggestionsSystem())
+                    .user(prompts.suggestionsUser(question,
+                            formatSection("参考文档", docContext),
+                            formatSection("可用工具", toolDesc)))
                     .options(ChatOptions.builder().temperature(0.7).maxTokens(256).build())
                     .call()
                     .chatClientResponse();
@@ -111,6 +116,16 @@ public class SuggestionService {
         }
     }
 
+    private List<Document> searchDocuments(String question, String kb) {
+        SearchRequest.Builder searchBuilder = SearchRequest.builder()
+                .query(question)
+                .topK(ragProperties.getRetrieveTopK());
+        if (StringUtils.hasText(kb)) {
+            searchBuilder.filterExpression("kb == '" + escapeForFilter(kb) + "'");
+        }
+        return vectorStore.similaritySearch(searchBuilder.build());
+    }
+
     private List<String> parseJsonArray(String text) {
         try {
             int start = text.indexOf('[');
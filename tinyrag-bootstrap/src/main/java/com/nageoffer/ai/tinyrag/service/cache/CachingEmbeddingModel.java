@@ -0,0 +1,160 @@
+package com.nageoffer.ai.tinyrag.service.cache;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.jspecify.annotations.NonNull;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.util.StringUtils;
+
+/**
+ * 带缓存的 EmbeddingModel 装饰器
+ * <p>
+ * 以 SHA-256(模型名 + 维度 + 归一化文本) 为键，先查进程内缓存（Caffeine，W-TinyLFU 淘汰），
+ * 再查可选的 Postgres 持久化缓存，只把真正未命中的文本发给 Embedding 接口。
+ * 同一批次内的重复文本也只会请求一次。入库重复上传、查询路径重复向量化都会命中这里
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final String defaultModel;
+    private final Cache<String, float[]> localCache;
+    private final EmbeddingCacheRepository persistentCache;
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder persistentHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param delegate        实际调用 Embedding 接口的模型
+     * @param defaultModel    请求未指定模型时使用的模型名，参与缓存键计算
+     * @param maximumSize     进程内缓存最大条目数
+     * @param persistentCache 持久化缓存，为 null 时仅使用进程内缓存
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModel, long maximumSize,
+                                 EmbeddingCacheRepository persistentCache) {
+        this.delegate = delegate;
+        this.defaultModel = defaultModel == null ? "" : defaultModel;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+        this.persistentCache = persistentCache;
+    }
+
+    @Override
+    public @NonNull EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String keyPrefix = keyPrefix(request.getOptions());
+
+        float[][] vectors = new float[texts.size()][];
+        List<String> keys = new ArrayList<>(texts.size());
+        // 未命中进程内缓存的 key → 原文，LinkedHashMap 保证批次内去重且顺序稳定
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = cacheKey(keyPrefix, texts.get(i));
+            keys.add(key);
+            float[] cached = localCache.getIfPresent(key);
+            if (cached != null) {
+                vectors[i] = cached;
+                localHits.increment();
+            } else {
+                pending.putIfAbsent(key, texts.get(i));
+            }
+        }
+
+        Map<String, float[]> resolved = new HashMap<>();
+        if (!pending.isEmpty() && persistentCache != null) {
+            Map<String, float[]> stored = persistentCache.findAll(pending.keySet());
+            persistentHits.add(stored.size());
+            stored.forEach(localCache::put);
+            resolved.putAll(stored);
+            pending.keySet().removeAll(stored.keySet());
+        }
+
+        if (!pending.isEmpty()) {
+            misses.add(pending.size());
+            List<String> missKeys = new ArrayList<>(pending.keySet());
+            EmbeddingResponse response = delegate.call(
+                    new EmbeddingRequest(new ArrayList<>(pending.values()), request.getOptions()));
+            List<Embedding> results = response.getResults();
+            if (results.size() != missKeys.size()) {
+                throw new IllegalStateException("Embedding 返回数量与请求数量不一致: expected="
+                        + missKeys.size() + ", actual=" + results.size());
+            }
+            Map<String, float[]> fresh = new LinkedHashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                Embedding embedding = results.get(i);
+                int index = embedding.getIndex() == null ? i : embedding.getIndex();
+                fresh.put(missKeys.get(index), embedding.getOutput());
+            }
+            fresh.forEach(localCache::put);
+            if (persistentCache != null) {
+                persistentCache.saveAll(fresh, keyPrefix);
+            }
+            resolved.putAll(fresh);
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            float[] vector = vectors[i] != null ? vectors[i] : resolved.get(keys.get(i));
+            embeddings.add(new Embedding(vector, i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(@NonNull Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public long localHitCount() {
+        return localHits.sum();
+    }
+
+    public long persistentHitCount() {
+        return persistentHits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private String keyPrefix(EmbeddingOptions options) {
+        String model = options != null && StringUtils.hasText(options.getModel()) ? options.getModel() : defaultModel;
+        Integer dimensions = options == null ? null : options.getDimensions();
+        return model + "|" + (dimensions == null ? "" : dimensions);
+    }
+
+    static String cacheKey(String keyPrefix, String text) {
+        return DigestUtil.sha256Hex(keyPrefix + "\u0000" + normalizeText(text));
+    }
+
+    static String normalizeText(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,89 @@
+package com.nageoffer.ai.tinyrag.service.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Embedding 持久化缓存，复用 pgvector 所在的 Postgres 数据源
+ * <p>
+ * 向量以 little-endian float32 字节存为 bytea，比 real[] 更紧凑；读写失败只降级为未命中，不影响主流程
+ */
+@Slf4j
+public class EmbeddingCacheRepository {
+
+    private static final String TABLE_NAME = "tinyrag_embedding_cache";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EmbeddingCacheRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                    + "content_hash VARCHAR(64) PRIMARY KEY, "
+                    + "model VARCHAR(255) NOT NULL, "
+                    + "embedding BYTEA NOT NULL, "
+                    + "created_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+            log.info("[EmbeddingCache] 持久化缓存表 {} 已就绪", TABLE_NAME);
+        } catch (Exception ex) {
+            log.warn("[EmbeddingCache] 持久化缓存表初始化失败: {}", ex.getMessage());
+        }
+    }
+
+    public Map<String, float[]> findAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+        try {
+            jdbcTemplate.query("SELECT content_hash, embedding FROM " + TABLE_NAME + " WHERE content_hash = ANY(?)",
+                    ps -> {
+                        Array array = ps.getConnection().createArrayOf("varchar", keys.toArray());
+                        ps.setArray(1, array);
+                    },
+                    rs -> {
+                        found.put(rs.getString(1), decode(rs.getBytes(2)));
+                    });
+        } catch (Exception ex) {
+            log.warn("[EmbeddingCache] 持久化缓存读取失败, 按未命中处理: {}", ex.getMessage());
+        }
+        return found;
+    }
+
+    public void saveAll(Map<String, float[]> embeddings, String model) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        try {
+            List<Object[]> rows = new ArrayList<>(embeddings.size());
+            embeddings.forEach((key, vector) -> rows.add(new Object[]{key, model, encode(vector)}));
+            jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_NAME + " (content_hash, model, embedding) VALUES (?, ?, ?) "
+                    + "ON CONFLICT (content_hash) DO NOTHING", rows);
+        } catch (Exception ex) {
+            log.warn("[EmbeddingCache] 持久化缓存写入失败: {}", ex.getMessage());
+        }
+    }
+
+    private static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
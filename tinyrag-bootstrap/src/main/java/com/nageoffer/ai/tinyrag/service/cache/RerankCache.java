@@ -0,0 +1,139 @@
+package com.nageoffer.ai.tinyrag.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.Reranker.RerankItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Rerank 结果缓存
+ * <p>
+ * 以「kb + Rerank 模型 + 归一化后的问题 + 有序的候选文档 id + topN」为键缓存 Rerank 返回的下标与分数，
+ * 命中时跳过 Rerank 接口调用。chunk id 由内容哈希决定，候选文本变化时 id 随之变化，不会命中旧结果；
+ * 条目按 TTL 过期、按条目数淘汰，同一 kb 有新文档入库时该 kb 及全库（未指定 kb）的条目全部失效
+ */
+@Slf4j
+@Component
+public class RerankCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final RAGProperties.RerankCache properties;
+    private final Cache<RerankKey, List<RerankItem>> entries;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RerankCache(RAGProperties ragProperties) {
+        this.properties = ragProperties.getRerankCache();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 当前缓存代次，调用方在请求 Rerank 前读取，写入时原样带回，用于丢弃请求期间被入库失效的结果
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 构造缓存键，候选文档缺少 id 时返回 null，调用方应直接跳过缓存
+     */
+    public RerankKey key(String kb, String model, String query, List<Document> candidates, int topN) {
+        List<String> candidateIds = new ArrayList<>(candidates.size());
+        for (Document candidate : candidates) {
+            if (!StringUtils.hasText(candidate.getId())) {
+                return null;
+            }
+            candidateIds.add(candidate.getId());
+        }
+        return new RerankKey(normalizeKb(kb), model, normalizeQuery(query), List.copyOf(candidateIds), topN);
+    }
+
+    /**
+     * @return 命中的 Rerank 结果，未命中返回 null
+     */
+    public List<RerankItem> get(RerankKey key) {
+        List<RerankItem> cached = entries.getIfPresent(key);
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    /**
+     * 写入一条 Rerank 结果；若请求期间发生了入库失效，则放弃写入
+     * <p>
+     * 与 SemanticAnswerCache 相同，写入后再读一次代次，代次已变时撤回刚写入的条目
+     */
+    public void put(RerankKey key, List<RerankItem> results, long expectedGeneration) {
+        if (generation.get() != expectedGeneration || results == null || results.isEmpty()) {
+            return;
+        }
+        List<RerankItem> value = List.copyOf(results);
+        entries.put(key, value);
+        if (generation.get() != expectedGeneration) {
+            entries.asMap().remove(key, value);
+        }
+    }
+
+    /**
+     * 使指定 kb 以及全库范围的缓存失效
+     */
+    public void invalidate(String kb) {
+        String kbKey = normalizeKb(kb);
+        generation.incrementAndGet();
+        entries.asMap().keySet().removeIf(key -> key.kb().isEmpty() || key.kb().equals(kbKey));
+        log.info("[RerankCache] kb='{}' 有新文档入库, 相关缓存已失效", kbKey);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    /**
+     * 去掉首尾空白、合并连续空白并转小写，只影响缓存键，调用 Rerank 时仍使用原问题
+     */
+    static String normalizeQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        return WHITESPACE.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeKb(String kb) {
+        return StringUtils.hasText(kb) ? kb.trim() : "";
+    }
+
+    public record RerankKey(String kb, String model, String query, List<String> candidateIds, int topN) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.nageoffer.ai.tinyrag.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * 问题改写结果缓存
+ * <p>
+ * 以「改写模型 + 改写模板版本 + 归一化后的问题」为键缓存改写结果，命中时跳过改写调用。
+ * 改写只依据问题本身（不带会话历史、不依赖知识库内容），因此键中不含 kb 与会话，入库也不需要失效；
+ * 改写模板热更新后模板版本变化，旧条目自然不再命中。条目按 TTL 过期、按条目数淘汰，改写失败或超时的结果不缓存
+ */
+@Component
+public class RewriteCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final RAGProperties.RewriteCache properties;
+    private final Cache<RewriteKey, String> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RewriteCache(RAGProperties ragProperties) {
+        this.properties = ragProperties.getRewriteCache();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public RewriteKey key(String model, int promptVersion, String question) {
+        return new RewriteKey(StringUtils.hasText(model) ? model : "", promptVersion, normalizeQuestion(question));
+    }
+
+    /**
+     * @return 命中的改写结果，未命中返回 null
+     */
+    public String get(RewriteKey key) {
+        String cached = entries.getIfPresent(key);
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    public void put(RewriteKey key, String rewritten) {
+        if (StringUtils.hasText(rewritten)) {
+            entries.put(key, rewritten);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    /**
+     * 去掉首尾空白并合并连续空白；不转小写，编号、型号的大小写可能影响改写结果
+     */
+    static String normalizeQuestion(String question) {
+        if (question == null) {
+            return "";
+        }
+        return WHITESPACE.matcher(question.trim()).replaceAll(" ");
+    }
+
+    public record RewriteKey(String model, int promptVersion, String question) {
+    }
+}
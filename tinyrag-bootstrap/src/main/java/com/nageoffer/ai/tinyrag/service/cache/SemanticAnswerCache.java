@@ -0,0 +1,246 @@
+package com.nageoffer.ai.tinyrag.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * 语义答案缓存
+ * <p>
+ * 以「问题向量 + kb」为键缓存最终答案与引用来源，新问题与已缓存问题的余弦相似度超过阈值时直接命中，
+ * 跳过改写、检索、Rerank 与生成整条链路。容量按估算内存字节数限制，条目按 TTL 过期；
+ * 同一 kb 有新文档入库时，该 kb 及全库（未指定 kb）的缓存条目全部失效。
+ * 条目按 kb 建立 id 索引，查找时只遍历同一 kb 的条目
+ */
+@Slf4j
+@Component
+public class SemanticAnswerCache {
+
+    /**
+     * 单条缓存的固定开销估算（对象头、引用、时间戳等）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final EmbeddingModel embeddingModel;
+    private final RAGProperties.AnswerCache properties;
+    private final Cache<String, CachedAnswer> entries;
+    /**
+     * kb → 该 kb 下的条目 id，条目过期或被淘汰时同步移除
+     */
+    private final Map<String, Set<String>> idsByKb = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, RAGProperties ragProperties) {
+        this.embeddingModel = embeddingModel;
+        this.properties = ragProperties.getAnswerCache();
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxMemory().toBytes())
+                .weigher((String id, CachedAnswer answer) -> answer.weight())
+                .expireAfterWrite(properties.getTtl())
+                .evictionListener((String id, CachedAnswer answer, RemovalCause cause) -> {
+                    if (id != null && answer != null) {
+                        unindex(answer.kb(), id);
+                    }
+                })
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 当前缓存代次，调用方在生成答案前读取，写入时原样带回，用于丢弃生成期间被入库失效的答案
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 计算问题向量（已归一化），失败时返回 null，调用方应直接跳过缓存
+     */
+    public float[] embedQuestion(String question) {
+        try {
+            return normalize(embeddingModel.embed(question));
+        } catch (Exception ex) {
+            log.warn("[AnswerCache] 问题向量计算失败, 跳过缓存: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 查找与问题向量最相似、且相似度不低于阈值的缓存答案
+     *
+     * @return 命中的缓存答案，未命中返回 null
+     */
+    public CachedAnswer get(float[] questionEmbedding, String kb) {
+        String kbKey = normalizeKb(kb);
+        double threshold = properties.getSimilarityThreshold();
+
+        String bestId = null;
+        double bestScore = threshold;
+        for (String id : idsByKb.getOrDefault(kbKey, Set.of())) {
+            // 遍历时不计入访问，避免每次查找都刷新所有条目的热度
+            CachedAnswer candidate = entries.policy().getIfPresentQuietly(id);
+            if (candidate == null || candidate.embedding().length != questionEmbedding.length) {
+                continue;
+            }
+            double score = dot(candidate.embedding(), questionEmbedding);
+            if (score >= bestScore) {
+                bestScore = score;
+                bestId = id;
+            }
+        }
+
+        // 通过 getIfPresent 访问一次，让淘汰策略感知到热点条目
+        CachedAnswer hit = bestId == null ? null : entries.getIfPresent(bestId);
+        if (hit == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        log.info("[AnswerCache] 命中缓存, kb='{}', similarity={}, 缓存问题: {}",
+                kbKey, String.format("%.4f", bestScore), hit.question());
+        return hit;
+    }
+
+    /**
+     * 写入一条缓存答案；若生成期间对应 kb 发生了入库失效，则放弃写入
+     * <p>
+     * invalidate 先递增代次再清理条目，写入后再读一次代次：此时代次未变，说明之后的失效一定能清理到这条；
+     * 代次已变，则失效可能已经清理完毕，由写入方自行撤回
+     */
+    public void put(float[] questionEmbedding, String kb, String question, String answer,
+                    List<Document> sources, long expectedGeneration) {
+        if (generation.get() != expectedGeneration || !StringUtils.hasText(answer)) {
+            return;
+        }
+        String kbKey = normalizeKb(kb);
+        List<Document> slimSources = slim(sources);
+        int weight = estimateWeight(questionEmbedding, question, answer, slimSources);
+        String id = UUID.randomUUID().toString();
+        index(kbKey, id);
+        entries.put(id, new CachedAnswer(kbKey, question, questionEmbedding, answer, slimSources, weight));
+        if (generation.get() != expectedGeneration) {
+            entries.invalidate(id);
+            unindex(kbKey, id);
+        }
+    }
+
+    /**
+     * 使指定 kb 以及全库范围的缓存失效
+     */
+    public void invalidate(String kb) {
+        String kbKey = normalizeKb(kb);
+        generation.incrementAndGet();
+        invalidatePartition(kbKey);
+        if (!kbKey.isEmpty()) {
+            invalidatePartition("");
+        }
+        log.info("[AnswerCache] kb='{}' 有新文档入库, 相关缓存已失效", kbKey);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    private void invalidatePartition(String kbKey) {
+        Set<String> ids = idsByKb.remove(kbKey);
+        if (ids != null) {
+            entries.invalidateAll(ids);
+        }
+    }
+
+    private void index(String kbKey, String id) {
+        idsByKb.compute(kbKey, (key, ids) -> {
+            Set<String> indexed = ids != null ? ids : ConcurrentHashMap.newKeySet();
+            indexed.add(id);
+            return indexed;
+        });
+    }
+
+    private void unindex(String kbKey, String id) {
+        idsByKb.computeIfPresent(kbKey, (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * 回放只需要来源元数据，丢弃正文以节省内存
+     */
+    private List<Document> slim(List<Document> sources) {
+        List<Document> slim = new ArrayList<>(sources.size());
+        for (Document doc : sources) {
+            slim.add(Document.builder()
+                    .id(doc.getId())
+                    .text("")
+                    .metadata("source", doc.getMetadata().getOrDefault("source", "未知来源"))
+                    .metadata("kb", doc.getMetadata().getOrDefault("kb", ""))
+                    .build());
+        }
+        return List.copyOf(slim);
+    }
+
+    private int estimateWeight(float[] embedding, String question, String answer, List<Document> sources) {
+        long bytes = ENTRY_OVERHEAD_BYTES
+                + embedding.length * 4L
+                + (question.length() + answer.length()) * 2L
+                + sources.size() * 128L;
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static String normalizeKb(String kb) {
+        return StringUtils.hasText(kb) ? kb.trim() : "";
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        if (norm == 0.0) {
+            return vector;
+        }
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public record CachedAnswer(String kb, String question, float[] embedding, String answer,
+                               List<Document> sources, int weight) {
+    }
+}
@@ -0,0 +1,103 @@
+package com.nageoffer.ai.tinyrag.service.http;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.time.Duration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+/**
+ * ES 与 Rerank 共用的 HTTP 传输层
+ * <p>
+ * 基于 Apache HttpClient 5 的连接池，连接按 keepAlive 保活复用，池满时最多等待 poolAcquireTimeout，
+ * 每个调用方按自己的响应超时创建 RestClient，在 RequestDeadline#call 内发起的请求另受阶段剩余预算约束。
+ * 连接池占用情况由 RAGMetrics 以 tinyrag.http.pool.* 指标暴露
+ */
+@Slf4j
+@Component
+public class PooledHttpTransport implements DisposableBean {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public PooledHttpTransport(RAGProperties ragProperties) {
+        RAGProperties.HttpClient properties = ragProperties.getHttpClient();
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxConnections())
+                .setMaxConnPerRoute(properties.getMaxConnectionsPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(properties.getConnectTimeout()))
+                        .setValidateAfterInactivity(TimeValue.of(properties.getValidateAfterInactivity()))
+                        .build())
+                .build();
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(properties.getPoolAcquireTimeout()))
+                        .setConnectionKeepAlive(TimeValue.of(properties.getKeepAlive()))
+                        .build())
+                .addExecInterceptorFirst(RequestDeadlineInterceptor.NAME, new RequestDeadlineInterceptor())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(properties.getKeepAlive()));
+        if (!properties.isCompression()) {
+            builder.disableContentCompression();
+        }
+        this.httpClient = builder.build();
+        log.info("[HTTP] 连接池初始化完成, maxConnections={}, maxConnectionsPerRoute={}, keepAlive={}",
+                properties.getMaxConnections(), properties.getMaxConnectionsPerRoute(), properties.getKeepAlive());
+    }
+
+    /**
+     * 基于共享连接池的 RestClient.Builder，responseTimeout 为等待响应数据的超时
+     */
+    public RestClient.Builder restClientBuilder(Duration responseTimeout) {
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(responseTimeout);
+        return RestClient.builder().requestFactory(requestFactory);
+    }
+
+    public int leasedConnections() {
+        return totalStats().getLeased();
+    }
+
+    public int availableConnections() {
+        return totalStats().getAvailable();
+    }
+
+    /**
+     * 正在等待空闲连接的请求数，持续大于 0 说明连接池偏小
+     */
+    public int pendingRequests() {
+        return totalStats().getPending();
+    }
+
+    public int maxConnections() {
+        return totalStats().getMax();
+    }
+
+    private PoolStats totalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void destroy() {
+        httpClient.close(CloseMode.GRACEFUL);
+        connectionManager.close(CloseMode.GRACEFUL);
+    }
+}
@@ -0,0 +1,43 @@
+package com.nageoffer.ai.tinyrag.service.http;
+
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * 按请求截止时间收紧 HTTP 响应超时
+ * <p>
+ * 在 {@link RequestDeadline#call} 内发起的请求，响应超时取「客户端配置」与「阶段剩余预算」中较小者。
+ * 阻塞在 socket 读取上的线程不响应中断，只有读超时能让超出预算的调用及时结束并归还连接；
+ * 不在 call 内发起的请求保持原配置
+ */
+public class RequestDeadlineInterceptor implements ExecChainHandler {
+
+    public static final String NAME = "request-deadline";
+
+    @Override
+    public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+            throws IOException, HttpException {
+        long remainingNanos = RequestDeadline.callRemainingNanos();
+        if (remainingNanos != Long.MAX_VALUE) {
+            HttpClientContext context = scope.clientContext;
+            RequestConfig config = context.getRequestConfigOrDefault();
+            Timeout budget = Timeout.ofMilliseconds(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+            Timeout configured = config.getResponseTimeout();
+            if (configured == null || configured.isDisabled() || configured.compareTo(budget) > 0) {
+                context.setRequestConfig(RequestConfig.copy(config).setResponseTimeout(budget).build());
+            }
+        }
+        return chain.proceed(request, scope);
+    }
+}
@@ -0,0 +1,96 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD 并发上限：连续成功 limit 次后上限加一，遇到过载（429 / 5xx）时上限减半。
+ * 同一冷却时间内的多次过载只减半一次，避免同一波限流把上限直接压到最低
+ */
+class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long cooldownNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int limit;
+    private int inFlight;
+    private int successes;
+    private long lastDecreaseNanos;
+
+    AdaptiveConcurrencyLimit(int minLimit, int maxLimit, long cooldownNanos) {
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.maxLimit = maxLimit;
+        this.cooldownNanos = cooldownNanos;
+        this.limit = maxLimit;
+        this.lastDecreaseNanos = System.nanoTime() - cooldownNanos;
+    }
+
+    void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                available.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onSuccess() {
+        lock.lock();
+        try {
+            if (limit < maxLimit && ++successes >= limit) {
+                limit++;
+                successes = 0;
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onOverload() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            successes = 0;
+            if (now - lastDecreaseNanos >= cooldownNanos) {
+                limit = Math.max(minLimit, limit / 2);
+                lastDecreaseNanos = now;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * 入库 Embedding 批处理装饰器
+ * <p>
+ * VectorStore.add 通过 embed(List&lt;Document&gt;, ...) 向量化整批 chunk，Spring AI 默认按批串行请求。
+ * 这里忽略传入的 BatchingStrategy，按 maxBatchSize / maxBatchTokens 顺序打包，多个批次在 embeddingBatchExecutor 上并发请求，
+ * 同时进行中的请求数由所有调用方共享的 AIMD 上限控制。单批遇到 429 / 5xx / 连接异常时持有许可退避重试并下调上限，
+ * 其余错误直接失败。查询路径的单条 call / embed 不经过批处理，直接交给被装饰的模型。
+ * <p>
+ * 装饰在 CachingEmbeddingModel 之外，每个批次各自查缓存；Spring AI 自身对 5xx 的重试发生在被装饰的模型内部，
+ * 重试耗尽后才会到这里
+ */
+@Slf4j
+public class BatchingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final RAGProperties.EmbeddingBatch properties;
+    private final TaskExecutor executor;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final LongAdder embeddedChunks = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchNanos = new LongAdder();
+    private final LongAdder throttledRetries = new LongAdder();
+    private final LongAdder serverErrorRetries = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate, RAGProperties.EmbeddingBatch properties, TaskExecutor executor) {
+        this.delegate = delegate;
+        this.properties = properties;
+        this.executor = executor;
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(properties.getMinInFlight(), properties.getMaxInFlight(),
+                properties.getInitialBackoff().toNanos());
+    }
+
+    @Override
+    public @NonNull EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(@NonNull Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public @NonNull List<float[]> embed(@NonNull List<Document> documents, EmbeddingOptions options,
+                                        BatchingStrategy batchingStrategy) {
+        float[][] vectors = new float[documents.size()][];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Batch batch : pack(documents)) {
+            if (failure.get() != null) {
+                break;
+            }
+            acquire();
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                            if (failure.get() == null) {
+                                embedBatch(batch, options, vectors);
+                            }
+                        }, executor)
+                        .whenComplete((ignored, ex) -> {
+                            concurrencyLimit.release();
+                            if (ex != null) {
+                                failure.compareAndSet(null, ex instanceof CompletionException ? ex.getCause() : ex);
+                            }
+                        }));
+            } catch (RejectedExecutionException ex) {
+                concurrencyLimit.release();
+                failure.compareAndSet(null, ex);
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .exceptionally(ex -> null)
+                .join();
+
+        Throwable ex = failure.get();
+        if (ex instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (ex != null) {
+            throw new IllegalStateException("Embedding 批处理失败: " + ex.getMessage(), ex);
+        }
+        return Arrays.asList(vectors);
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    public long embeddedChunkCount() {
+        return embeddedChunks.sum();
+    }
+
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    public double batchNanosTotal() {
+        return batchNanos.sum();
+    }
+
+    public long throttledRetryCount() {
+        return throttledRetries.sum();
+    }
+
+    public long serverErrorRetryCount() {
+        return serverErrorRetries.sum();
+    }
+
+    public long failedBatchCount() {
+        return failedBatches.sum();
+    }
+
+    public int inFlight() {
+        return concurrencyLimit.inFlight();
+    }
+
+    public int inFlightLimit() {
+        return concurrencyLimit.limit();
+    }
+
+    /**
+     * 按原顺序打包：文本数达到 maxBatchSize 或 token 数将超过 maxBatchTokens 时开始新的批次，超长的单个文本独占一批
+     */
+    List<Batch> pack(List<Document> documents) {
+        List<Batch> packed = new ArrayList<>();
+        int start = 0;
+        int tokens = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            int documentTokens = tokenCountEstimator.estimate(documents.get(i).getText());
+            int size = i - start;
+            if (size > 0 && (size >= properties.getMaxBatchSize() || tokens + documentTokens > properties.getMaxBatchTokens())) {
+                packed.add(new Batch(start, documents.subList(start, i)));
+                start = i;
+                tokens = 0;
+            }
+            tokens += documentTokens;
+        }
+        if (start < documents.size()) {
+            packed.add(new Batch(start, documents.subList(start, documents.size())));
+        }
+        return packed;
+    }
+
+    private void embedBatch(Batch batch, EmbeddingOptions options, float[][] vectors) {
+        List<String> texts = batch.documents().stream().map(Document::getText).toList();
+        for (int attempt = 0; ; attempt++) {
+            long startTime = System.nanoTime();
+            try {
+                EmbeddingResponse response = delegate.call(new EmbeddingRequest(texts, options));
+                List<Embedding> results = response.getResults();
+                if (results.size() != texts.size()) {
+                    throw new IllegalStateException("Embedding 返回数量与请求数量不一致: expected="
+                            + texts.size() + ", actual=" + results.size());
+                }
+                for (int i = 0; i < results.size(); i++) {
+                    Embedding embedding = results.get(i);
+                    int index = embedding.getIndex() == null ? i : embedding.getIndex();
+                    vectors[batch.offset() + index] = embedding.getOutput();
+                }
+                batches.increment();
+                batchNanos.add(System.nanoTime() - startTime);
+                embeddedChunks.add(texts.size());
+                concurrencyLimit.onSuccess();
+                return;
+            } catch (RuntimeException ex) {
+                String reason = retryReason(ex);
+                if (reason == null || attempt >= properties.getMaxRetries()) {
+                    failedBatches.increment();
+                    throw ex;
+                }
+                concurrencyLimit.onOverload();
+                ("throttled".equals(reason) ? throttledRetries : serverErrorRetries).increment();
+                long backoffMillis = backoffMillis(attempt);
+                log.warn("[EmbeddingBatch] 请求失败({}), {}ms 后第 {} 次重试, 并发上限={}: {}",
+                        reason, backoffMillis, attempt + 1, concurrencyLimit.limit(), ex.getMessage());
+                sleep(backoffMillis);
+            }
+        }
+    }
+
+    /**
+     * @return throttled（429）/ server_error（5xx、连接异常），不可重试时返回 null
+     */
+    static String retryReason(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException responseException) {
+                int status = responseException.getStatusCode().value();
+                if (status == 429) {
+                    return "throttled";
+                }
+                return status >= 500 ? "server_error" : null;
+            }
+            // Spring AI 把 HTTP 错误转换为 "状态码 - 响应体" 形式的异常信息，4xx 为 NonTransientAiException
+            if (cause instanceof NonTransientAiException) {
+                String message = cause.getMessage();
+                return message != null && message.startsWith("429") ? "throttled" : null;
+            }
+            if (cause instanceof TransientAiException || cause instanceof ResourceAccessException) {
+                return "server_error";
+            }
+        }
+        return null;
+    }
+
+    private long backoffMillis(int attempt) {
+        long initial = Math.max(1, properties.getInitialBackoff().toMillis());
+        long max = Math.max(initial, properties.getMaxBackoff().toMillis());
+        long backoff = Math.min(max, initial << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+    }
+
+    private void acquire() {
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待 Embedding 并发许可时被中断", ex);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Embedding 重试等待时被中断", ex);
+        }
+    }
+
+    /**
+     * @param offset 批次第一个文档在整批中的下标
+     */
+    record Batch(int offset, List<Document> documents) {
+    }
+}
@@ -0,0 +1,132 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.nageoffer.ai.tinyrag.service.ingest.DocumentVersionRepository.ChunkRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * 单次入库中某个文件 (kb, source) 与上一版本的 chunk 差异
+ * <p>
+ * chunk id 由 (kb, source, 内容哈希, 该内容在文件内第几次出现) 决定，内容不变 id 就不变，
+ * 向量库与 ES 按 id 覆盖写入，重复执行也不会产生重复 chunk。上一版本清单中已有的 id 视为未变化直接跳过，
+ * 清单中有、本次未产出的 id 在入库成功后删除。chunk_index 不参与 id，前面插入或删除内容后未变化的 chunk 位置会移动，
+ * 这类 chunk 同样跳过写入，入库成功后只更新两个存储中的 chunk_index。
+ * assign、isUnchanged 只由切分线程调用；written 由写入线程并发调用
+ */
+public class ChunkDiff {
+
+    private final String kb;
+    private final String source;
+    private final Map<String, Integer> previousChunks;
+    private final boolean unversioned;
+    private final DocumentVersionRepository repository;
+    private final Set<String> currentIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> occurrences = new HashMap<>();
+    private final List<Document> moved = new ArrayList<>();
+
+    /**
+     * @param previousChunks 上一版本的 chunk id → chunk_index
+     * @param unversioned    该文件从未按版本入库过，存储中可能有引入版本管理之前以随机 id 写入的 chunk
+     */
+    ChunkDiff(String kb, String source, Map<String, Integer> previousChunks, boolean unversioned,
+              DocumentVersionRepository repository) {
+        this.kb = kb;
+        this.source = source;
+        this.previousChunks = previousChunks;
+        this.unversioned = unversioned;
+        this.repository = repository;
+    }
+
+    public String kb() {
+        return kb;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    /**
+     * 为 chunk 分配确定性 id，并在元数据中记录 content_hash
+     */
+    Document assign(Document chunk) {
+        String hash = DigestUtil.sha256Hex(chunk.getText());
+        int occurrence = occurrences.merge(hash, 1, Integer::sum) - 1;
+        String id = UUID.nameUUIDFromBytes((kb + "\u0000" + source + "\u0000" + hash + "\u0000" + occurrence)
+                .getBytes(StandardCharsets.UTF_8)).toString();
+        currentIds.add(id);
+
+        Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+        metadata.put("content_hash", hash);
+        return Document.builder()
+                .id(id)
+                .text(chunk.getText())
+                .metadata(metadata)
+                .build();
+    }
+
+    /**
+     * 上一版本已有该 chunk 时返回 true；chunk_index 与上一版本不同时记入 movedChunks
+     */
+    boolean isUnchanged(Document document) {
+        if (!previousChunks.containsKey(document.getId())) {
+            return false;
+        }
+        Integer previousIndex = previousChunks.get(document.getId());
+        if (previousIndex == null || !previousIndex.equals(document.getMetadata().get("chunk_index"))) {
+            moved.add(document);
+        }
+        return true;
+    }
+
+    /**
+     * 记录已写入两个存储的 chunk，入库中途失败时已写入的部分也留在清单中，下次重新上传时可跳过或清理
+     */
+    void written(List<Document> documents) {
+        Map<String, ChunkRecord> chunks = new LinkedHashMap<>();
+        for (Document document : documents) {
+            Map<String, Object> metadata = document.getMetadata();
+            chunks.put(document.getId(), new ChunkRecord(String.valueOf(metadata.get("content_hash")),
+                    metadata.get("chunk_index") instanceof Integer index ? index : null));
+        }
+        repository.saveChunks(kb, source, chunks);
+    }
+
+    /**
+     * 上一版本有、本次未产出的 chunk id，只在切分结束后调用
+     */
+    Set<String> removedIds() {
+        Set<String> removed = new HashSet<>(previousChunks.keySet());
+        removed.removeAll(currentIds);
+        return removed;
+    }
+
+    /**
+     * 本次产出的全部 chunk id，只在切分结束后调用
+     */
+    Set<String> currentIds() {
+        return currentIds;
+    }
+
+    /**
+     * 未变化但 chunk_index 与上一版本不同的 chunk，只在切分结束后调用
+     */
+    List<Document> movedChunks() {
+        return moved;
+    }
+
+    boolean isUnversioned() {
+        return unversioned;
+    }
+}
@@ -0,0 +1,171 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 文档版本与 chunk 清单，复用 pgvector 所在的 Postgres 数据源
+ * <p>
+ * tinyrag_document 按 (kb, source) 记录当前版本号；tinyrag_document_chunk 记录该文件已写入两个存储的 chunk id
+ * 及其写入时的 chunk_index，重新上传时据此判断哪些 chunk 未变化、哪些需要删除、哪些未变化但位置移动需要更新 chunk_index。
+ * 另外直接操作 pgvector 表完成两类 VectorStore 接口无法表达的写入：按来源删除时排除指定 id，只更新元数据中的 chunk_index
+ */
+@Slf4j
+@Component
+public class DocumentVersionRepository {
+
+    private static final String DOCUMENT_TABLE = "tinyrag_document";
+    private static final String CHUNK_TABLE = "tinyrag_document_chunk";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String vectorTable;
+
+    public DocumentVersionRepository(JdbcTemplate jdbcTemplate,
+                                     @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String vectorSchema,
+                                     @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String vectorTable) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorTable = vectorSchema + "." + vectorTable;
+    }
+
+    @PostConstruct
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DOCUMENT_TABLE + " ("
+                    + "kb VARCHAR(255) NOT NULL, "
+                    + "source VARCHAR(512) NOT NULL, "
+                    + "version INT NOT NULL, "
+                    + "chunk_count INT NOT NULL, "
+                    + "updated_at TIMESTAMPTZ NOT NULL DEFAULT now(), "
+                    + "PRIMARY KEY (kb, source))");
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + CHUNK_TABLE + " ("
+                    + "kb VARCHAR(255) NOT NULL, "
+                    + "source VARCHAR(512) NOT NULL, "
+                    + "chunk_id VARCHAR(36) NOT NULL, "
+                    + "content_hash VARCHAR(64) NOT NULL, "
+                    + "chunk_index INT, "
+                    + "PRIMARY KEY (kb, source, chunk_id))");
+            // 早期版本的清单表没有 chunk_index，为空的行在下次上传时按位置已移动处理
+            jdbcTemplate.execute("ALTER TABLE " + CHUNK_TABLE + " ADD COLUMN IF NOT EXISTS chunk_index INT");
+            log.info("[DocumentVersion] 版本表 {} / {} 已就绪", DOCUMENT_TABLE, CHUNK_TABLE);
+        } catch (Exception ex) {
+            log.warn("[DocumentVersion] 版本表初始化失败: {}", ex.getMessage());
+        }
+    }
+
+    public Optional<Integer> findVersion(String kb, String source) {
+        List<Integer> versions = jdbcTemplate.queryForList("SELECT version FROM " + DOCUMENT_TABLE
+                + " WHERE kb = ? AND source = ?", Integer.class, kb, source);
+        return versions.stream().findFirst();
+    }
+
+    /**
+     * 入库过的知识库，最多返回 limit 个
+     */
+    public List<String> findKbs(int limit) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT kb FROM " + DOCUMENT_TABLE + " ORDER BY kb LIMIT ?",
+                String.class, limit);
+    }
+
+    /**
+     * @return chunk id → 写入时的 chunk_index（早期写入的行为 null）
+     */
+    public Map<String, Integer> findChunks(String kb, String source) {
+        Map<String, Integer> chunks = new HashMap<>();
+        jdbcTemplate.query("SELECT chunk_id, chunk_index FROM " + CHUNK_TABLE + " WHERE kb = ? AND source = ?",
+                rs -> {
+                    chunks.put(rs.getString(1), rs.getObject(2, Integer.class));
+                }, kb, source);
+        return chunks;
+    }
+
+    /**
+     * @param chunks chunk id → (内容哈希, chunk_index)
+     */
+    public void saveChunks(String kb, String source, Map<String, ChunkRecord> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(chunks.size());
+        chunks.forEach((id, chunk) -> rows.add(new Object[]{kb, source, id, chunk.contentHash(), chunk.chunkIndex()}));
+        jdbcTemplate.batchUpdate("INSERT INTO " + CHUNK_TABLE + " (kb, source, chunk_id, content_hash, chunk_index) "
+                + "VALUES (?, ?, ?, ?, ?) ON CONFLICT (kb, source, chunk_id) DO UPDATE SET chunk_index = EXCLUDED.chunk_index", rows);
+    }
+
+    /**
+     * @param chunkIndexes chunk id → 新的 chunk_index
+     */
+    public void updateChunkIndexes(String kb, String source, Map<String, Integer> chunkIndexes) {
+        if (chunkIndexes.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(chunkIndexes.size());
+        chunkIndexes.forEach((id, index) -> rows.add(new Object[]{index, kb, source, id}));
+        jdbcTemplate.batchUpdate("UPDATE " + CHUNK_TABLE + " SET chunk_index = ? WHERE kb = ? AND source = ? AND chunk_id = ?", rows);
+    }
+
+    /**
+     * 只改写 pgvector 中 chunk 元数据的 chunk_index，内容与向量不变
+     */
+    public void updateVectorChunkIndexes(Map<String, Integer> chunkIndexes) {
+        if (chunkIndexes.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(chunkIndexes.size());
+        chunkIndexes.forEach((id, index) -> rows.add(new Object[]{index, id}));
+        jdbcTemplate.batchUpdate("UPDATE " + vectorTable + " SET metadata = jsonb_set(metadata::jsonb, '{chunk_index}', "
+                + "to_jsonb(?::int))::json WHERE id = ?::uuid", rows);
+    }
+
+    /**
+     * 删除 pgvector 中某个来源文件除 keepIds 之外的全部 chunk
+     *
+     * @return 删除的行数
+     */
+    public int deleteVectorsBySource(String kb, String source, Collection<String> keepIds) {
+        return jdbcTemplate.update("DELETE FROM " + vectorTable + " WHERE metadata::jsonb ->> 'kb' = ? "
+                        + "AND metadata::jsonb ->> 'source' = ? AND NOT (id::text = ANY(?))",
+                ps -> {
+                    ps.setString(1, kb);
+                    ps.setString(2, source);
+                    ps.setArray(3, ps.getConnection().createArrayOf("varchar", keepIds.toArray()));
+                });
+    }
+
+    public void deleteChunks(String kb, String source, Collection<String> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM " + CHUNK_TABLE + " WHERE kb = ? AND source = ? AND chunk_id = ANY(?)",
+                ps -> {
+                    ps.setString(1, kb);
+                    ps.setString(2, source);
+                    Array array = ps.getConnection().createArrayOf("varchar", chunkIds.toArray());
+                    ps.setArray(3, array);
+                });
+    }
+
+    /**
+     * 版本号加一（首次入库为 1），返回新版本号
+     */
+    public int nextVersion(String kb, String source, int chunkCount) {
+        Integer version = jdbcTemplate.queryForObject("INSERT INTO " + DOCUMENT_TABLE + " (kb, source, version, chunk_count) "
+                        + "VALUES (?, ?, 1, ?) ON CONFLICT (kb, source) DO UPDATE SET version = " + DOCUMENT_TABLE + ".version + 1, "
+                        + "chunk_count = EXCLUDED.chunk_count, updated_at = now() RETURNING version",
+                Integer.class, kb, source, chunkCount);
+        return version == null ? 1 : version;
+    }
+
+    public record ChunkRecord(String contentHash, Integer chunkIndex) {
+    }
+}
@@ -0,0 +1,140 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.service.rag.ElasticsearchDocumentRepository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按 (kb, source) 管理文档版本：入库前加载上一版本的 chunk 清单，入库成功后清理旧 chunk、更新移动的 chunk 并递增版本号
+ * <p>
+ * 同一文件的并发入库在本节点内串行化；跨节点同时上传同一文件时，chunk id 确定、写入按 id 覆盖，
+ * 最坏情况是残留的旧 chunk 要等下一次上传才被清理
+ */
+@Slf4j
+@Component
+public class DocumentVersionService {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final DocumentVersionRepository repository;
+    private final VectorStore vectorStore;
+    private final ElasticsearchDocumentRepository esRepository;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    public DocumentVersionService(DocumentVersionRepository repository,
+                                  VectorStore vectorStore,
+                                  ElasticsearchDocumentRepository esRepository) {
+        this.repository = repository;
+        this.vectorStore = vectorStore;
+        this.esRepository = esRepository;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public Lock lock(String kb, String source) {
+        return locks[Math.floorMod((kb + "\u0000" + source).hashCode(), LOCK_STRIPES)];
+    }
+
+    public List<String> ingestedKbs(int limit) {
+        return repository.findKbs(limit);
+    }
+
+    /**
+     * 加载上一版本的 chunk 清单。这里不做任何删除，入库失败时存储中的旧数据保持原样
+     */
+    public ChunkDiff begin(String kb, String source) {
+        Map<String, Integer> previousChunks = repository.findChunks(kb, source);
+        boolean unversioned = previousChunks.isEmpty() && repository.findVersion(kb, source).isEmpty();
+        return new ChunkDiff(kb, source, previousChunks, unversioned, repository);
+    }
+
+    /**
+     * 入库成功后调用：清理引入版本管理之前写入的同名文件 chunk，更新位置移动的 chunk 的 chunk_index，
+     * 删除上一版本有、本次没有的 chunk，返回新版本号。
+     * 某个存储删除或更新失败的 chunk 保留在清单中的原状态，下次上传时重试
+     */
+    public int commit(ChunkDiff diff, IngestionProgress progress) {
+        if (diff.isUnversioned()) {
+            deleteUnversioned(diff);
+        }
+        updateMoved(diff);
+        Set<String> removed = diff.removedIds();
+        if (!removed.isEmpty()) {
+            Set<String> failed = new HashSet<>(esRepository.deleteDocuments(removed));
+            try {
+                vectorStore.delete(new ArrayList<>(removed));
+            } catch (Exception ex) {
+                log.warn("[DocumentVersion] 向量库删除旧 chunk 失败: kb={}, source={}, {}",
+                        diff.kb(), diff.source(), ex.getMessage());
+                failed.addAll(removed);
+            }
+            Set<String> deleted = new HashSet<>(removed);
+            deleted.removeAll(failed);
+            repository.deleteChunks(diff.kb(), diff.source(), deleted);
+            progress.addDeleted(deleted.size());
+        }
+        int version = repository.nextVersion(diff.kb(), diff.source(), (int) progress.chunked());
+        log.info("[DocumentVersion] 版本更新: kb={}, source={}, version={}, {}",
+                diff.kb(), diff.source(), version, progress);
+        return version;
+    }
+
+    /**
+     * 旧 chunk 是随机 id，按来源删除并排除本次写入的确定性 id
+     */
+    private void deleteUnversioned(ChunkDiff diff) {
+        String kb = diff.kb();
+        String source = diff.source();
+        long esDeleted = esRepository.deleteBySource(kb, source, diff.currentIds());
+        // ES 中没有旧 chunk 时向量库通常也没有，跳过代价较高的按元数据删除；ES 不可用时按有处理
+        if (esDeleted == 0) {
+            return;
+        }
+        try {
+            int deleted = repository.deleteVectorsBySource(kb, source, diff.currentIds());
+            log.info("[DocumentVersion] 已清理无版本记录的旧 chunk: kb={}, source={}, es={}, vector={}",
+                    kb, source, esDeleted, deleted);
+        } catch (Exception ex) {
+            log.warn("[DocumentVersion] 清理无版本记录的旧 chunk 失败: kb={}, source={}, {}", kb, source, ex.getMessage());
+        }
+    }
+
+    /**
+     * 内容未变、只是位置移动的 chunk 不重新 Embedding：ES 按原文覆盖写入，向量库只改元数据中的 chunk_index
+     */
+    private void updateMoved(ChunkDiff diff) {
+        List<Document> moved = diff.movedChunks();
+        if (moved.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> chunkIndexes = new LinkedHashMap<>();
+        for (Document document : moved) {
+            chunkIndexes.put(document.getId(), (Integer) document.getMetadata().get("chunk_index"));
+        }
+        Set<String> failed = new HashSet<>(esRepository.indexDocuments(moved));
+        try {
+            repository.updateVectorChunkIndexes(chunkIndexes);
+        } catch (Exception ex) {
+            log.warn("[DocumentVersion] 向量库更新 chunk_index 失败: kb={}, source={}, {}",
+                    diff.kb(), diff.source(), ex.getMessage());
+            failed.addAll(chunkIndexes.keySet());
+        }
+        chunkIndexes.keySet().removeAll(failed);
+        repository.updateChunkIndexes(diff.kb(), diff.source(), chunkIndexes);
+        log.info("[DocumentVersion] 已更新位置移动的 chunk: kb={}, source={}, updated={}, failed={}",
+                diff.kb(), diff.source(), chunkIndexes.size(), failed.size());
+    }
+}
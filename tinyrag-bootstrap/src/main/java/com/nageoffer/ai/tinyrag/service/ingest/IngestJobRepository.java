@@ -0,0 +1,235 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.model.IngestJobResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异步入库任务表，复用 pgvector 所在的 Postgres 数据源
+ * <p>
+ * 上传的文件内容按 1MB 分块存入 tinyrag_ingest_job_content，写入与读取时只有一块驻留在内存中，任务结束后删除；
+ * 节点重启后未完成的任务仍在表中，
+ * 由任意节点的 worker 通过 FOR UPDATE SKIP LOCKED 抢占执行。执行中的任务定期刷新 updated_at 作为心跳，
+ * 心跳超时的任务视为所在节点已宕机，可被重新抢占
+ */
+@Slf4j
+@Component
+public class IngestJobRepository {
+
+    private static final String TABLE_NAME = "tinyrag_ingest_job";
+    private static final String CONTENT_TABLE_NAME = "tinyrag_ingest_job_content";
+    private static final int CONTENT_CHUNK_BYTES = 1024 * 1024;
+
+    private static final String JOB_COLUMNS = "id, file_name, kb, status, attempts, parsed_chars, chunked, embedded, "
+            + "indexed, chunk_count, error, created_at, finished_at";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IngestJobRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                    + "id VARCHAR(36) PRIMARY KEY, "
+                    + "file_name VARCHAR(512) NOT NULL, "
+                    + "kb VARCHAR(255) NOT NULL, "
+                    + "status VARCHAR(16) NOT NULL, "
+                    + "content BYTEA, "
+                    + "attempts INT NOT NULL DEFAULT 0, "
+                    + "parsed_chars BIGINT NOT NULL DEFAULT 0, "
+                    + "chunked BIGINT NOT NULL DEFAULT 0, "
+                    + "embedded BIGINT NOT NULL DEFAULT 0, "
+                    + "indexed BIGINT NOT NULL DEFAULT 0, "
+                    + "chunk_count INT, "
+                    + "error TEXT, "
+                    + "created_at TIMESTAMPTZ NOT NULL DEFAULT now(), "
+                    + "updated_at TIMESTAMPTZ NOT NULL DEFAULT now(), "
+                    + "finished_at TIMESTAMPTZ)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_status "
+                    + "ON " + TABLE_NAME + " (status, created_at)");
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + CONTENT_TABLE_NAME + " ("
+                    + "job_id VARCHAR(36) NOT NULL, "
+                    + "seq INT NOT NULL, "
+                    + "data BYTEA NOT NULL, "
+                    + "PRIMARY KEY (job_id, seq))");
+            log.info("[IngestJob] 任务表 {} 已就绪", TABLE_NAME);
+        } catch (Exception ex) {
+            log.warn("[IngestJob] 任务表初始化失败: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * 分块写入文件内容后再插入任务，worker 只会抢占到内容已完整写入的任务；写入失败时清理已写入的块
+     */
+    public IngestJobResponse create(String fileName, String kb, InputStream content) throws IOException {
+        String id = UUID.randomUUID().toString();
+        try {
+            int seq = 0;
+            byte[] chunk;
+            while ((chunk = content.readNBytes(CONTENT_CHUNK_BYTES)).length > 0) {
+                jdbcTemplate.update("INSERT INTO " + CONTENT_TABLE_NAME + " (job_id, seq, data) VALUES (?, ?, ?)",
+                        id, seq++, chunk);
+            }
+            jdbcTemplate.update("INSERT INTO " + TABLE_NAME + " (id, file_name, kb, status) VALUES (?, ?, ?, 'PENDING')",
+                    id, fileName, kb);
+        } catch (IOException | RuntimeException ex) {
+            try {
+                deleteContent(id);
+            } catch (RuntimeException cleanupEx) {
+                ex.addSuppressed(cleanupEx);
+            }
+            throw ex;
+        }
+        return findById(id).orElseThrow();
+    }
+
+    /**
+     * 按顺序逐块读取任务文件内容，读到下一块时才查询 Postgres
+     *
+     * @return 任务没有内容时返回 null
+     */
+    public InputStream openContent(String id) {
+        Integer chunkCount = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM " + CONTENT_TABLE_NAME + " WHERE job_id = ?", Integer.class, id);
+        if (chunkCount == null || chunkCount == 0) {
+            // 升级前提交的任务内容仍在任务表的 content 列中
+            List<byte[]> legacy = jdbcTemplate.query("SELECT content FROM " + TABLE_NAME
+                    + " WHERE id = ? AND content IS NOT NULL", (rs, rowNum) -> rs.getBytes("content"), id);
+            return legacy.isEmpty() ? null : new ByteArrayInputStream(legacy.get(0));
+        }
+        return new SequenceInputStream(new Enumeration<>() {
+            private int seq;
+
+            @Override
+            public boolean hasMoreElements() {
+                return seq < chunkCount;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] data = jdbcTemplate.queryForObject("SELECT data FROM " + CONTENT_TABLE_NAME
+                        + " WHERE job_id = ? AND seq = ?", byte[].class, id, seq++);
+                return new ByteArrayInputStream(data);
+            }
+        });
+    }
+
+    public Optional<IngestJobResponse> findById(String id) {
+        List<IngestJobResponse> jobs = jdbcTemplate.query("SELECT " + JOB_COLUMNS + " FROM " + TABLE_NAME + " WHERE id = ?",
+                (rs, rowNum) -> mapJob(rs), id);
+        return jobs.stream().findFirst();
+    }
+
+    /**
+     * 抢占一个待执行任务：PENDING，或 RUNNING 但心跳超时且未超过最大执行次数
+     */
+    public Optional<ClaimedJob> claimNext(Duration leaseTimeout, int maxAttempts) {
+        List<ClaimedJob> claimed = jdbcTemplate.query("UPDATE " + TABLE_NAME + " SET status = 'RUNNING', "
+                        + "attempts = attempts + 1, parsed_chars = 0, chunked = 0, embedded = 0, indexed = 0, updated_at = now() "
+                        + "WHERE id = (SELECT id FROM " + TABLE_NAME + " "
+                        + "WHERE (status = 'PENDING' OR (status = 'RUNNING' AND updated_at < now() - ? * interval '1 millisecond')) "
+                        + "AND attempts < ? ORDER BY created_at FOR UPDATE SKIP LOCKED LIMIT 1) "
+                        + "RETURNING id, file_name, kb, attempts",
+                (rs, rowNum) -> new ClaimedJob(rs.getString("id"), rs.getString("file_name"), rs.getString("kb"),
+                        rs.getInt("attempts")),
+                leaseTimeout.toMillis(), maxAttempts);
+        return claimed.stream().findFirst();
+    }
+
+    /**
+     * 心跳超时且已达到最大执行次数的任务直接置为失败，不再重试
+     */
+    public int failExhausted(Duration leaseTimeout, int maxAttempts) {
+        List<String> failed = jdbcTemplate.queryForList("UPDATE " + TABLE_NAME + " SET status = 'FAILED', content = NULL, "
+                        + "error = '节点多次中断，超过最大执行次数', updated_at = now(), finished_at = now() "
+                        + "WHERE status = 'RUNNING' AND updated_at < now() - ? * interval '1 millisecond' AND attempts >= ? "
+                        + "RETURNING id",
+                String.class, leaseTimeout.toMillis(), maxAttempts);
+        failed.forEach(this::deleteContent);
+        return failed.size();
+    }
+
+    /**
+     * 写回进度并刷新心跳；任务已被其他 worker 接管时 attempts 不匹配，不覆盖
+     */
+    public void updateProgress(String id, int attempts, IngestionProgress progress) {
+        jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET parsed_chars = ?, chunked = ?, embedded = ?, indexed = ?, "
+                        + "updated_at = now() WHERE id = ? AND attempts = ? AND status = 'RUNNING'",
+                progress.parsedChars(), progress.chunked(), progress.embedded(), progress.indexed(), id, attempts);
+    }
+
+    public void markSucceeded(String id, int attempts, IngestionProgress progress, int chunkCount) {
+        int updated = jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET status = 'SUCCEEDED', content = NULL, parsed_chars = ?, "
+                        + "chunked = ?, embedded = ?, indexed = ?, chunk_count = ?, updated_at = now(), finished_at = now() "
+                        + "WHERE id = ? AND attempts = ?",
+                progress.parsedChars(), progress.chunked(), progress.embedded(), progress.indexed(), chunkCount,
+                id, attempts);
+        if (updated > 0) {
+            deleteContent(id);
+        }
+    }
+
+    public void markFailed(String id, int attempts, IngestionProgress progress, String error) {
+        int updated = jdbcTemplate.update("UPDATE " + TABLE_NAME + " SET status = 'FAILED', content = NULL, parsed_chars = ?, "
+                        + "chunked = ?, embedded = ?, indexed = ?, error = ?, updated_at = now(), finished_at = now() "
+                        + "WHERE id = ? AND attempts = ?",
+                progress.parsedChars(), progress.chunked(), progress.embedded(), progress.indexed(), error,
+                id, attempts);
+        if (updated > 0) {
+            deleteContent(id);
+        }
+    }
+
+    private void deleteContent(String id) {
+        jdbcTemplate.update("DELETE FROM " + CONTENT_TABLE_NAME + " WHERE job_id = ?", id);
+    }
+
+    private static IngestJobResponse mapJob(ResultSet rs) throws SQLException {
+        IngestJobResponse job = new IngestJobResponse();
+        job.setJobId(rs.getString("id"));
+        job.setFileName(rs.getString("file_name"));
+        job.setKb(rs.getString("kb"));
+        job.setStatus(rs.getString("status"));
+        job.setAttempts(rs.getInt("attempts"));
+        job.setParsedChars(rs.getLong("parsed_chars"));
+        job.setChunked(rs.getLong("chunked"));
+        job.setEmbedded(rs.getLong("embedded"));
+        job.setIndexed(rs.getLong("indexed"));
+        job.setChunkCount((Integer) rs.getObject("chunk_count"));
+        job.setError(rs.getString("error"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        job.setCreatedAt(createdAt == null ? null : createdAt.toInstant());
+        Timestamp finishedAt = rs.getTimestamp("finished_at");
+        job.setFinishedAt(finishedAt == null ? null : finishedAt.toInstant());
+        return job;
+    }
+
+    /**
+     * 被当前 worker 抢占的任务，attempts 用于识别任务是否已被其他 worker 接管
+     */
+    public record ClaimedJob(String id, String fileName, String kb, int attempts) {
+    }
+}
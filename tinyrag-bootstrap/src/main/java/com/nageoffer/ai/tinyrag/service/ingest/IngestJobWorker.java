@@ -0,0 +1,137 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.model.UploadResponse;
+import com.nageoffer.ai.tinyrag.service.KnowledgeIngestionService;
+
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 异步入库任务执行器：每个节点启动 workerConcurrency 个轮询循环，从任务表抢占任务并执行入库流水线
+ * <p>
+ * 执行期间按 progressInterval 把进度写回任务表，同时作为心跳。节点宕机时任务停在 RUNNING，
+ * 心跳超过 leaseTimeout 后由其他 worker（或重启后的本节点）从头重新执行；chunk id 由内容决定，上一次已写入的 chunk 会被跳过或覆盖。
+ * 应用关闭时不再抢占新任务，执行中的任务在线程池关闭等待时间内尽量跑完
+ */
+@Slf4j
+@Component
+public class IngestJobWorker implements SmartLifecycle {
+
+    private final KnowledgeIngestionService ingestionService;
+    private final IngestJobRepository jobRepository;
+    private final RAGProperties.IngestJob properties;
+    private final TaskExecutor jobExecutor;
+    private final TaskScheduler progressScheduler;
+    private volatile boolean running;
+
+    public IngestJobWorker(KnowledgeIngestionService ingestionService,
+                           IngestJobRepository jobRepository,
+                           RAGProperties ragProperties,
+                           @Qualifier("ingestJobExecutor") TaskExecutor jobExecutor,
+                           @Qualifier("ingestProgressScheduler") TaskScheduler progressScheduler) {
+        this.ingestionService = ingestionService;
+        this.jobRepository = jobRepository;
+        this.properties = ragProperties.getIngestJob();
+        this.jobExecutor = jobExecutor;
+        this.progressScheduler = progressScheduler;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < properties.getWorkerConcurrency(); i++) {
+            jobExecutor.execute(this::pollLoop);
+        }
+        log.info("[IngestJob] 已启动 {} 个入库任务 worker", properties.getWorkerConcurrency());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                Optional<IngestJobRepository.ClaimedJob> claimed =
+                        jobRepository.claimNext(properties.getLeaseTimeout(), properties.getMaxAttempts());
+                if (claimed.isPresent()) {
+                    execute(claimed.get());
+                    continue;
+                }
+                int exhausted = jobRepository.failExhausted(properties.getLeaseTimeout(), properties.getMaxAttempts());
+                if (exhausted > 0) {
+                    log.warn("[IngestJob] {} 个任务超过最大执行次数, 已置为失败", exhausted);
+                }
+            } catch (Exception ex) {
+                log.warn("[IngestJob] 抢占任务失败: {}", ex.getMessage());
+            }
+            if (!sleep()) {
+                return;
+            }
+        }
+    }
+
+    private void execute(IngestJobRepository.ClaimedJob job) {
+        log.info("[IngestJob] 开始执行任务: jobId={}, file={}, kb={}, attempt={}",
+                job.id(), job.fileName(), job.kb(), job.attempts());
+        IngestionProgress progress = new IngestionProgress();
+        ScheduledFuture<?> heartbeat = progressScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                jobRepository.updateProgress(job.id(), job.attempts(), progress);
+            } catch (Exception ex) {
+                log.warn("[IngestJob] 写回任务进度失败: jobId={}, {}", job.id(), ex.getMessage());
+            }
+        }, properties.getProgressInterval());
+
+        String error = null;
+        UploadResponse response = null;
+        try (InputStream content = jobRepository.openContent(job.id())) {
+            if (content == null) {
+                error = "任务文件内容已丢失";
+            } else {
+                response = ingestionService.ingest(content, job.fileName(), job.kb(), progress);
+            }
+        } catch (ResponseStatusException ex) {
+            error = ex.getReason();
+        } catch (Exception ex) {
+            log.error("[IngestJob] 任务执行异常: jobId={}", job.id(), ex);
+            error = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+        } finally {
+            heartbeat.cancel(false);
+        }
+
+        if (response != null) {
+            jobRepository.markSucceeded(job.id(), job.attempts(), progress, response.getChunkCount());
+            log.info("[IngestJob] 任务完成: jobId={}, {}", job.id(), progress);
+        } else {
+            jobRepository.markFailed(job.id(), job.attempts(), progress, error);
+            log.warn("[IngestJob] 任务失败: jobId={}, error={}, {}", job.id(), error, progress);
+        }
+    }
+
+    private boolean sleep() {
+        try {
+            Thread.sleep(properties.getPollInterval().toMillis());
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
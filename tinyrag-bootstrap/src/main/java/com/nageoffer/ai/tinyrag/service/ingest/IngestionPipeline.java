@@ -0,0 +1,363 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.rag.ElasticsearchDocumentRepository;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * 文件入库流水线：Tika SAX 流式解析 → 增量切分 → 与上一版本比对 → 分批并发写入 pgvector（含 Embedding）与 ES
+ * <p>
+ * 解析在调用线程上进行，文本按段放入有界队列；切分在 ingestSplitExecutor 上进行，每攒满一批 chunk
+ * 就提交到 ingestWriteExecutor，向量库与 ES 的写入互不等待。单个文件同时进行中的写入批次数由信号量限制，
+ * 写入跟不上时切分线程阻塞，队列满后解析线程阻塞，整个文件的文本不会同时驻留在内存中。
+ * 任一阶段失败后其余阶段尽快停止，已经写入的批次不回滚。
+ * 与上一版本内容相同的 chunk 不再写入，两个存储都写入成功的批次记入 chunk 清单
+ */
+@Slf4j
+@Component
+public class IngestionPipeline {
+
+    /**
+     * 解析结束标记，按引用比较
+     */
+    private static final String END_OF_TEXT = new String("<EOF>");
+
+    private final Tika tika;
+    private final TokenTextSplitter tokenTextSplitter;
+    private final VectorStore vectorStore;
+    private final ElasticsearchDocumentRepository esRepository;
+    private final RAGProperties ragProperties;
+    private final TaskExecutor splitExecutor;
+    private final TaskExecutor writeExecutor;
+
+    public IngestionPipeline(Tika tika,
+                             TokenTextSplitter tokenTextSplitter,
+                             VectorStore vectorStore,
+                             ElasticsearchDocumentRepository esRepository,
+                             RAGProperties ragProperties,
+                             @Qualifier("ingestSplitExecutor") TaskExecutor splitExecutor,
+                             @Qualifier("ingestWriteExecutor") TaskExecutor writeExecutor) {
+        this.tika = tika;
+        this.tokenTextSplitter = tokenTextSplitter;
+        this.vectorStore = vectorStore;
+        this.esRepository = esRepository;
+        this.ragProperties = ragProperties;
+        this.splitExecutor = splitExecutor;
+        this.writeExecutor = writeExecutor;
+    }
+
+    /**
+     * 解析并写入一个文件，阻塞直到所有批次写入完成
+     *
+     * @param metadata 每个 chunk 都带上的元数据（source、kb、file_type 等）
+     * @param progress 进度，各阶段完成后累加
+     * @param diff     与上一版本的差异，决定 chunk id 与是否跳过
+     * @throws ResponseStatusException 文件解析失败、内容为空或入库线程池已满
+     */
+    public void run(InputStream input, String fileName, Map<String, Object> metadata, IngestionProgress progress,
+                    ChunkDiff diff) {
+        FileIngestion ingestion = new FileIngestion(fileName, metadata, progress, diff);
+        long startTime = System.currentTimeMillis();
+
+        CompletableFuture<Void> splitStage;
+        try {
+            splitStage = CompletableFuture.runAsync(ingestion::splitLoop, splitExecutor);
+        } catch (RejectedExecutionException ex) {
+            throw new ResponseStatusException(SERVICE_UNAVAILABLE, "入库任务过多，请稍后重试", ex);
+        }
+
+        ingestion.parse(input, splitStage);
+        try {
+            splitStage.join();
+            CompletableFuture.allOf(ingestion.writes.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException ex) {
+            ingestion.fail(ex.getCause());
+        }
+
+        Throwable failure = ingestion.failure.get();
+        if (failure != null) {
+            log.warn("[Ingest] 入库失败: file={}, {}", fileName, progress);
+            if (failure instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("入库失败: " + failure.getMessage(), failure);
+        }
+        if (progress.chunked() == 0) {
+            throw new ResponseStatusException(BAD_REQUEST,
+                    ingestion.hasText ? "文件切分后无有效文本" : "上传文件内容为空");
+        }
+        log.info("[Ingest] 流水线完成: file={}, {} ({}ms)", fileName, progress, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 单个文件的流水线状态
+     */
+    private final class FileIngestion {
+
+        private final String fileName;
+        private final IngestionProgress progress;
+        private final ChunkDiff diff;
+        private final RAGProperties.Ingest properties = ragProperties.getIngest();
+        private final StreamingTextSplitter splitter;
+        private final BlockingQueue<String> segments;
+        private final Semaphore embeddingPermits;
+        private final Semaphore indexPermits;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        /**
+         * 只由切分线程追加，切分阶段结束后才被调用线程读取
+         */
+        private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+        private List<Document> batch = new ArrayList<>();
+        private volatile boolean hasText;
+        private volatile boolean full;
+
+        private FileIngestion(String fileName, Map<String, Object> metadata, IngestionProgress progress, ChunkDiff diff) {
+            this.fileName = fileName;
+            this.progress = progress;
+            this.diff = diff;
+            this.splitter = new StreamingTextSplitter(tokenTextSplitter, metadata, ragProperties.getMaxNumChunks());
+            this.segments = new ArrayBlockingQueue<>(properties.getSegmentQueueCapacity());
+            this.embeddingPermits = new Semaphore(properties.getEmbeddingConcurrency());
+            this.indexPermits = new Semaphore(properties.getIndexConcurrency());
+        }
+
+        private void parse(InputStream input, CompletableFuture<Void> splitStage) {
+            SegmentHandler handler = new SegmentHandler();
+            Metadata tikaMetadata = new Metadata();
+            tikaMetadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, fileName);
+            Parser parser = tika.getParser();
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, parser);
+            try {
+                parser.parse(input, new BodyContentHandler(handler), tikaMetadata, context);
+                handler.flush();
+            } catch (Exception ex) {
+                // 切分阶段失败或 chunk 数已达上限时主动中止解析，不算解析失败
+                if (!stopped()) {
+                    fail(new ResponseStatusException(BAD_REQUEST, "使用 Tika 解析文件失败", ex));
+                }
+            } finally {
+                putEnd(splitStage);
+            }
+        }
+
+        private void splitLoop() {
+            try {
+                while (true) {
+                    String segment = segments.take();
+                    if (segment == END_OF_TEXT) {
+                        break;
+                    }
+                    if (stopped()) {
+                        continue;
+                    }
+                    dispatch(splitter.accept(segment));
+                    full = splitter.isFull();
+                }
+                if (failure.get() == null) {
+                    dispatch(splitter.finish());
+                    if (!batch.isEmpty()) {
+                        submitBatch(batch);
+                    }
+                }
+                if (splitter.isFull()) {
+                    log.warn("[Ingest] chunk 数达到上限 {}, 文件剩余内容已忽略: file={}",
+                            ragProperties.getMaxNumChunks(), fileName);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(ex);
+            } catch (Exception ex) {
+                fail(ex);
+            }
+        }
+
+        private void dispatch(List<Document> chunks) throws InterruptedException {
+            progress.addChunked(chunks.size());
+            for (Document chunk : chunks) {
+                Document document = diff.assign(chunk);
+                if (diff.isUnchanged(document)) {
+                    progress.addSkipped(1);
+                    continue;
+                }
+                batch.add(document);
+                if (batch.size() >= properties.getBatchSize()) {
+                    submitBatch(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+
+        private void submitBatch(List<Document> documents) throws InterruptedException {
+            if (failure.get() != null) {
+                return;
+            }
+            int size = documents.size();
+            AtomicBoolean embedded = new AtomicBoolean();
+            Set<String> indexFailures = ConcurrentHashMap.newKeySet();
+            AtomicBoolean indexed = new AtomicBoolean();
+            // 创建后立即登记：提交 ES 写入被拒绝时向量写入可能已在执行，run() 必须等它结束再返回
+            CompletableFuture<Void> embedding = write(embeddingPermits, () -> {
+                vectorStore.add(documents);
+                progress.addEmbedded(size);
+                embedded.set(true);
+            });
+            writes.add(embedding);
+            CompletableFuture<Void> indexing = write(indexPermits, () -> {
+                Set<String> failed = esRepository.indexDocuments(documents);
+                indexFailures.addAll(failed);
+                progress.addIndexed(size - failed.size());
+                indexed.set(true);
+            });
+            writes.add(indexing);
+            // 两个存储都写入成功后才记入清单；ES 写入失败的 chunk 不记入，下次上传时重新写入
+            writes.add(CompletableFuture.allOf(embedding, indexing).thenRun(() -> {
+                if (embedded.get() && indexed.get()) {
+                    diff.written(documents.stream().filter(doc -> !indexFailures.contains(doc.getId())).toList());
+                }
+            }).whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    fail(ex instanceof CompletionException ? ex.getCause() : ex);
+                }
+            }));
+        }
+
+        private CompletableFuture<Void> write(Semaphore permits, Runnable task) throws InterruptedException {
+            permits.acquire();
+            try {
+                return CompletableFuture.runAsync(() -> {
+                            if (failure.get() == null) {
+                                task.run();
+                            }
+                        }, writeExecutor)
+                        .whenComplete((ignored, ex) -> {
+                            permits.release();
+                            if (ex != null) {
+                                fail(ex instanceof CompletionException ? ex.getCause() : ex);
+                            }
+                        });
+            } catch (RejectedExecutionException ex) {
+                permits.release();
+                throw new ResponseStatusException(SERVICE_UNAVAILABLE, "入库任务过多，请稍后重试", ex);
+            }
+        }
+
+        private void putSegment(String segment) throws SAXException {
+            try {
+                while (!segments.offer(segment, 200, TimeUnit.MILLISECONDS)) {
+                    if (stopped()) {
+                        throw new SAXException("入库流水线已停止");
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(ex);
+                throw new SAXException("解析线程被中断", ex);
+            }
+        }
+
+        private void putEnd(CompletableFuture<Void> splitStage) {
+            try {
+                while (!segments.offer(END_OF_TEXT, 200, TimeUnit.MILLISECONDS)) {
+                    if (splitStage.isDone()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(ex);
+                splitStage.cancel(true);
+            }
+        }
+
+        private boolean stopped() {
+            return full || failure.get() != null;
+        }
+
+        private void fail(Throwable ex) {
+            if (failure.compareAndSet(null, ex)) {
+                log.warn("[Ingest] 流水线中止: file={}, reason={}", fileName, ex.getMessage());
+            }
+        }
+
+        /**
+         * 把 Tika 输出的正文文本按 segmentChars 分段送入队列
+         */
+        private final class SegmentHandler extends DefaultHandler {
+
+            private final StringBuilder buffer = new StringBuilder();
+
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                append(ch, start, length);
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+                append(ch, start, length);
+            }
+
+            private void append(char[] ch, int start, int length) throws SAXException {
+                if (stopped()) {
+                    throw new SAXException("入库流水线已停止");
+                }
+                if (!hasText) {
+                    for (int i = start; i < start + length; i++) {
+                        if (!Character.isWhitespace(ch[i])) {
+                            hasText = true;
+                            break;
+                        }
+                    }
+                }
+                buffer.append(ch, start, length);
+                if (buffer.length() >= properties.getSegmentChars()) {
+                    flush();
+                }
+            }
+
+            private void flush() throws SAXException {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                putSegment(buffer.toString());
+                progress.addParsedChars(buffer.length());
+                buffer.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个文件入库进度：各阶段已处理的数量，供日志与进度查询读取，可跨线程并发更新
+ */
+public class IngestionProgress {
+
+    private final AtomicLong parsedChars = new AtomicLong();
+    private final AtomicLong chunked = new AtomicLong();
+    private final AtomicLong embedded = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    public long parsedChars() {
+        return parsedChars.get();
+    }
+
+    public long chunked() {
+        return chunked.get();
+    }
+
+    public long embedded() {
+        return embedded.get();
+    }
+
+    public long indexed() {
+        return indexed.get();
+    }
+
+    /**
+     * 与上一版本相同、跳过写入的 chunk 数
+     */
+    public long skipped() {
+        return skipped.get();
+    }
+
+    /**
+     * 上一版本有、本次已删除的 chunk 数
+     */
+    public long deleted() {
+        return deleted.get();
+    }
+
+    void addParsedChars(long chars) {
+        parsedChars.addAndGet(chars);
+    }
+
+    void addChunked(long count) {
+        chunked.addAndGet(count);
+    }
+
+    void addEmbedded(long count) {
+        embedded.addAndGet(count);
+    }
+
+    void addIndexed(long count) {
+        indexed.addAndGet(count);
+    }
+
+    void addSkipped(long count) {
+        skipped.addAndGet(count);
+    }
+
+    void addDeleted(long count) {
+        deleted.addAndGet(count);
+    }
+
+    @Override
+    public String toString() {
+        return "parsedChars=" + parsedChars() + ", chunked=" + chunked()
+                + ", embedded=" + embedded() + ", indexed=" + indexed()
+                + ", skipped=" + skipped() + ", deleted=" + deleted();
+    }
+}
@@ -0,0 +1,108 @@
+package com.nageoffer.ai.tinyrag.service.ingest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+/**
+ * 增量切分器：文本按段陆续到达，每段到达后立即切分并产出 chunk
+ * <p>
+ * 每次切分的最后一个 chunk 可能只是半句话，不直接产出，而是与下一段文本拼接后重新切分，
+ * 保证切分边界与一次性切分整篇文本基本一致。chunk_index 在整个文件内连续，达到 maxChunks 后不再产出。
+ * 非线程安全，每个文件使用一个实例
+ */
+public class StreamingTextSplitter {
+
+    private final TokenTextSplitter tokenTextSplitter;
+    private final Map<String, Object> baseMetadata;
+    private final int maxChunks;
+    private final StringBuilder pending = new StringBuilder();
+    private int chunkIndex;
+
+    public StreamingTextSplitter(TokenTextSplitter tokenTextSplitter, Map<String, Object> baseMetadata, int maxChunks) {
+        this.tokenTextSplitter = tokenTextSplitter;
+        this.baseMetadata = baseMetadata;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * 追加一段文本，返回已确定边界的 chunk
+     */
+    public List<Document> accept(String segment) {
+        pending.append(segment);
+        if (isFull()) {
+            return List.of();
+        }
+        String trailingWhitespace = trailingWhitespace();
+        List<Document> split = split();
+        if (split.isEmpty()) {
+            return List.of();
+        }
+        // 最后一个 chunk 留待与下一段拼接。TokenTextSplitter 会去掉 chunk 首尾空白，
+        // 补回原文末尾的空白，避免与下一段开头的词粘连（如 "foo " + "bar" 变成 "foobar"）
+        Document tail = split.get(split.size() - 1);
+        pending.setLength(0);
+        pending.append(tail.getText()).append(trailingWhitespace);
+        return toChunks(split.subList(0, split.size() - 1));
+    }
+
+    /**
+     * 文本结束，切分并产出剩余内容
+     */
+    public List<Document> finish() {
+        if (isFull()) {
+            return List.of();
+        }
+        List<Document> split = split();
+        pending.setLength(0);
+        return toChunks(split);
+    }
+
+    public boolean isFull() {
+        return chunkIndex >= maxChunks;
+    }
+
+    public int chunkCount() {
+        return chunkIndex;
+    }
+
+    private String trailingWhitespace() {
+        int end = pending.length();
+        int start = end;
+        while (start > 0 && Character.isWhitespace(pending.charAt(start - 1))) {
+            start--;
+        }
+        return pending.substring(start, end);
+    }
+
+    private List<Document> split() {
+        if (pending.toString().isBlank()) {
+            return List.of();
+        }
+        return tokenTextSplitter.split(Document.builder()
+                .text(pending.toString())
+                .metadata(baseMetadata)
+                .build());
+    }
+
+    private List<Document> toChunks(List<Document> split) {
+        List<Document> chunks = new ArrayList<>(split.size());
+        for (Document doc : split) {
+            if (isFull()) {
+                break;
+            }
+            Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+            metadata.put("chunk_index", chunkIndex++);
+
+            chunks.add(Document.builder()
+                    .text(doc.getText())
+                    .metadata(metadata)
+                    .build());
+        }
+        return chunks;
+    }
+}
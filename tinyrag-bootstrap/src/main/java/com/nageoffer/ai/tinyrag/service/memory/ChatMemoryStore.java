@@ -0,0 +1,147 @@
+package com.nageoffer.ai.tinyrag.service.memory;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.sql.Array;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 会话记忆的持久化层，复用 pgvector 所在的 Postgres 数据源
+ * <p>
+ * 每个会话一行，消息列表以 JSON 文本整体存储，只保留角色与文本（metadata、工具调用不落库）。
+ * 读写失败只记日志：读取返回 null 由调用方按未加载处理，写入返回 false 由调用方稍后重试
+ */
+@Slf4j
+public class ChatMemoryStore {
+
+    private static final String TABLE_NAME = "tinyrag_chat_memory";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Gson gson = new Gson();
+
+    public ChatMemoryStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void initSchema() {
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                    + "conversation_id VARCHAR(255) PRIMARY KEY, "
+                    + "messages TEXT NOT NULL, "
+                    + "updated_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_updated_at "
+                    + "ON " + TABLE_NAME + " (updated_at)");
+            log.info("[ChatMemory] 会话记忆表 {} 已就绪", TABLE_NAME);
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 会话记忆表初始化失败: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * @return 会话消息，会话不存在时为空列表，读取失败时为 null
+     */
+    public List<Message> find(String conversationId) {
+        try {
+            List<String> rows = jdbcTemplate.queryForList(
+                    "SELECT messages FROM " + TABLE_NAME + " WHERE conversation_id = ?", String.class, conversationId);
+            return rows.isEmpty() ? List.of() : decode(rows.get(0));
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 会话 {} 读取失败: {}", conversationId, ex.getMessage());
+            return null;
+        }
+    }
+
+    public List<String> findConversationIds() {
+        try {
+            return jdbcTemplate.queryForList("SELECT conversation_id FROM " + TABLE_NAME, String.class);
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 会话列表读取失败: {}", ex.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * 一次批量写入：upserts 整体覆盖对应会话，deletes 删除对应会话
+     *
+     * @return 是否写入成功
+     */
+    public boolean write(Map<String, List<Message>> upserts, Collection<String> deletes) {
+        try {
+            if (!upserts.isEmpty()) {
+                List<Object[]> rows = new ArrayList<>(upserts.size());
+                upserts.forEach((id, messages) -> rows.add(new Object[]{id, encode(messages)}));
+                jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_NAME + " (conversation_id, messages) VALUES (?, ?) "
+                        + "ON CONFLICT (conversation_id) DO UPDATE SET messages = EXCLUDED.messages, updated_at = now()", rows);
+            }
+            if (!deletes.isEmpty()) {
+                jdbcTemplate.update("DELETE FROM " + TABLE_NAME + " WHERE conversation_id = ANY(?)", ps -> {
+                    Array array = ps.getConnection().createArrayOf("varchar", deletes.toArray());
+                    ps.setArray(1, array);
+                });
+            }
+            return true;
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 批量写入失败, 稍后重试: upserts={}, deletes={}, reason={}",
+                    upserts.size(), deletes.size(), ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 删除超过保留期未更新的会话
+     */
+    public int purgeOlderThan(Duration retention) {
+        try {
+            return jdbcTemplate.update("DELETE FROM " + TABLE_NAME + " WHERE updated_at < now() - make_interval(secs => ?)",
+                    (double) retention.toSeconds());
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 过期会话清理失败: {}", ex.getMessage());
+            return 0;
+        }
+    }
+
+    String encode(List<Message> messages) {
+        List<StoredMessage> stored = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getMessageType() == MessageType.TOOL) {
+                continue;
+            }
+            stored.add(new StoredMessage(message.getMessageType().name().toLowerCase(Locale.ROOT), message.getText()));
+        }
+        return gson.toJson(stored);
+    }
+
+    List<Message> decode(String json) {
+        List<StoredMessage> stored = gson.fromJson(json, new TypeToken<List<StoredMessage>>() {
+        }.getType());
+        List<Message> messages = new ArrayList<>(stored.size());
+        for (StoredMessage message : stored) {
+            String text = message.text() == null ? "" : message.text();
+            switch (message.type()) {
+                case "user" -> messages.add(new UserMessage(text));
+                case "assistant" -> messages.add(new AssistantMessage(text));
+                case "system" -> messages.add(new SystemMessage(text));
+                default -> {
+                }
+            }
+        }
+        return List.copyOf(messages);
+    }
+
+    private record StoredMessage(String type, String text) {
+    }
+}
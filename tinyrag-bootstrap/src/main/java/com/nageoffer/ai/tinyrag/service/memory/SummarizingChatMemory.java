@@ -0,0 +1,345 @@
+package com.nageoffer.ai.tinyrag.service.memory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.prompt.PromptTemplateRegistry;
+import com.nageoffer.ai.tinyrag.service.rag.ChatResponseUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.util.StringUtils;
+
+/**
+ * 按 token 预算压缩的会话记忆
+ * <p>
+ * 会话最近的消息原样保留，更早的轮次由 LLM 合并为一段滚动摘要。未压缩消息的 token 数超过 compressThresholdTokens 时，
+ * 在后台线程池中生成摘要并替换早期消息，不阻塞问答请求；摘要以带前缀的系统消息存为会话的第一条消息，随会话一起持久化。
+ * 读取时摘要之外的消息从新到旧装入，保证返回内容不超过 maxPromptTokens。
+ * 每条消息的 token 数按会话缓存，追加消息时只计算新消息
+ */
+@Slf4j
+public class SummarizingChatMemory implements ChatMemory {
+
+    static final String SUMMARY_PREFIX = "【对话背景摘要】";
+
+    /**
+     * 摘要以「用户给出背景 → 助手确认」的一对消息放入 prompt，系统消息仍只有回答用的那一条
+     */
+    private static final String SUMMARY_ACK = "好的，我已了解之前的对话背景。";
+
+    /**
+     * 每条消息的角色标记等固定开销
+     */
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final int LOCK_STRIPES = 64;
+
+    private final ChatMemoryRepository repository;
+    private final RAGProperties.SummaryMemory properties;
+    private final int maxMessages;
+    private final ChatClient chatClient;
+    private final PromptTemplateRegistry prompts;
+    private final String summaryModel;
+    private final TaskExecutor executor;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+    private final int summaryAckTokens;
+    private final Cache<String, TokenTally> tallies;
+    private final Set<String> compressing = ConcurrentHashMap.newKeySet();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public SummarizingChatMemory(ChatMemoryRepository repository,
+                                 RAGProperties ragProperties,
+                                 ChatModel chatModel,
+                                 PromptTemplateRegistry prompts,
+                                 TaskExecutor executor) {
+        this.repository = repository;
+        this.properties = ragProperties.getSummaryMemory();
+        this.maxMessages = ragProperties.getMemoryMaxMessages();
+        this.chatClient = ChatClient.builder(chatModel).build();
+        this.prompts = prompts;
+        this.summaryModel = ragProperties.getRewriteModel();
+        this.executor = executor;
+        this.summaryAckTokens = countTokens(new AssistantMessage(SUMMARY_ACK));
+        this.tallies = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxCachedSessions())
+                .expireAfterAccess(ragProperties.getMemoryStore().getIdleTtl())
+                .build();
+        Arrays.setAll(locks, i -> new Object());
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int unsummarizedTokens;
+        synchronized (lock(conversationId)) {
+            List<Message> stored;
+            try {
+                stored = repository.findByConversationId(conversationId);
+            } catch (DataAccessException ex) {
+                // 读不到已有历史时不能保存，否则只含本轮消息的列表会覆盖持久化的完整会话
+                log.warn("[ChatMemory] 会话 {} 历史读取失败, 本轮消息不写入记忆: {}", conversationId, ex.getMessage());
+                return;
+            }
+            int[] storedTokens = tally(conversationId, stored).tokens();
+
+            List<Message> updated = new ArrayList<>(stored.size() + messages.size());
+            updated.addAll(stored);
+            updated.addAll(messages);
+            int[] tokens = Arrays.copyOf(storedTokens, updated.size());
+            for (int i = stored.size(); i < updated.size(); i++) {
+                tokens[i] = countTokens(updated.get(i));
+            }
+
+            // 压缩跟不上时按条数上限丢弃最早的消息，摘要保留
+            int first = hasSummary(updated) ? 1 : 0;
+            int overflow = updated.size() - first - maxMessages;
+            if (overflow > 0) {
+                updated.subList(first, first + overflow).clear();
+                int[] trimmed = new int[updated.size()];
+                System.arraycopy(tokens, 0, trimmed, 0, first);
+                System.arraycopy(tokens, first + overflow, trimmed, first, trimmed.length - first);
+                tokens = trimmed;
+            }
+
+            repository.saveAll(conversationId, updated);
+            TokenTally tally = TokenTally.of(tokens, updated);
+            tallies.put(conversationId, tally);
+            unsummarizedTokens = tally.total() - (first == 1 ? tokens[0] : 0);
+        }
+        if (unsummarizedTokens > properties.getCompressThresholdTokens()) {
+            scheduleCompression(conversationId);
+        }
+    }
+
+    /**
+     * 摘要（若有）+ 从新到旧装入预算的最近消息，总 token 数不超过 maxPromptTokens
+     */
+    @Override
+    public List<Message> get(String conversationId) {
+        List<Message> stored;
+        try {
+            stored = repository.findByConversationId(conversationId);
+        } catch (DataAccessException ex) {
+            log.warn("[ChatMemory] 会话 {} 历史读取失败, 本次不带历史: {}", conversationId, ex.getMessage());
+            return List.of();
+        }
+        if (stored.isEmpty()) {
+            return List.of();
+        }
+        int[] tokens = tally(conversationId, stored).tokens();
+        int budget = properties.getMaxPromptTokens();
+
+        boolean hasSummary = hasSummary(stored);
+        int first = hasSummary ? 1 : 0;
+        int used = 0;
+        boolean includeSummary = false;
+        if (hasSummary && tokens[0] + summaryAckTokens <= budget) {
+            used = tokens[0] + summaryAckTokens;
+            includeSummary = true;
+        }
+        int from = stored.size();
+        while (from > first && used + tokens[from - 1] <= budget) {
+            used += tokens[from - 1];
+            from--;
+        }
+        // 不以半轮问答开头
+        while (from < stored.size() && stored.get(from).getMessageType() == MessageType.ASSISTANT) {
+            from++;
+        }
+
+        List<Message> messages = new ArrayList<>(stored.size() - from + 2);
+        if (includeSummary) {
+            messages.add(new UserMessage(stored.get(0).getText()));
+            messages.add(new AssistantMessage(SUMMARY_ACK));
+        }
+        messages.addAll(stored.subList(from, stored.size()));
+        return messages;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        synchronized (lock(conversationId)) {
+            repository.deleteByConversationId(conversationId);
+            tallies.invalidate(conversationId);
+        }
+    }
+
+    private void scheduleCompression(String conversationId) {
+        if (!compressing.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compress(conversationId);
+                } finally {
+                    compressing.remove(conversationId);
+                }
+            });
+        } catch (TaskRejectedException ex) {
+            // 线程池已满时本次不压缩，下次追加消息时再触发
+            compressing.remove(conversationId);
+            log.warn("[ChatMemory] 摘要线程池已满, 会话 {} 暂不压缩", conversationId);
+        }
+    }
+
+    /**
+     * 将最近 keepRecentRounds 轮之前的消息与已有摘要合并为新摘要；
+     * 生成期间会话被清空或早期消息发生变化时放弃本次结果
+     */
+    void compress(String conversationId) {
+        List<Message> snapshot = repository.findByConversationId(conversationId);
+        boolean hasSummary = hasSummary(snapshot);
+        int first = hasSummary ? 1 : 0;
+        int end = snapshot.size() - properties.getKeepRecentRounds() * 2;
+        // 不把一轮问答拆开
+        while (end > first && end < snapshot.size() && snapshot.get(end).getMessageType() == MessageType.ASSISTANT) {
+            end++;
+        }
+        if (end <= first || end >= snapshot.size()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        String existing = hasSummary ? snapshot.get(0).getText().substring(SUMMARY_PREFIX.length()) : "";
+        String summary = summarize(existing, snapshot.subList(first, end));
+        if (!StringUtils.hasText(summary)) {
+            return;
+        }
+
+        synchronized (lock(conversationId)) {
+            List<Message> current = repository.findByConversationId(conversationId);
+            if (!startsWith(current, snapshot, end)) {
+                log.info("[ChatMemory] 会话 {} 在摘要生成期间发生变化, 放弃本次压缩", conversationId);
+                return;
+            }
+            List<Message> updated = new ArrayList<>(current.size() - end + 1);
+            updated.add(new SystemMessage(SUMMARY_PREFIX + summary.trim()));
+            updated.addAll(current.subList(end, current.size()));
+
+            TokenTally tally = tallies.getIfPresent(conversationId);
+            boolean reusable = tally != null && tally.matches(current);
+            int[] tokens = new int[updated.size()];
+            tokens[0] = countTokens(updated.get(0));
+            for (int i = 1; i < tokens.length; i++) {
+                tokens[i] = reusable ? tally.tokens()[end + i - 1] : countTokens(updated.get(i));
+            }
+            repository.saveAll(conversationId, updated);
+            tallies.put(conversationId, TokenTally.of(tokens, updated));
+        }
+        log.info("[ChatMemory] 会话 {} 已将 {} 条早期消息压缩为摘要, 耗时 {}ms",
+                conversationId, end - first, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    private String summarize(String existingSummary, List<Message> messages) {
+        StringBuilder conversation = new StringBuilder();
+        for (Message message : messages) {
+            conversation.append(message.getMessageType() == MessageType.USER ? "用户" : "助手")
+                    .append("：").append(message.getText()).append('\n');
+        }
+        try {
+            ChatOptions.Builder options = ChatOptions.builder()
+                    .temperature(0.0)
+                    .maxTokens(properties.getSummaryMaxTokens());
+            if (StringUtils.hasText(summaryModel)) {
+                options.model(summaryModel);
+            }
+            ChatClientResponse response = chatClient.prompt()
+                    .system(prompts.memorySummarySystem())
+                    .user(prompts.memorySummaryUser(existingSummary, conversation.toString()))
+                    .options(options.build())
+                    .call()
+                    .chatClientResponse();
+            return ChatResponseUtils.extractText(response);
+        } catch (Exception ex) {
+            log.warn("[ChatMemory] 摘要生成失败, 保留原消息: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 缓存的逐条 token 数；会话在别处被改写（如重新从 Postgres 加载、压缩）导致不匹配时重新计算
+     */
+    private TokenTally tally(String conversationId, List<Message> messages) {
+        TokenTally tally = tallies.getIfPresent(conversationId);
+        if (tally != null && tally.matches(messages)) {
+            return tally;
+        }
+        int[] tokens = new int[messages.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = countTokens(messages.get(i));
+        }
+        tally = TokenTally.of(tokens, messages);
+        tallies.put(conversationId, tally);
+        return tally;
+    }
+
+    private int countTokens(Message message) {
+        String text = message.getText();
+        return MESSAGE_OVERHEAD_TOKENS + (StringUtils.hasText(text) ? tokenCountEstimator.estimate(text) : 0);
+    }
+
+    private Object lock(String conversationId) {
+        return locks[Math.floorMod(conversationId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static boolean hasSummary(List<Message> messages) {
+        return !messages.isEmpty()
+                && messages.get(0).getMessageType() == MessageType.SYSTEM
+                && messages.get(0).getText() != null
+                && messages.get(0).getText().startsWith(SUMMARY_PREFIX);
+    }
+
+    private static boolean startsWith(List<Message> current, List<Message> snapshot, int length) {
+        if (current.size() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (current.get(i) != snapshot.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 逐条 token 数，以消息条数与最后一条消息的文本校验是否仍对应当前会话
+     */
+    private record TokenTally(int[] tokens, int total, int lastTextHash) {
+
+        static TokenTally of(int[] tokens, List<Message> messages) {
+            return new TokenTally(tokens, Arrays.stream(tokens).sum(), lastTextHash(messages));
+        }
+
+        boolean matches(List<Message> messages) {
+            return tokens.length == messages.size() && lastTextHash == lastTextHash(messages);
+        }
+
+        private static int lastTextHash(List<Message> messages) {
+            return messages.isEmpty() ? 0 : String.valueOf(messages.get(messages.size() - 1).getText()).hashCode();
+        }
+    }
+}
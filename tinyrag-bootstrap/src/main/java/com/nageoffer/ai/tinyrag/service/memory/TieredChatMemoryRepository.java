@@ -0,0 +1,287 @@
+package com.nageoffer.ai.tinyrag.service.memory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * 两级会话记忆：堆内热数据 + Postgres 持久化
+ * <p>
+ * 热数据按估算字节数做 LRU 淘汰、按空闲时长过期，会话数再多堆内占用也不超过 maxResidentBytes；
+ * 写入先进热数据与待刷写队列，由后台按 flushInterval 批量写回 Postgres（同一会话多次写入只保留最后一次），
+ * 队列达到 flushBatchSize 时提前刷写。队列中的会话数达到 maxPendingWrites（Postgres 变慢或不可用）时，
+ * 新会话的写入不再进入队列，而是在调用线程上直接写入 Postgres，写入失败的只保留在热数据中，
+ * 队列占用的堆内存因此有上限。不在热数据中的会话在首次读取时从待刷写队列或 Postgres 加载。
+ * 关闭持久化时只保留热数据，被淘汰的会话即丢失
+ */
+@Slf4j
+public class TieredChatMemoryRepository implements ChatMemoryRepository, DisposableBean {
+
+    /**
+     * 每条消息除文本外的对象开销估算
+     */
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+    private static final int SESSION_OVERHEAD_BYTES = 96;
+    private static final Duration PURGE_INTERVAL = Duration.ofHours(1);
+
+    private final RAGProperties.MemoryStore properties;
+    private final ChatMemoryStore store;
+    private final TaskScheduler scheduler;
+    private final Cache<String, List<Message>> resident;
+    /**
+     * 待写回的会话，值为 null 消息列表的条目表示删除
+     */
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coldLoads = new LongAdder();
+    private final LongAdder flushedSessions = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder writeThroughs = new LongAdder();
+    private final LongAdder droppedWrites = new LongAdder();
+
+    /**
+     * @param store 持久化层，为 null 时只使用堆内热数据
+     */
+    public TieredChatMemoryRepository(RAGProperties.MemoryStore properties, ChatMemoryStore store,
+                                      TaskScheduler scheduler) {
+        this.properties = properties;
+        this.store = store;
+        this.scheduler = scheduler;
+        this.resident = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxResidentBytes().toBytes())
+                .weigher(TieredChatMemoryRepository::estimateBytes)
+                .expireAfterAccess(properties.getIdleTtl())
+                .build();
+        if (store != null) {
+            tasks.add(scheduler.scheduleWithFixedDelay(this::flush, properties.getFlushInterval()));
+            tasks.add(scheduler.scheduleWithFixedDelay(this::purge, Instant.now().plus(PURGE_INTERVAL), PURGE_INTERVAL));
+        }
+    }
+
+    /**
+     * @throws DataAccessResourceFailureException 热数据未命中且 Postgres 读取失败；此时不能返回空列表，
+     *                                            否则调用方追加消息后保存，会用不完整的历史覆盖 Postgres 中的会话
+     */
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<Message> messages = resident.getIfPresent(conversationId);
+        if (messages != null) {
+            hits.increment();
+            return messages;
+        }
+        // 同一会话的并发加载只会访问一次 Postgres；加载失败抛出异常且不写入热数据，下次读取重试
+        return resident.get(conversationId, this::loadCold);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<Message> snapshot = List.copyOf(messages);
+        resident.put(conversationId, snapshot);
+        enqueue(conversationId, new PendingWrite(snapshot));
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        resident.invalidate(conversationId);
+        enqueue(conversationId, new PendingWrite(null));
+    }
+
+    /**
+     * 热数据、待刷写与 Postgres 中全部会话 id 的并集，会话多时开销大，仅用于管理场景
+     */
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(resident.asMap().keySet());
+        if (store != null) {
+            ids.addAll(store.findConversationIds());
+        }
+        pending.forEach((id, write) -> {
+            if (write.messages() == null) {
+                ids.remove(id);
+            } else {
+                ids.add(id);
+            }
+        });
+        return List.copyOf(ids);
+    }
+
+    private List<Message> loadCold(String conversationId) {
+        PendingWrite write = pending.get(conversationId);
+        if (write != null) {
+            return write.messages() != null ? write.messages() : List.of();
+        }
+        if (store == null) {
+            return List.of();
+        }
+        coldLoads.increment();
+        List<Message> messages = store.find(conversationId);
+        if (messages == null) {
+            throw new DataAccessResourceFailureException("会话 " + conversationId + " 历史读取失败");
+        }
+        return messages;
+    }
+
+    private void enqueue(String conversationId, PendingWrite write) {
+        if (store == null) {
+            return;
+        }
+        // 已在队列中的会话只替换内容，不增加条目
+        if (pending.size() >= properties.getMaxPendingWrites() && !pending.containsKey(conversationId)) {
+            writeThrough(conversationId, write);
+            return;
+        }
+        pending.put(conversationId, write);
+        if (pending.size() >= properties.getFlushBatchSize() && flushRequested.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, Instant.now());
+        }
+    }
+
+    /**
+     * 队列已满时同步写入，写入慢会直接反压到调用方；失败时放弃这次持久化，不再进入队列
+     */
+    private void writeThrough(String conversationId, PendingWrite write) {
+        writeThroughs.increment();
+        boolean written = write.messages() != null
+                ? store.write(Map.of(conversationId, write.messages()), List.of())
+                : store.write(Map.of(), List.of(conversationId));
+        if (!written) {
+            droppedWrites.increment();
+            log.warn("[ChatMemory] 待刷写队列已满 ({}) 且同步写入失败, 会话 {} 本次未持久化",
+                    properties.getMaxPendingWrites(), conversationId);
+        }
+    }
+
+    /**
+     * 将待刷写队列按批写回 Postgres；写入失败时保留队列，下个周期重试
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            int batchSize = properties.getFlushBatchSize();
+            // 只处理开始时已有的条目量，避免持续写入时一直占用调度线程
+            int rounds = pending.size() / batchSize + 1;
+            for (int round = 0; round < rounds && !pending.isEmpty(); round++) {
+                Map<String, PendingWrite> batch = new HashMap<>();
+                for (Map.Entry<String, PendingWrite> entry : pending.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue());
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                }
+                Map<String, List<Message>> upserts = new HashMap<>();
+                List<String> deletes = new ArrayList<>();
+                batch.forEach((id, write) -> {
+                    if (write.messages() != null) {
+                        upserts.put(id, write.messages());
+                    } else {
+                        deletes.add(id);
+                    }
+                });
+                if (!store.write(upserts, deletes)) {
+                    flushFailures.increment();
+                    return;
+                }
+                // 刷写期间又被写入的会话保留在队列中，下次再写
+                batch.forEach(pending::remove);
+                flushedSessions.add(batch.size());
+            }
+        } catch (Exception ex) {
+            flushFailures.increment();
+            log.warn("[ChatMemory] 刷写失败: {}", ex.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void purge() {
+        int purged = store.purgeOlderThan(properties.getRetention());
+        if (purged > 0) {
+            log.info("[ChatMemory] 已清理 {} 个超过 {} 未更新的会话", purged, properties.getRetention());
+        }
+    }
+
+    private static int estimateBytes(String conversationId, List<Message> messages) {
+        long bytes = SESSION_OVERHEAD_BYTES + 2L * conversationId.length();
+        for (Message message : messages) {
+            String text = message.getText();
+            bytes += MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    public long residentSessions() {
+        return resident.estimatedSize();
+    }
+
+    public long residentBytes() {
+        return resident.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    public int pendingSessions() {
+        return pending.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long coldLoadCount() {
+        return coldLoads.sum();
+    }
+
+    public long flushedCount() {
+        return flushedSessions.sum();
+    }
+
+    public long flushFailureCount() {
+        return flushFailures.sum();
+    }
+
+    public long writeThroughCount() {
+        return writeThroughs.sum();
+    }
+
+    public long droppedWriteCount() {
+        return droppedWrites.sum();
+    }
+
+    @Override
+    public void destroy() {
+        tasks.forEach(task -> task.cancel(false));
+        if (store != null && !pending.isEmpty()) {
+            log.info("[ChatMemory] 关闭前刷写 {} 个会话", pending.size());
+            flush();
+        }
+    }
+
+    private record PendingWrite(List<Message> messages) {
+    }
+}
@@ -0,0 +1,432 @@
+package com.nageoffer.ai.tinyrag.service.metrics;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.cache.CachingEmbeddingModel;
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache;
+import com.nageoffer.ai.tinyrag.service.cache.RewriteCache;
+import com.nageoffer.ai.tinyrag.service.cache.SemanticAnswerCache;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
+import com.nageoffer.ai.tinyrag.service.ingest.BatchingEmbeddingModel;
+import com.nageoffer.ai.tinyrag.service.memory.TieredChatMemoryRepository;
+import com.nageoffer.ai.tinyrag.service.rag.RetrievalBulkhead;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * RAG 链路指标
+ * <p>
+ * 统一定义各阶段的 Micrometer 指标名与标签，通过 actuator 的 /actuator/prometheus 暴露。
+ * 请求级指标带 kb 与 model 标签，kb 为空（全库检索）时记为 all，不在已知知识库集合中的 kb 记为 other。
+ * ragTaskExecutor 为平台线程池时由 Spring Boot 自动以 executor.* 指标暴露，这里只绑定自定义的检索隔离舱、缓存、HTTP 连接池与会话记忆
+ */
+@Component
+public class RAGMetrics {
+
+    private static final String ALL_KB = "all";
+    private static final String OTHER_KB = "other";
+    private static final String DEFAULT_MODEL = "default";
+
+    private final MeterRegistry registry;
+    private final String answerModel;
+    private final String rewriteModel;
+    private final String rerankModel;
+    private final Set<String> knownKbs = ConcurrentHashMap.newKeySet();
+    private final int maxKbTags;
+
+    public RAGMetrics(MeterRegistry registry,
+                      RAGProperties ragProperties,
+                      List<RetrievalBulkhead> bulkheads,
+                      SemanticAnswerCache answerCache,
+                      RerankCache rerankCache,
+                      RewriteCache rewriteCache,
+                      EmbeddingModel embeddingModel,
+                      PooledHttpTransport httpTransport,
+                      ChatMemoryRepository chatMemoryRepository,
+                      @Value("${spring.ai.openai.chat.options.model:}") String chatModel) {
+        this.registry = registry;
+        this.answerModel = modelTag(ragProperties.getAnswerModel(), chatModel);
+        this.rewriteModel = modelTag(ragProperties.getRewriteModel(), chatModel);
+        this.rerankModel = modelTag(ragProperties.activeRerankModel(), null);
+        this.maxKbTags = ragProperties.getMetrics().getMaxKbTags();
+        registerKbs(ragProperties.getMetrics().getKbs());
+        registerKbs(ragProperties.getFusion().getKb().keySet());
+        bindBulkheads(bulkheads);
+        bindAnswerCache(answerCache);
+        bindRerankCache(rerankCache);
+        bindRewriteCache(rewriteCache);
+        bindEmbeddingModel(embeddingModel);
+        bindHttpPool(httpTransport);
+        bindChatMemory(chatMemoryRepository);
+    }
+
+    public void recordRewrite(String kb, long elapsedNanos) {
+        Timer.builder("tinyrag.rewrite")
+                .description("问题改写耗时")
+                .tags("kb", kbTag(kb), "model", rewriteModel)
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 未调用改写模型的一次请求
+     *
+     * @param reason         short_question / identifier / cache_hit
+     * @param savedNanosHint 按最近改写平均耗时估算的节省时间，尚无样本时为 0
+     */
+    public void recordRewriteSkipped(String kb, String reason, long savedNanosHint) {
+        Counter.builder("tinyrag.rewrite.skipped")
+                .description("问题改写跳过次数")
+                .tags("kb", kbTag(kb), "reason", reason)
+                .register(registry)
+                .increment();
+        if (savedNanosHint > 0) {
+            Timer.builder("tinyrag.rewrite.saved")
+                    .description("跳过问题改写节省的时间（按最近改写平均耗时估算）")
+                    .tags("kb", kbTag(kb), "model", rewriteModel)
+                    .register(registry)
+                    .record(savedNanosHint, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param source  vector / keyword
+     * @param outcome ok / timeout / error / rejected
+     */
+    public void recordRetrieve(String source, String kb, long elapsedNanos, String outcome, int resultCount) {
+        Timer.builder("tinyrag.retrieve")
+                .description("单路检索耗时")
+                .tags("source", source, "kb", kbTag(kb), "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("tinyrag.retrieve.results")
+                .description("单路检索返回文档数")
+                .tags("source", source, "kb", kbTag(kb))
+                .register(registry)
+                .record(resultCount);
+    }
+
+    /**
+     * 检索路由决策
+     *
+     * @param route hybrid / keyword / vector
+     */
+    public void recordRetrieveRoute(String kb, String route) {
+        Counter.builder("tinyrag.retrieve.route")
+                .description("检索路由决策次数")
+                .tags("kb", kbTag(kb), "route", route)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 对冲模式的结果
+     *
+     * @param first   先完成的一路，vector / keyword，截止前都未完成时为 none
+     * @param outcome early：先完成的一路已足够，取消另一路；waited：仍等待另一路并融合
+     */
+    public void recordRetrieveHedge(String kb, String first, String outcome) {
+        Counter.builder("tinyrag.retrieve.hedge")
+                .description("对冲模式检索次数")
+                .tags("kb", kbTag(kb), "first", first, "outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 推测检索的结果
+     *
+     * @param outcome reused：改写前后差异小，直接使用原问题的检索结果；merged：再检索一次并合并
+     * @param overlap 改写前后问题的 token 重合度
+     */
+    public void recordSpeculativeRetrieval(String kb, String outcome, double overlap) {
+        Counter.builder("tinyrag.retrieve.speculative")
+                .description("推测检索次数")
+                .tags("kb", kbTag(kb), "outcome", outcome)
+                .register(registry)
+                .increment();
+        DistributionSummary.builder("tinyrag.retrieve.speculative.overlap")
+                .description("改写前后问题的 token 重合度")
+                .tags("kb", kbTag(kb))
+                .register(registry)
+                .record(overlap);
+    }
+
+    public void recordFusion(String kb, RAGProperties.FusionMethod method, int fusedSize) {
+        DistributionSummary.builder("tinyrag.fusion.size")
+                .description("混合检索融合后文档数")
+                .tags("kb", kbTag(kb), "method", method.name().toLowerCase(Locale.ROOT))
+                .register(registry)
+                .record(fusedSize);
+    }
+
+    /**
+     * @param fallback 是否降级为向量分数排序（失败或超时）
+     */
+    public void recordRerank(String kb, long elapsedNanos, boolean fallback) {
+        Timer.builder("tinyrag.rerank")
+                .description("Rerank 耗时")
+                .tags("kb", kbTag(kb), "model", rerankModel, "outcome", fallback ? "fallback" : "ok")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (fallback) {
+            Counter.builder("tinyrag.rerank.fallback")
+                    .description("Rerank 降级次数")
+                    .tags("kb", kbTag(kb), "model", rerankModel)
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Rerank 被跳过一次
+     *
+     * @param reason         few_candidates / score_gap / single_window
+     * @param savedNanosHint 按最近 Rerank 平均耗时估算的节省时间，尚无样本时为 0，不记录
+     */
+    public void recordRerankSkipped(String kb, String reason, long savedNanosHint) {
+        Counter.builder("tinyrag.rerank.skipped")
+                .description("Rerank 跳过次数")
+                .tags("kb", kbTag(kb), "reason", reason)
+                .register(registry)
+                .increment();
+        if (savedNanosHint > 0) {
+            Timer.builder("tinyrag.rerank.saved")
+                    .description("跳过 Rerank 节省的时间（按最近 Rerank 平均耗时估算）")
+                    .tags("kb", kbTag(kb), "model", rerankModel)
+                    .register(registry)
+                    .record(savedNanosHint, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordFirstToken(String kb, long elapsedNanos) {
+        Timer.builder("tinyrag.generation.first.token")
+                .description("首 token 时间（从请求开始计算）")
+                .tags("kb", kbTag(kb), "model", answerModel)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordGeneration(String kb, int tokenCount, long elapsedNanos) {
+        if (tokenCount <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+        DistributionSummary.builder("tinyrag.generation.tokens.per.second")
+                .description("生成速度（首 token 之后）")
+                .tags("kb", kbTag(kb), "model", answerModel)
+                .register(registry)
+                .record(tokenCount / (elapsedNanos / 1_000_000_000.0));
+    }
+
+    public void recordSseDisconnect() {
+        Counter.builder("tinyrag.sse.disconnects")
+                .description("SSE 客户端提前断开次数")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param type request（整个 _bulk 请求失败）/ item（单个文档写入失败）
+     */
+    public void recordEsBulkErrors(String type, int count) {
+        Counter.builder("tinyrag.es.bulk.errors")
+                .description("ES 批量写入失败数")
+                .tags("type", type)
+                .register(registry)
+                .increment(count);
+    }
+
+    /**
+     * 一次 _bulk 请求的耗时与成功写入的文档数，文档数计数器的速率即写入吞吐（docs/s）
+     *
+     * @param op index / delete
+     */
+    public void recordEsBulk(String op, int succeeded, long elapsedNanos) {
+        Timer.builder("tinyrag.es.bulk")
+                .description("ES _bulk 请求耗时")
+                .tags("op", op)
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("tinyrag.es.bulk.docs")
+                .description("ES 批量写入成功的文档数")
+                .tags("op", op)
+                .register(registry)
+                .increment(succeeded);
+    }
+
+    /**
+     * @param type request（整个 _bulk 请求被拒绝）/ item（单个条目被拒绝），被拒绝的条目会退避后重试
+     */
+    public void recordEsBulkRejected(String type, int count) {
+        Counter.builder("tinyrag.es.bulk.rejected")
+                .description("ES 批量写入被拒绝或请求失败后重试的条目数")
+                .tags("type", type)
+                .register(registry)
+                .increment(count);
+    }
+
+    private void bindHttpPool(PooledHttpTransport httpTransport) {
+        Gauge.builder("tinyrag.http.pool.leased", httpTransport, PooledHttpTransport::leasedConnections)
+                .description("HTTP 连接池使用中的连接数").register(registry);
+        Gauge.builder("tinyrag.http.pool.available", httpTransport, PooledHttpTransport::availableConnections)
+                .description("HTTP 连接池空闲连接数").register(registry);
+        Gauge.builder("tinyrag.http.pool.pending", httpTransport, PooledHttpTransport::pendingRequests)
+                .description("等待 HTTP 连接的请求数").register(registry);
+        Gauge.builder("tinyrag.http.pool.max", httpTransport, PooledHttpTransport::maxConnections)
+                .description("HTTP 连接池连接数上限").register(registry);
+    }
+
+    private void bindChatMemory(ChatMemoryRepository chatMemoryRepository) {
+        if (!(chatMemoryRepository instanceof TieredChatMemoryRepository repository)) {
+            return;
+        }
+        Gauge.builder("tinyrag.memory.resident.sessions", repository, TieredChatMemoryRepository::residentSessions)
+                .description("堆内热数据中的会话数").register(registry);
+        Gauge.builder("tinyrag.memory.resident.bytes", repository, TieredChatMemoryRepository::residentBytes)
+                .description("堆内热数据占用的估算字节数").baseUnit("bytes").register(registry);
+        Gauge.builder("tinyrag.memory.pending.sessions", repository, TieredChatMemoryRepository::pendingSessions)
+                .description("待写回 Postgres 的会话数").register(registry);
+        FunctionCounter.builder("tinyrag.memory.requests", repository, TieredChatMemoryRepository::hitCount)
+                .description("会话记忆读取次数").tag("result", "resident").register(registry);
+        FunctionCounter.builder("tinyrag.memory.requests", repository, TieredChatMemoryRepository::coldLoadCount)
+                .description("会话记忆读取次数").tag("result", "cold_load").register(registry);
+        FunctionCounter.builder("tinyrag.memory.flushed", repository, TieredChatMemoryRepository::flushedCount)
+                .description("已写回 Postgres 的会话数").register(registry);
+        FunctionCounter.builder("tinyrag.memory.flush.failures", repository, TieredChatMemoryRepository::flushFailureCount)
+                .description("批量写回失败次数").register(registry);
+        FunctionCounter.builder("tinyrag.memory.write.through", repository, TieredChatMemoryRepository::writeThroughCount)
+                .description("待刷写队列已满时同步写入的次数").register(registry);
+        FunctionCounter.builder("tinyrag.memory.write.dropped", repository, TieredChatMemoryRepository::droppedWriteCount)
+                .description("队列已满且同步写入失败、未持久化的写入次数").register(registry);
+    }
+
+    private void bindBulkheads(List<RetrievalBulkhead> bulkheads) {
+        for (RetrievalBulkhead bulkhead : bulkheads) {
+            String name = bulkhead.getName();
+            Gauge.builder("tinyrag.bulkhead.queue.depth", bulkhead, RetrievalBulkhead::queueDepth)
+                    .description("检索隔离舱排队任务数").tag("name", name).register(registry);
+            Gauge.builder("tinyrag.bulkhead.active", bulkhead, RetrievalBulkhead::activeCount)
+                    .description("检索隔离舱执行中任务数").tag("name", name).register(registry);
+            Gauge.builder("tinyrag.bulkhead.pool.size", bulkhead, RetrievalBulkhead::poolSize)
+                    .description("检索隔离舱线程数上限").tag("name", name).register(registry);
+            FunctionCounter.builder("tinyrag.bulkhead.rejected", bulkhead, RetrievalBulkhead::rejectedCount)
+                    .description("检索隔离舱拒绝次数").tag("name", name).register(registry);
+            // Timer 的 max 按发布周期滚动，分位数反映近期排队情况，不会停在进程启动以来的最大值
+            Timer waitTimer = Timer.builder("tinyrag.bulkhead.wait")
+                    .description("检索任务排队等待时间").tag("name", name)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            bulkhead.onWait(waitNanos -> waitTimer.record(waitNanos, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private void bindAnswerCache(SemanticAnswerCache answerCache) {
+        FunctionCounter.builder("tinyrag.cache.answer.requests", answerCache, SemanticAnswerCache::hitCount)
+                .description("语义答案缓存查询次数").tag("result", "hit").register(registry);
+        FunctionCounter.builder("tinyrag.cache.answer.requests", answerCache, SemanticAnswerCache::missCount)
+                .description("语义答案缓存查询次数").tag("result", "miss").register(registry);
+        Gauge.builder("tinyrag.cache.answer.size", answerCache, SemanticAnswerCache::size)
+                .description("语义答案缓存条目数").register(registry);
+    }
+
+    private void bindRerankCache(RerankCache rerankCache) {
+        FunctionCounter.builder("tinyrag.cache.rerank.requests", rerankCache, RerankCache::hitCount)
+                .description("Rerank 结果缓存查询次数").tag("result", "hit").register(registry);
+        FunctionCounter.builder("tinyrag.cache.rerank.requests", rerankCache, RerankCache::missCount)
+                .description("Rerank 结果缓存查询次数").tag("result", "miss").register(registry);
+        Gauge.builder("tinyrag.cache.rerank.size", rerankCache, RerankCache::size)
+                .description("Rerank 结果缓存条目数").register(registry);
+    }
+
+    private void bindRewriteCache(RewriteCache rewriteCache) {
+        FunctionCounter.builder("tinyrag.cache.rewrite.requests", rewriteCache, RewriteCache::hitCount)
+                .description("问题改写缓存查询次数").tag("result", "hit").register(registry);
+        FunctionCounter.builder("tinyrag.cache.rewrite.requests", rewriteCache, RewriteCache::missCount)
+                .description("问题改写缓存查询次数").tag("result", "miss").register(registry);
+        Gauge.builder("tinyrag.cache.rewrite.size", rewriteCache, RewriteCache::size)
+                .description("问题改写缓存条目数").register(registry);
+    }
+
+    private void bindEmbeddingModel(EmbeddingModel embeddingModel) {
+        if (embeddingModel instanceof BatchingEmbeddingModel batchingModel) {
+            bindEmbeddingBatch(batchingModel);
+            embeddingModel = batchingModel.getDelegate();
+        }
+        if (!(embeddingModel instanceof CachingEmbeddingModel cachingModel)) {
+            return;
+        }
+        FunctionCounter.builder("tinyrag.cache.embedding.requests", cachingModel, CachingEmbeddingModel::localHitCount)
+                .description("Embedding 缓存查询次数").tag("result", "local_hit").register(registry);
+        FunctionCounter.builder("tinyrag.cache.embedding.requests", cachingModel, CachingEmbeddingModel::persistentHitCount)
+                .description("Embedding 缓存查询次数").tag("result", "persistent_hit").register(registry);
+        FunctionCounter.builder("tinyrag.cache.embedding.requests", cachingModel, CachingEmbeddingModel::missCount)
+                .description("Embedding 缓存查询次数").tag("result", "miss").register(registry);
+    }
+
+    private void bindEmbeddingBatch(BatchingEmbeddingModel batchingModel) {
+        FunctionCounter.builder("tinyrag.embedding.batch.chunks", batchingModel, BatchingEmbeddingModel::embeddedChunkCount)
+                .description("入库批处理已向量化的 chunk 数，rate() 即吞吐").register(registry);
+        FunctionTimer.builder("tinyrag.embedding.batch", batchingModel,
+                        BatchingEmbeddingModel::batchCount, BatchingEmbeddingModel::batchNanosTotal, TimeUnit.NANOSECONDS)
+                .description("入库 Embedding 单批请求耗时（成功批次）").register(registry);
+        FunctionCounter.builder("tinyrag.embedding.batch.retries", batchingModel, BatchingEmbeddingModel::throttledRetryCount)
+                .description("入库 Embedding 批次重试次数").tag("reason", "throttled").register(registry);
+        FunctionCounter.builder("tinyrag.embedding.batch.retries", batchingModel, BatchingEmbeddingModel::serverErrorRetryCount)
+                .description("入库 Embedding 批次重试次数").tag("reason", "server_error").register(registry);
+        FunctionCounter.builder("tinyrag.embedding.batch.failures", batchingModel, BatchingEmbeddingModel::failedBatchCount)
+                .description("入库 Embedding 批次最终失败次数").register(registry);
+        Gauge.builder("tinyrag.embedding.batch.inflight", batchingModel, BatchingEmbeddingModel::inFlight)
+                .description("进行中的 Embedding 批次数").register(registry);
+        Gauge.builder("tinyrag.embedding.batch.inflight.limit", batchingModel, BatchingEmbeddingModel::inFlightLimit)
+                .description("Embedding 批次当前自适应并发上限").register(registry);
+    }
+
+    private static String modelTag(String configured, String fallback) {
+        if (StringUtils.hasText(configured)) {
+            return configured;
+        }
+        return StringUtils.hasText(fallback) ? fallback : DEFAULT_MODEL;
+    }
+
+    /**
+     * 登记可作为 kb 标签的知识库，达到 maxKbTags 后不再登记
+     */
+    public synchronized void registerKbs(Collection<String> kbs) {
+        for (String kb : kbs) {
+            if (knownKbs.size() >= maxKbTags) {
+                return;
+            }
+            if (StringUtils.hasText(kb)) {
+                knownKbs.add(kb.trim());
+            }
+        }
+    }
+
+    private String kbTag(String kb) {
+        if (!StringUtils.hasText(kb)) {
+            return ALL_KB;
+        }
+        String trimmed = kb.trim();
+        return knownKbs.contains(trimmed) ? trimmed : OTHER_KB;
+    }
+}
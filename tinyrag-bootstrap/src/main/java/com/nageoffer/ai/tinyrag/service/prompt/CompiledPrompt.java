@@ -0,0 +1,155 @@
+package com.nageoffer.ai.tinyrag.service.prompt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预编译的 prompt 模板：加载时把模板拆成字面量与变量槽位，渲染时按槽位顺序拼接
+ * <p>
+ * 语法与 Spring AI 默认的 StringTemplate 渲染器在本项目模板上的用法一致：{name} 为变量，\{ 与 \} 为字面量花括号，
+ * 其余花括号原样保留；与 StringTemplate 相同，独占一行的变量值为空时连同该行换行符一起省略。
+ * 变量按构造时给出的参数顺序编号，同一变量可出现多次，也可不出现
+ */
+final class CompiledPrompt {
+
+    private final String text;
+    /**
+     * 比 slots 多一个元素：literals[i] 之后接 slots[i] 对应的参数
+     */
+    private final String[] literals;
+    private final int[] slots;
+    /**
+     * 变量独占一行时为 true，值为空时跳过其后 literals[i + 1] 开头的换行符
+     */
+    private final boolean[] standalone;
+    private final int literalLength;
+    private final List<String> parameters;
+
+    private CompiledPrompt(String text, String[] literals, int[] slots, List<String> parameters) {
+        this.text = text;
+        this.literals = literals;
+        this.slots = slots;
+        this.parameters = parameters;
+        this.standalone = new boolean[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            boolean lineStart = i == 0 ? literals[0].isEmpty() || literals[0].endsWith("\n") : literals[i].endsWith("\n");
+            standalone[i] = lineStart && newlineLength(literals[i + 1]) > 0;
+        }
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param parameters 渲染时参数的顺序
+     * @throws IllegalArgumentException 模板中出现 parameters 之外的变量
+     */
+    static CompiledPrompt compile(String text, List<String> parameters) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Set<String> unknown = new LinkedHashSet<>();
+        StringBuilder literal = new StringBuilder(text.length());
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < length && (text.charAt(i + 1) == '{' || text.charAt(i + 1) == '}')) {
+                literal.append(text.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+            int end = c == '{' ? variableEnd(text, i + 1) : -1;
+            if (end < 0) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            String name = text.substring(i + 1, end);
+            int slot = parameters.indexOf(name);
+            if (slot < 0) {
+                unknown.add(name);
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(slot);
+            i = end + 1;
+        }
+        literals.add(literal.toString());
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("未知的模板变量 " + unknown + ", 可用变量 " + parameters);
+        }
+        return new CompiledPrompt(text, literals.toArray(String[]::new),
+                slots.stream().mapToInt(Integer::intValue).toArray(), List.copyOf(parameters));
+    }
+
+    /**
+     * 变量名为字母或下划线开头的标识符，返回右花括号位置，不是变量时返回 -1
+     */
+    private static int variableEnd(String text, int start) {
+        int i = start;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '}') {
+                return i > start ? i : -1;
+            }
+            boolean valid = Character.isLetter(c) || c == '_' || (i > start && Character.isDigit(c));
+            if (!valid) {
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @param values 与 parameters 顺序一致，null 按空串处理
+     */
+    String render(String... values) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        int capacity = literalLength;
+        for (int slot : slots) {
+            String value = values[slot];
+            capacity += value == null ? 0 : value.length();
+        }
+        StringBuilder builder = new StringBuilder(capacity);
+        int skip = 0;
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i], skip, literals[i].length());
+            String value = values[slots[i]];
+            boolean empty = value == null || value.isEmpty();
+            if (!empty) {
+                builder.append(value);
+            }
+            skip = empty && standalone[i] ? newlineLength(literals[i + 1]) : 0;
+        }
+        String last = literals[slots.length];
+        return builder.append(last, skip, last.length()).toString();
+    }
+
+    private static int newlineLength(String literal) {
+        if (literal.startsWith("\r\n")) {
+            return 2;
+        }
+        return literal.startsWith("\n") ? 1 : 0;
+    }
+
+    String render(Map<String, ?> variables) {
+        String[] values = new String[parameters.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = variables.get(parameters.get(i));
+            values[i] = value == null ? null : value.toString();
+        }
+        return render(values);
+    }
+
+    String text() {
+        return text;
+    }
+}
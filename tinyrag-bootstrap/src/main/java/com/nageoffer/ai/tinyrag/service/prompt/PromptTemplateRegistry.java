@@ -0,0 +1,233 @@
+package com.nageoffer.ai.tinyrag.service.prompt;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.template.TemplateRenderer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * prompt 模板注册表
+ * <p>
+ * 启动时一次性读取 classpath:/prompts/*.st 并预编译，各调用方通过类型化的 render 方法拿到渲染好的文本，
+ * 交给 ChatClient 时不带参数，请求路径上不再读取 Resource，也不再经过 StringTemplate 解析。
+ * 配置了 app.rag.prompts.watch-dir 时，该目录下的同名 .st 文件覆盖 classpath 版本，文件变更后自动重新编译；
+ * 加载失败（读取出错、文件为空、出现未知变量）时保留原模板，覆盖文件被删除时退回 classpath 版本
+ */
+@Slf4j
+@Component
+public class PromptTemplateRegistry implements DisposableBean {
+
+    public static final String ANSWER_SYSTEM = "answer-system";
+    public static final String ANSWER_USER = "answer-user";
+    public static final String REWRITE_SYSTEM = "rewrite-system";
+    public static final String REWRITE_USER = "rewrite-user";
+    public static final String TITLE_SYSTEM = "title-system";
+    public static final String TITLE_USER = "title-user";
+    public static final String SUGGESTIONS_SYSTEM = "suggestions-system";
+    public static final String SUGGESTIONS_USER = "suggestions-user";
+    public static final String MEMORY_SUMMARY_SYSTEM = "memory-summary-system";
+    public static final String MEMORY_SUMMARY_USER = "memory-summary-user";
+
+    private static final String CLASSPATH_DIR = "prompts/";
+    private static final String SUFFIX = ".st";
+    /**
+     * 收到变更事件后等待编辑器写完再读取，同一批事件中的同一文件只加载一次
+     */
+    private static final long RELOAD_DEBOUNCE_MILLIS = 200;
+
+    /**
+     * 模板名 → 渲染参数顺序，没有参数的模板为空列表
+     */
+    private static final Map<String, List<String>> PARAMETERS = Map.of(
+            ANSWER_SYSTEM, List.of(),
+            ANSWER_USER, List.of("query", "context"),
+            REWRITE_SYSTEM, List.of(),
+            REWRITE_USER, List.of("question"),
+            TITLE_SYSTEM, List.of(),
+            TITLE_USER, List.of("question"),
+            SUGGESTIONS_SYSTEM, List.of(),
+            SUGGESTIONS_USER, List.of("question", "retrievedDocuments", "toolDescriptions"),
+            MEMORY_SUMMARY_SYSTEM, List.of(),
+            MEMORY_SUMMARY_USER, List.of("summary", "conversation"));
+
+    private final Map<String, CompiledPrompt> templates = new ConcurrentHashMap<>();
+    private final Path watchDir;
+    private final WatchService watchService;
+
+    public PromptTemplateRegistry(RAGProperties ragProperties) {
+        String dir = ragProperties.getPrompts().getWatchDir();
+        this.watchDir = StringUtils.hasText(dir) ? Path.of(dir).toAbsolutePath().normalize() : null;
+        // 启动阶段模板缺失或有误直接失败，避免带着坏模板上线
+        for (String name : PARAMETERS.keySet()) {
+            templates.put(name, load(name));
+        }
+        this.watchService = watchDir != null ? startWatching() : null;
+        log.info("[Prompt] 已加载 {} 个模板, watchDir={}", templates.size(), watchDir);
+    }
+
+    public String answerSystem() {
+        return get(ANSWER_SYSTEM).render();
+    }
+
+    public String rewriteSystem() {
+        return get(REWRITE_SYSTEM).render();
+    }
+
+    public String rewriteUser(String question) {
+        return get(REWRITE_USER).render(question);
+    }
+
+    public String titleSystem() {
+        return get(TITLE_SYSTEM).render();
+    }
+
+    public String titleUser(String question) {
+        return get(TITLE_USER).render(question);
+    }
+
+    public String suggestionsSystem() {
+        return get(SUGGESTIONS_SYSTEM).render();
+    }
+
+    public String suggestionsUser(String question, String retrievedDocuments, String toolDescriptions) {
+        return get(SUGGESTIONS_USER).render(question, retrievedDocuments, toolDescriptions);
+    }
+
+    public String memorySummarySystem() {
+        return get(MEMORY_SUMMARY_SYSTEM).render();
+    }
+
+    public String memorySummaryUser(String summary, String conversation) {
+        return get(MEMORY_SUMMARY_USER).render(summary, conversation);
+    }
+
+    /**
+     * 模板原文，供需要 PromptTemplate 的 Spring AI 组件做占位符校验
+     */
+    public String template(String name) {
+        return get(name).text();
+    }
+
+    /**
+     * 模板当前版本的摘要，热更新后随之变化，供按模板缓存结果的调用方放入缓存键
+     */
+    public int version(String name) {
+        return get(name).text().hashCode();
+    }
+
+    /**
+     * 按注册表中当前版本渲染的 TemplateRenderer，忽略 PromptTemplate 自带的模板文本，热更新同样生效
+     */
+    public TemplateRenderer renderer(String name) {
+        get(name);
+        return (template, variables) -> get(name).render(variables);
+    }
+
+    private CompiledPrompt get(String name) {
+        CompiledPrompt prompt = templates.get(name);
+        if (prompt == null) {
+            throw new IllegalArgumentException("未注册的 prompt 模板: " + name);
+        }
+        return prompt;
+    }
+
+    private CompiledPrompt load(String name) {
+        try {
+            Path override = watchDir != null ? watchDir.resolve(name + SUFFIX) : null;
+            String text = override != null && Files.isRegularFile(override)
+                    ? Files.readString(override, StandardCharsets.UTF_8)
+                    : new ClassPathResource(CLASSPATH_DIR + name + SUFFIX).getContentAsString(StandardCharsets.UTF_8);
+            if (text.isBlank()) {
+                throw new IllegalStateException("prompt 模板 " + name + " 为空");
+            }
+            return CompiledPrompt.compile(text, PARAMETERS.get(name));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("prompt 模板 " + name + " 读取失败", ex);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("prompt 模板 " + name + " 编译失败: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void reload(String name) {
+        try {
+            templates.put(name, load(name));
+            log.info("[Prompt] 模板 {} 已重新加载", name);
+        } catch (RuntimeException ex) {
+            log.warn("[Prompt] 模板 {} 重新加载失败, 继续使用原模板: {}", name, ex.getMessage());
+        }
+    }
+
+    private WatchService startWatching() {
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            watchDir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            Thread watcher = new Thread(() -> watch(service), "rag-prompt-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            return service;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("prompt 模板目录 " + watchDir + " 监听失败", ex);
+        }
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Thread.sleep(RELOAD_DEBOUNCE_MILLIS);
+                Set<String> changed = new LinkedHashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed.addAll(PARAMETERS.keySet());
+                        continue;
+                    }
+                    String fileName = event.context().toString();
+                    if (fileName.endsWith(SUFFIX)) {
+                        String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+                        if (PARAMETERS.containsKey(name)) {
+                            changed.add(name);
+                        }
+                    }
+                }
+                changed.forEach(this::reload);
+                if (!key.reset()) {
+                    log.warn("[Prompt] 模板目录 {} 不再可用, 停止监听", watchDir);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // 关闭应用
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
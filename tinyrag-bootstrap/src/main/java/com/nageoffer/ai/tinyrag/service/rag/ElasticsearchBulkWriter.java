@@ -0,0 +1,302 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * ES _bulk 写入器
+ * <p>
+ * 一次写入的条目按 maxActions 与估算的请求体大小拆分为多个 _bulk 请求，多个请求在 esBulkExecutor 上并发发送；
+ * 请求体由 Gson 直接序列化到 HTTP 输出流，不在内存中拼出完整的 NDJSON 字符串。
+ * 被 ES 拒绝的条目（429 / 503，通常是写入队列已满）与整个请求的 429 / 5xx / 连接异常按指数退避重试，
+ * 其余失败（如 mapping 错误）不重试，最终失败的 id 返回给调用方
+ */
+@Slf4j
+class ElasticsearchBulkWriter {
+
+    /**
+     * 只取回判断成败所需的字段，避免 ES 回传每个条目的完整写入结果
+     */
+    private static final String BULK_URI = "/_bulk?filter_path=errors,items.*._id,items.*.status,items.*.error.type,items.*.error.reason";
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson;charset=UTF-8");
+    private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    private final RestClient restClient;
+    private final Gson gson;
+    private final String indexName;
+    private final RAGProperties.EsBulk properties;
+    private final RAGMetrics ragMetrics;
+    private final TaskExecutor executor;
+
+    ElasticsearchBulkWriter(RestClient restClient, Gson gson, String indexName, RAGProperties.EsBulk properties,
+                            RAGMetrics ragMetrics, TaskExecutor executor) {
+        this.restClient = restClient;
+        this.gson = gson;
+        this.indexName = indexName;
+        this.properties = properties;
+        this.ragMetrics = ragMetrics;
+        this.executor = executor;
+    }
+
+    /**
+     * @return 最终写入失败的文档 id
+     */
+    Set<String> index(List<Document> documents) {
+        List<BulkOperation> operations = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            operations.add(new BulkOperation(document.getId(), document));
+        }
+        return execute("index", operations);
+    }
+
+    /**
+     * @return 最终删除失败的文档 id，文档不存在不算失败
+     */
+    Set<String> delete(Collection<String> ids) {
+        List<BulkOperation> operations = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            operations.add(new BulkOperation(id, null));
+        }
+        return execute("delete", operations);
+    }
+
+    /**
+     * 按条数与估算大小顺序拆分，单个超大条目独占一个请求
+     */
+    List<List<BulkOperation>> partition(List<BulkOperation> operations) {
+        long maxBytes = properties.getMaxRequestSize().toBytes();
+        List<List<BulkOperation>> parts = new ArrayList<>();
+        List<BulkOperation> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (BulkOperation operation : operations) {
+            long bytes = operation.estimatedBytes();
+            if (!current.isEmpty() && (current.size() >= properties.getMaxActions() || currentBytes + bytes > maxBytes)) {
+                parts.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(operation);
+            currentBytes += bytes;
+        }
+        if (!current.isEmpty()) {
+            parts.add(current);
+        }
+        return parts;
+    }
+
+    /**
+     * 把一个 _bulk 请求体（NDJSON，index 为 action + source 两行，delete 只有 action 一行）写入输出流
+     */
+    void writeBody(List<BulkOperation> operations, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 16 * 1024);
+        for (BulkOperation operation : operations) {
+            String action = operation.document() == null ? "delete" : "index";
+            gson.toJson(Map.of(action, Map.of("_index", indexName, "_id", operation.id())), writer);
+            writer.write('\n');
+            if (operation.document() != null) {
+                gson.toJson(source(operation.document()), writer);
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private Set<String> execute(String op, List<BulkOperation> operations) {
+        if (operations.isEmpty()) {
+            return Set.of();
+        }
+        List<List<BulkOperation>> parts = partition(operations);
+        if (parts.size() == 1) {
+            return sendWithRetry(op, parts.get(0));
+        }
+
+        List<CompletableFuture<Set<String>>> futures = new ArrayList<>(parts.size());
+        for (List<BulkOperation> part : parts) {
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> sendWithRetry(op, part), executor));
+            } catch (RejectedExecutionException ex) {
+                // 线程池已满时在调用线程上发送，相当于对调用方施加背压
+                futures.add(CompletableFuture.completedFuture(sendWithRetry(op, part)));
+            }
+        }
+        Set<String> failed = new HashSet<>();
+        for (CompletableFuture<Set<String>> future : futures) {
+            failed.addAll(future.join());
+        }
+        return failed;
+    }
+
+    private Set<String> sendWithRetry(String op, List<BulkOperation> part) {
+        Set<String> failed = new HashSet<>();
+        List<BulkOperation> pending = part;
+        for (int attempt = 0; ; attempt++) {
+            long startTime = System.nanoTime();
+            BulkResult result;
+            try {
+                result = send(pending);
+            } catch (Exception ex) {
+                if (attempt < properties.getMaxRetries() && isRetryable(ex)) {
+                    ragMetrics.recordEsBulkRejected("request", pending.size());
+                    backoff(op, attempt, pending.size(), ex.getMessage());
+                    continue;
+                }
+                ragMetrics.recordEsBulkErrors("request", pending.size());
+                log.warn("[ES] _bulk {} 请求失败, {} 个条目: {}", op, pending.size(), ex.getMessage());
+                pending.forEach(operation -> failed.add(operation.id()));
+                return failed;
+            }
+
+            int succeeded = pending.size() - result.failedIds().size() - result.retryableIds().size();
+            ragMetrics.recordEsBulk(op, succeeded, System.nanoTime() - startTime);
+            if (!result.failedIds().isEmpty()) {
+                ragMetrics.recordEsBulkErrors("item", result.failedIds().size());
+                failed.addAll(result.failedIds());
+            }
+            if (result.retryableIds().isEmpty()) {
+                return failed;
+            }
+            if (attempt >= properties.getMaxRetries()) {
+                ragMetrics.recordEsBulkErrors("item", result.retryableIds().size());
+                log.warn("[ES] _bulk {} 重试 {} 次后仍有 {} 个条目被拒绝", op, attempt, result.retryableIds().size());
+                failed.addAll(result.retryableIds());
+                return failed;
+            }
+            ragMetrics.recordEsBulkRejected("item", result.retryableIds().size());
+            List<BulkOperation> retry = new ArrayList<>(result.retryableIds().size());
+            for (BulkOperation operation : pending) {
+                if (result.retryableIds().contains(operation.id())) {
+                    retry.add(operation);
+                }
+            }
+            pending = retry;
+            backoff(op, attempt, pending.size(), "条目被拒绝");
+        }
+    }
+
+    private BulkResult send(List<BulkOperation> operations) {
+        String response = restClient.post()
+                .uri(BULK_URI)
+                .contentType(NDJSON)
+                .body(output -> writeBody(operations, output))
+                .retrieve()
+                .body(String.class);
+        return parseResponse(response);
+    }
+
+    @SuppressWarnings("unchecked")
+    BulkResult parseResponse(String response) {
+        Map<String, Object> result = gson.fromJson(response, MAP_TYPE);
+        if (result == null || !Boolean.TRUE.equals(result.get("errors"))) {
+            return new BulkResult(Set.of(), Set.of());
+        }
+        Set<String> failed = new HashSet<>();
+        Set<String> retryable = new HashSet<>();
+        List<Map<String, Object>> items = (List<Map<String, Object>>) result.get("items");
+        if (items == null) {
+            return new BulkResult(failed, retryable);
+        }
+        for (Map<String, Object> item : items) {
+            Map<String, Object> action = (Map<String, Object>) item.values().iterator().next();
+            Map<String, Object> error = (Map<String, Object>) action.get("error");
+            if (error == null) {
+                continue;
+            }
+            String id = String.valueOf(action.get("_id"));
+            int status = action.get("status") instanceof Number n ? n.intValue() : 0;
+            if (status == 429 || status == 503) {
+                retryable.add(id);
+            } else {
+                failed.add(id);
+                log.warn("[ES] 文档写入失败: id={}, type={}, reason={}", id, error.get("type"), error.get("reason"));
+            }
+        }
+        return new BulkResult(failed, retryable);
+    }
+
+    private Map<String, Object> source(Document document) {
+        Map<String, Object> metadata = document.getMetadata();
+        Map<String, Object> source = new LinkedHashMap<>();
+        source.put("content", document.getText());
+        source.put("source", metadata.getOrDefault("source", ""));
+        source.put("kb", metadata.getOrDefault("kb", ""));
+        source.put("file_type", metadata.getOrDefault("file_type", ""));
+        source.put("chunk_index", metadata.getOrDefault("chunk_index", 0));
+        source.put("doc_id", document.getId());
+        return source;
+    }
+
+    private static boolean isRetryable(Exception ex) {
+        if (ex instanceof RestClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        return ex instanceof ResourceAccessException;
+    }
+
+    private void backoff(String op, int attempt, int pendingCount, String reason) {
+        long initial = Math.max(1, properties.getInitialBackoff().toMillis());
+        long max = Math.max(initial, properties.getMaxBackoff().toMillis());
+        long backoff = Math.min(max, initial << Math.min(attempt, 20));
+        long sleepMillis = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        log.warn("[ES] _bulk {} 第 {} 次重试 {} 个条目, {}ms 后重试: {}", op, attempt + 1, pendingCount, sleepMillis, reason);
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ES 批量写入重试等待时被中断", ex);
+        }
+    }
+
+    /**
+     * @param document 为 null 时表示删除
+     */
+    record BulkOperation(String id, Document document) {
+
+        /**
+         * 请求体大小的保守估算：中文按 UTF-8 每字 3 字节，另加 action 行与元数据字段的开销
+         */
+        long estimatedBytes() {
+            if (document == null) {
+                return 96L + id.length();
+            }
+            String text = document.getText();
+            return 384L + id.length() * 2L + (text == null ? 0 : text.length() * 3L);
+        }
+    }
+
+    /**
+     * @param failedIds    不可重试的失败条目
+     * @param retryableIds 被拒绝、可重试的条目
+     */
+    record BulkResult(Set<String> failedIds, Set<String> retryableIds) {
+    }
+}
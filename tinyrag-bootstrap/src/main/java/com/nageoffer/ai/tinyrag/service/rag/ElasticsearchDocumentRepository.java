@@ -3,18 +3,32 @@ package com.nageoffer.ai.tinyrag.service.rag;
 import cn.hutool.core.collection.CollUtil;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.http.PooledHttpTransport;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.jspecify.annotations.NonNull;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
@@ -25,22 +39,38 @@ import org.springframework.web.client.RestClient;
 public class ElasticsearchDocumentRepository {
 
     private static final String INDEX_NAME = "tinyrag_chunks";
+    /**
+     * 检索只取回构造 Document 所需的字段，filter_path 去掉 took、_shards、_index 等响应字段
+     */
+    private static final String SEARCH_URI = "/{index}/_search?filter_path=hits.hits._id,hits.hits._score,hits.hits._source";
+    private static final List<String> SOURCE_FIELDS = List.of("content", "source", "kb", "file_type", "chunk_index", "doc_id");
     private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {
     }.getType();
 
     private final RAGProperties ragProperties;
+    private final RAGMetrics ragMetrics;
+    private final TaskExecutor bulkExecutor;
+    private final PooledHttpTransport httpTransport;
     private final Gson gson = new Gson();
     private RestClient restClient;
+    private ElasticsearchBulkWriter bulkWriter;
 
-    public ElasticsearchDocumentRepository(RAGProperties ragProperties) {
+    public ElasticsearchDocumentRepository(RAGProperties ragProperties, RAGMetrics ragMetrics,
+                                           @Qualifier("esBulkExecutor") TaskExecutor bulkExecutor,
+                                           PooledHttpTransport httpTransport) {
         this.ragProperties = ragProperties;
+        this.ragMetrics = ragMetrics;
+        this.bulkExecutor = bulkExecutor;
+        this.httpTransport = httpTransport;
     }
 
     @PostConstruct
     public void init() {
-        this.restClient = RestClient.builder()
+        this.restClient = httpTransport.restClientBuilder(ragProperties.getHttpClient().getEsResponseTimeout())
                 .baseUrl(ragProperties.getEsUrl())
                 .build();
+        this.bulkWriter = new ElasticsearchBulkWriter(restClient, gson, INDEX_NAME, ragProperties.getEsBulk(),
+                ragMetrics, bulkExecutor);
         initIndex();
     }
 
@@ -85,116 +115,224 @@ public class ElasticsearchDocumentRepository {
         return Map.of("mappings", Map.of("properties", properties));
     }
 
-    public void indexDocuments(List<Document> documents) {
+    /**
+     * 批量写入（按 id 覆盖），写入失败只记录日志与指标，不影响向量库写入
+     *
+     * @return 写入失败的文档 id，整个请求失败时为该请求内的全部 id
+     */
+    public Set<String> indexDocuments(List<Document> documents) {
         if (CollUtil.isEmpty(documents)) {
-            return;
+            return Set.of();
         }
-        try {
-            StringBuilder ndjson = new StringBuilder();
-            for (Document doc : documents) {
-                Map<String, Object> action = Map.of("index", Map.of("_index", INDEX_NAME, "_id", doc.getId()));
-                ndjson.append(gson.toJson(action)).append("\n");
-
-                Map<String, Object> source = new HashMap<>();
-                source.put("content", doc.getText());
-                source.put("source", doc.getMetadata().getOrDefault("source", ""));
-                source.put("kb", doc.getMetadata().getOrDefault("kb", ""));
-                source.put("file_type", doc.getMetadata().getOrDefault("file_type", ""));
-                source.put("chunk_index", doc.getMetadata().getOrDefault("chunk_index", 0));
-                source.put("doc_id", doc.getId());
-                ndjson.append(gson.toJson(source)).append("\n");
-            }
+        Set<String> failed = bulkWriter.index(documents);
+        log.info("[ES] 批量写入完成, 共 {} 个文档, 失败 {} 个", documents.size(), failed.size());
+        return failed;
+    }
+
+    /**
+     * 按 id 批量删除，文档不存在不算失败
+     *
+     * @return 删除失败的文档 id，整个请求失败时为该请求内的全部 id
+     */
+    public Set<String> deleteDocuments(Collection<String> ids) {
+        if (CollUtil.isEmpty(ids)) {
+            return Set.of();
+        }
+        Set<String> failed = bulkWriter.delete(ids);
+        log.info("[ES] 批量删除完成, 共 {} 个文档, 失败 {} 个", ids.size(), failed.size());
+        return failed;
+    }
 
+    /**
+     * 删除某个知识库下某个来源文件除 keepIds 之外的全部 chunk
+     *
+     * @return 删除的文档数，请求失败时返回 -1
+     */
+    public long deleteBySource(String kb, String source, Collection<String> keepIds) {
+        try {
+            Map<String, Object> filter = Map.of(
+                    "filter", List.of(
+                            Map.of("term", Map.of("kb", kb)),
+                            Map.of("term", Map.of("source", source))),
+                    "must_not", List.of(Map.of("ids", Map.of("values", keepIds))));
             String response = restClient.post()
-                    .uri("/_bulk")
-                    .contentType(MediaType.parseMediaType("application/x-ndjson;charset=UTF-8"))
-                    .body(ndjson.toString())
+                    .uri("/{index}/_delete_by_query?conflicts=proceed", INDEX_NAME)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(gson.toJson(Map.of("query", Map.of("bool", filter))))
                     .retrieve()
                     .body(String.class);
-
             Map<String, Object> result = gson.fromJson(response, MAP_TYPE);
-            if (Boolean.TRUE.equals(result.get("errors"))) {
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> items = (List<Map<String, Object>>) result.get("items");
-                if (items != null) {
-                    for (Map<String, Object> item : items) {
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> action = (Map<String, Object>) item.values().iterator().next();
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> error = (Map<String, Object>) action.get("error");
-                        if (error != null) {
-                            log.warn("[ES] 文档写入失败: id={}, type={}, reason={}",
-                                    action.get("_id"), error.get("type"), error.get("reason"));
-                        }
-                    }
-                }
-            }
-            log.info("[ES] 批量写入完成, 共 {} 个文档", documents.size());
+            long deleted = result.get("deleted") instanceof Number n ? n.longValue() : 0L;
+            log.info("[ES] 按来源删除完成: kb={}, source={}, deleted={}", kb, source, deleted);
+            return deleted;
         } catch (Exception e) {
-            log.warn("[ES] 文档写入失败: {}", e.getMessage());
+            log.warn("[ES] 按来源删除失败: kb={}, source={}, {}", kb, source, e.getMessage());
+            return -1;
         }
     }
 
-    @SuppressWarnings("unchecked")
     public List<Document> search(String queryText, String kb, int topK) {
         try {
-            Map<String, Object> matchQuery = Map.of("match", Map.of("content", queryText));
+            List<Document> results = restClient.post()
+                    .uri(SEARCH_URI, INDEX_NAME)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(buildSearchRequest(queryText, kb, topK))
+                    .exchange((request, response) -> {
+                        if (response.getStatusCode().isError()) {
+                            throw new IllegalStateException("ES 返回 " + response.getStatusCode().value());
+                        }
+                        try (InputStream body = response.getBody()) {
+                            return parseSearchResponse(body);
+                        }
+                    });
 
-            Map<String, Object> query;
-            if (StringUtils.hasText(kb)) {
-                Map<String, Object> termFilter = Map.of("term", Map.of("kb", kb));
-                query = Map.of("bool", Map.of("must", matchQuery, "filter", termFilter));
-            } else {
-                query = matchQuery;
-            }
+            log.info("[ES] BM25 检索完成, query='{}', kb='{}', 返回 {} 个文档", queryText, kb, results.size());
+            return results;
+        } catch (Exception e) {
+            log.warn("[ES] BM25 检索失败: {}", e.getMessage());
+            return List.of();
+        }
+    }
 
-            Map<String, Object> body = Map.of("query", query, "size", topK);
+    /**
+     * 将 _bulk 写入请求体（NDJSON，每个文档一行 action 一行 source）序列化到输出流
+     */
+    void writeBulkRequest(List<Document> documents, OutputStream output) throws IOException {
+        List<ElasticsearchBulkWriter.BulkOperation> operations = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            operations.add(new ElasticsearchBulkWriter.BulkOperation(document.getId(), document));
+        }
+        bulkWriter.writeBody(operations, output);
+    }
 
-            String response = restClient.post()
-                    .uri("/{index}/_search", INDEX_NAME)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(gson.toJson(body))
-                    .retrieve()
-                    .body(String.class);
+    /**
+     * 构造 BM25 检索请求体，指定 kb 时加 term 过滤
+     */
+    String buildSearchRequest(String queryText, String kb, int topK) {
+        Map<String, Object> matchQuery = Map.of("match", Map.of("content", queryText));
 
-            Map<String, Object> result = gson.fromJson(response, MAP_TYPE);
-            assert result != null;
-            Map<String, Object> hits = (Map<String, Object>) result.get("hits");
-            List<Map<String, Object>> hitList = (List<Map<String, Object>>) hits.get("hits");
+        Map<String, Object> query;
+        if (StringUtils.hasText(kb)) {
+            Map<String, Object> termFilter = Map.of("term", Map.of("kb", kb));
+            query = Map.of("bool", Map.of("must", matchQuery, "filter", termFilter));
+        } else {
+            query = matchQuery;
+        }
 
-            List<Document> results = new ArrayList<>();
-            if (hitList == null) {
-                return results;
-            }
+        Map<String, Object> body = Map.of("query", query, "size", topK, "_source", SOURCE_FIELDS);
+        return gson.toJson(body);
+    }
 
-            for (Map<String, Object> hit : hitList) {
-                Map<String, Object> source = (Map<String, Object>) hit.get("_source");
-                if (source == null) {
-                    continue;
+    /**
+     * 流式解析检索响应中的 hits 为 Document，_score 作为文档分数
+     * <p>
+     * 直接从响应流逐个读取字段构造 Document，不经过完整响应字符串与嵌套 Map，未知字段直接跳过
+     */
+    List<Document> parseSearchResponse(InputStream response) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(response, StandardCharsets.UTF_8));
+        List<Document> results = new ArrayList<>();
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return results;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"hits".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("hits".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Document document = readHit(reader);
+                        if (document != null) {
+                            results.add(document);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
                 }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return results;
+    }
+
+    /**
+     * 读取单个 hit，没有 _source 时返回 null
+     */
+    private Document readHit(JsonReader reader) throws IOException {
+        String id = null;
+        String docId = null;
+        String content = "";
+        double score = 0.0;
+        Map<String, Object> metadata = null;
 
-                Map<String, Object> metadata = new HashMap<>();
-                metadata.put("source", source.getOrDefault("source", ""));
-                metadata.put("kb", source.getOrDefault("kb", ""));
-                metadata.put("file_type", source.getOrDefault("file_type", ""));
-                metadata.put("chunk_index", source.getOrDefault("chunk_index", 0));
-
-                String docId = (String) source.getOrDefault("doc_id", hit.get("_id"));
-                double score = hit.get("_score") instanceof Number n ? n.doubleValue() : 0.0;
-
-                results.add(Document.builder()
-                        .id(docId)
-                        .text((String) source.getOrDefault("content", ""))
-                        .metadata(metadata)
-                        .score(score)
-                        .build());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "_id" -> id = nextStringOrNull(reader);
+                case "_score" -> {
+                    if (reader.peek() == JsonToken.NUMBER) {
+                        score = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                case "_source" -> {
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    metadata = new HashMap<>(8);
+                    metadata.put("source", "");
+                    metadata.put("kb", "");
+                    metadata.put("file_type", "");
+                    metadata.put("chunk_index", 0);
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        switch (field) {
+                            case "content" -> content = Objects.requireNonNullElse(nextStringOrNull(reader), "");
+                            case "doc_id" -> docId = nextStringOrNull(reader);
+                            case "source", "kb", "file_type" ->
+                                    metadata.put(field, Objects.requireNonNullElse(nextStringOrNull(reader), ""));
+                            case "chunk_index" -> {
+                                if (reader.peek() == JsonToken.NUMBER) {
+                                    metadata.put(field, reader.nextInt());
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            log.info("[ES] BM25 检索完成, query='{}', kb='{}', 返回 {} 个文档", queryText, kb, results.size());
-            return results;
-        } catch (Exception e) {
-            log.warn("[ES] BM25 检索失败: {}", e.getMessage());
-            return List.of();
+        if (metadata == null) {
+            return null;
+        }
+        return Document.builder()
+                .id(docId != null ? docId : id)
+                .text(content)
+                .metadata(metadata)
+                .score(score)
+                .build();
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
         }
+        return reader.nextString();
     }
 }
@@ -1,17 +1,24 @@
 package com.nageoffer.ai.tinyrag.service.rag;
 
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.config.RAGProperties.FusionMethod;
+import com.nageoffer.ai.tinyrag.config.RAGProperties.FusionProfile;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Stage;
+import com.nageoffer.ai.tinyrag.service.rag.QueryRouteClassifier.Route;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Status;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jspecify.annotations.NonNull;
 import org.springframework.ai.document.Document;
@@ -20,82 +27,335 @@ import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
 
 @Slf4j
-@RequiredArgsConstructor
 public class HybridDocumentRetriever implements DocumentRetriever {
 
+    /**
+     * 融合后文档的 metadata 键，值为融合分数（算法见 app.rag.fusion），只有两路都有结果、实际发生融合时才存在
+     */
+    public static final String FUSED_SCORE = "fused_score";
+
+    /**
+     * 融合后文档的 metadata 键，值为产生 {@link #FUSED_SCORE} 的融合算法名，不同算法的分数不可直接比较
+     */
+    public static final String FUSION_METHOD = "fusion_method";
+
+    /**
+     * Query context 中推测检索的键，值为改写开始时用原问题发起的 {@link PendingRetrieval}
+     */
+    static final String SPECULATIVE_RETRIEVAL = "tinyrag_speculative_retrieval";
+
+    /**
+     * 推测检索两次结果按排名合并，不依赖两次检索的分数尺度
+     */
+    private static final FusionProfile SPECULATIVE_MERGE = new FusionProfile(FusionMethod.RRF, 1.0, 1.0);
+
     private final VectorStoreDocumentRetriever vectorRetriever;
     private final KeywordDocumentRetriever keywordRetriever;
     private final RAGProperties ragProperties;
+    private final RetrievalBulkhead vectorBulkhead;
+    private final RetrievalBulkhead keywordBulkhead;
+    private final RAGMetrics ragMetrics;
+    private final QueryRouteClassifier routeClassifier;
+
+    public HybridDocumentRetriever(VectorStoreDocumentRetriever vectorRetriever,
+                                   KeywordDocumentRetriever keywordRetriever,
+                                   RAGProperties ragProperties,
+                                   RetrievalBulkhead vectorBulkhead,
+                                   RetrievalBulkhead keywordBulkhead,
+                                   RAGMetrics ragMetrics) {
+        this.vectorRetriever = vectorRetriever;
+        this.keywordRetriever = keywordRetriever;
+        this.ragProperties = ragProperties;
+        this.vectorBulkhead = vectorBulkhead;
+        this.keywordBulkhead = keywordBulkhead;
+        this.ragMetrics = ragMetrics;
+        this.routeClassifier = new QueryRouteClassifier(ragProperties.getRetrievalRouting());
+    }
 
     @Override
     public @NonNull List<Document> retrieve(@NonNull Query query) {
-        CompletableFuture<List<Document>> vectorFuture = CompletableFuture.supplyAsync(() -> vectorRetriever.retrieve(query));
-        CompletableFuture<List<Document>> keywordFuture = CompletableFuture.supplyAsync(() -> keywordRetriever.retrieve(query));
+        if (query.context().get(SPECULATIVE_RETRIEVAL) instanceof PendingRetrieval speculative) {
+            return resolveSpeculative(speculative, query);
+        }
+        return await(start(query));
+    }
 
-        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    /**
+     * 按路由向隔离舱提交检索后立即返回，不等待结果；推测检索借此在问题改写的同时先用原问题检索
+     */
+    PendingRetrieval start(Query query) {
+        RequestDeadline deadline = RequestDeadline.from(query, ragProperties);
+        String kb = KeywordDocumentRetriever.extractKb(query);
+        Route route = routeClassifier.classify(query.text());
+        ragMetrics.recordRetrieveRoute(kb, route.tag());
 
-        List<Document> vectorDocs = getQuietly(vectorFuture, deadline, "向量");
-        List<Document> keywordDocs = getQuietly(keywordFuture, deadline, "关键词");
+        long startNanos = System.nanoTime();
+        // 对冲模式下两路检索完成时各自投递一次，用于等待先完成的一路
+        BlockingQueue<Stage> completions = route == Route.HYBRID && ragProperties.getRetrievalRouting().isHedged()
+                ? new ArrayBlockingQueue<>(2) : null;
+        AtomicBoolean vectorRecorded = new AtomicBoolean();
+        AtomicBoolean keywordRecorded = new AtomicBoolean();
+
+        Future<List<Document>> vectorFuture = route != Route.KEYWORD ? submitQuietly(vectorBulkhead,
+                timed(deadline, Stage.VECTOR, kb, startNanos, () -> vectorRetriever.retrieve(query), completions,
+                        vectorRecorded), "向量") : null;
+        Future<List<Document>> keywordFuture = route != Route.VECTOR ? submitQuietly(keywordBulkhead,
+                timed(deadline, Stage.KEYWORD, kb, startNanos, () -> keywordRetriever.retrieve(query), completions,
+                        keywordRecorded), "关键词") : null;
+        return new PendingRetrieval(query, deadline, kb, route, startNanos,
+                startNanos + deadline.budgetNanos(Stage.VECTOR), startNanos + deadline.budgetNanos(Stage.KEYWORD),
+                completions, vectorFuture, keywordFuture, vectorRecorded, keywordRecorded);
+    }
+
+    /**
+     * 取消尚未完成的检索，用于改写阶段出错、推测检索结果不再需要的情况；取消后才完成的检索不再记录
+     */
+    void cancel(PendingRetrieval pending) {
+        pending.vectorRecorded().set(true);
+        pending.keywordRecorded().set(true);
+        if (pending.vectorFuture() != null) {
+            vectorBulkhead.cancel(pending.vectorFuture());
+        }
+        if (pending.keywordFuture() != null) {
+            keywordBulkhead.cancel(pending.keywordFuture());
+        }
+    }
+
+    /**
+     * 推测检索：改写后的问题与原问题的 token 重合度不低于 minTokenOverlap 时直接使用原问题的检索结果；
+     * 否则再用改写后的问题检索一次，两份候选按 RRF 合并（改写结果在前，同分时优先）
+     */
+    private List<Document> resolveSpeculative(PendingRetrieval speculative, Query query) {
+        String kb = speculative.kb();
+        double overlap = TokenOverlap.jaccard(speculative.query().text(), query.text());
+        if (overlap >= ragProperties.getSpeculativeRetrieval().getMinTokenOverlap()) {
+            ragMetrics.recordSpeculativeRetrieval(kb, "reused", overlap);
+            log.info("[Hybrid] 推测检索: 改写前后重合度 {}, 直接使用原问题检索结果", String.format("%.2f", overlap));
+            return await(speculative);
+        }
+
+        List<Document> rewrittenDocs = await(start(query));
+        List<Document> speculativeDocs = await(speculative);
+        ragMetrics.recordSpeculativeRetrieval(kb, "merged", overlap);
+        if (speculativeDocs.isEmpty() || rewrittenDocs.isEmpty()) {
+            return speculativeDocs.isEmpty() ? rewrittenDocs : speculativeDocs;
+        }
+        List<Document> merged = ScoreFusion.fuse(rewrittenDocs, speculativeDocs, SPECULATIVE_MERGE,
+                ragProperties.getRrfK(), ragProperties.getRetrieveTopK());
+        log.info("[Hybrid] 推测检索: 改写前后重合度 {}, 合并两次检索结果: 改写={}, 原问题={}, 合并后={}",
+                String.format("%.2f", overlap), rewrittenDocs.size(), speculativeDocs.size(), merged.size());
+        return merged;
+    }
+
+    private List<Document> await(PendingRetrieval pending) {
+        RequestDeadline deadline = pending.deadline();
+        String kb = pending.kb();
+        Route route = pending.route();
+        long startNanos = pending.startNanos();
+        long vectorDeadline = pending.vectorDeadline();
+        long keywordDeadline = pending.keywordDeadline();
+        boolean runVector = route != Route.KEYWORD;
+        boolean runKeyword = route != Route.VECTOR;
+        BlockingQueue<Stage> completions = pending.completions();
+        Future<List<Document>> vectorFuture = pending.vectorFuture();
+        Future<List<Document>> keywordFuture = pending.keywordFuture();
+        AtomicBoolean vectorRecorded = pending.vectorRecorded();
+        AtomicBoolean keywordRecorded = pending.keywordRecorded();
+
+        List<Document> vectorDocs = null;
+        List<Document> keywordDocs = null;
+        if (completions != null && vectorFuture != null && keywordFuture != null) {
+            Stage first = awaitFirst(completions, Math.min(vectorDeadline, keywordDeadline));
+            if (first == Stage.VECTOR) {
+                vectorDocs = getQuietly(vectorBulkhead, vectorFuture, vectorRecorded, deadline, Stage.VECTOR, kb,
+                        startNanos, vectorDeadline, "向量");
+                if (goodEnough(vectorDocs, ragProperties.getRetrievalRouting().getHedgeMinVectorScore())
+                        && !keywordFuture.isDone()) {
+                    return finishHedged(keywordBulkhead, keywordFuture, keywordRecorded, deadline, Stage.KEYWORD, kb,
+                            startNanos, Stage.VECTOR, vectorDocs);
+                }
+            } else if (first == Stage.KEYWORD) {
+                keywordDocs = getQuietly(keywordBulkhead, keywordFuture, keywordRecorded, deadline, Stage.KEYWORD, kb,
+                        startNanos, keywordDeadline, "关键词");
+                if (goodEnough(keywordDocs, ragProperties.getRetrievalRouting().getHedgeMinKeywordScore())
+                        && !vectorFuture.isDone()) {
+                    return finishHedged(vectorBulkhead, vectorFuture, vectorRecorded, deadline, Stage.VECTOR, kb,
+                            startNanos, Stage.KEYWORD, keywordDocs);
+                }
+            }
+            ragMetrics.recordRetrieveHedge(kb, first == null ? "none" : source(first), "waited");
+        }
+
+        if (vectorDocs == null) {
+            vectorDocs = runVector
+                    ? getQuietly(vectorBulkhead, vectorFuture, vectorRecorded, deadline, Stage.VECTOR, kb, startNanos,
+                    vectorDeadline, "向量")
+                    : routedAway(deadline, Stage.VECTOR);
+        }
+        if (keywordDocs == null) {
+            keywordDocs = runKeyword
+                    ? getQuietly(keywordBulkhead, keywordFuture, keywordRecorded, deadline, Stage.KEYWORD, kb, startNanos,
+                    keywordDeadline, "关键词")
+                    : routedAway(deadline, Stage.KEYWORD);
+        }
 
         if (vectorDocs.isEmpty() && keywordDocs.isEmpty()) {
             return List.of();
         }
         if (keywordDocs.isEmpty()) {
-            log.info("[Hybrid] 仅向量检索返回 {} 个文档", vectorDocs.size());
+            log.info("[Hybrid] 仅向量检索返回 {} 个文档, route={}", vectorDocs.size(), route.tag());
             return vectorDocs;
         }
         if (vectorDocs.isEmpty()) {
-            log.info("[Hybrid] 仅关键词检索返回 {} 个文档", keywordDocs.size());
+            log.info("[Hybrid] 仅关键词检索返回 {} 个文档, route={}", keywordDocs.size(), route.tag());
             return keywordDocs;
         }
 
-        List<Document> fused = rrfFusion(vectorDocs, keywordDocs);
-        log.info("[Hybrid] RRF 融合完成: 向量={}, 关键词={}, 融合后={}",
-                vectorDocs.size(), keywordDocs.size(), fused.size());
+        FusionProfile profile = ragProperties.getFusion().profile(kb);
+        List<Document> fused = fuse(profile, vectorDocs, keywordDocs);
+        ragMetrics.recordFusion(kb, profile.method(), fused.size());
+        log.info("[Hybrid] {} 融合完成: 向量={}, 关键词={}, 融合后={}",
+                profile.method(), vectorDocs.size(), keywordDocs.size(), fused.size());
         return fused;
     }
 
-    private List<Document> getQuietly(CompletableFuture<List<Document>> future,
-                                      long deadlineNanos, String label) {
+    /**
+     * 等待先完成的一路，截止时间前都未完成或等待被中断时返回 null
+     */
+    private static Stage awaitFirst(BlockingQueue<Stage> completions, long deadlineNanos) {
+        try {
+            return completions.poll(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private boolean goodEnough(List<Document> documents, double minTopScore) {
+        if (documents.size() < ragProperties.getRetrievalRouting().getHedgeMinDocuments()) {
+            return false;
+        }
+        Double topScore = documents.get(0).getScore();
+        return minTopScore <= 0 || (topScore != null && topScore >= minTopScore);
+    }
+
+    private List<Document> finishHedged(RetrievalBulkhead loserBulkhead, Future<List<Document>> loserFuture,
+                                        AtomicBoolean loserRecorded, RequestDeadline deadline, Stage loser, String kb,
+                                        long startNanos, Stage winner, List<Document> documents) {
+        loserBulkhead.cancel(loserFuture);
+        if (loserRecorded.compareAndSet(false, true)) {
+            deadline.record(loser, System.nanoTime() - startNanos, Status.SKIPPED);
+        }
+        ragMetrics.recordRetrieveHedge(kb, source(winner), "early");
+        log.info("[Hybrid] 对冲模式: {}检索先返回 {} 个文档且已足够, 取消{}检索",
+                label(winner), documents.size(), label(loser));
+        return documents;
+    }
+
+    private static List<Document> routedAway(RequestDeadline deadline, Stage stage) {
+        deadline.record(stage, 0, Status.SKIPPED);
+        return List.of();
+    }
+
+    private static String label(Stage stage) {
+        return stage == Stage.VECTOR ? "向量" : "关键词";
+    }
+
+    private Future<List<Document>> submitQuietly(RetrievalBulkhead bulkhead,
+                                                 Callable<List<Document>> task, String label) {
+        try {
+            return bulkhead.submit(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("[Hybrid] {}检索被拒绝, 降级: {}", label, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param recorded 该路检索的结果是否已记录；超时、被对冲取消后才完成的检索不再记为 ok，每路只记录一次
+     */
+    private Callable<List<Document>> timed(RequestDeadline deadline, Stage stage, String kb, long startNanos,
+                                           Callable<List<Document>> task, BlockingQueue<Stage> completions,
+                                           AtomicBoolean recorded) {
+        return () -> {
+            try {
+                List<Document> documents = task.call();
+                long elapsed = System.nanoTime() - startNanos;
+                if (recorded.compareAndSet(false, true)) {
+                    deadline.record(stage, elapsed, Status.OK);
+                    ragMetrics.recordRetrieve(source(stage), kb, elapsed, "ok", documents.size());
+                }
+                return documents;
+            } finally {
+                if (completions != null) {
+                    completions.offer(stage);
+                }
+            }
+        };
+    }
+
+    private List<Document> getQuietly(RetrievalBulkhead bulkhead, Future<List<Document>> future,
+                                      AtomicBoolean recorded, RequestDeadline deadline, Stage stage, String kb,
+                                      long startNanos, long deadlineNanos, String label) {
+        if (future == null) {
+            if (recorded.compareAndSet(false, true)) {
+                deadline.record(stage, 0, Status.SKIPPED);
+                ragMetrics.recordRetrieve(source(stage), kb, 0, "rejected", 0);
+            }
+            return List.of();
+        }
         try {
             long remaining = deadlineNanos - System.nanoTime();
             if (remaining <= 0) {
-                future.cancel(true);
                 throw new TimeoutException("deadline exceeded");
             }
             return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 超时后中断仍在执行的检索线程，避免输掉的一路继续占用隔离舱
+            bulkhead.cancel(future);
+            long elapsed = System.nanoTime() - startNanos;
+            if (recorded.compareAndSet(false, true)) {
+                deadline.record(stage, elapsed, Status.TIMEOUT);
+                ragMetrics.recordRetrieve(source(stage), kb, elapsed, "timeout", 0);
+            }
+            log.warn("[Hybrid] {}检索超出预算, 已取消, 降级", label);
+            return List.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            bulkhead.cancel(future);
+            log.warn("[Hybrid] {}检索等待被中断, 降级", label);
+            return List.of();
         } catch (Exception e) {
+            long elapsed = System.nanoTime() - startNanos;
+            if (recorded.compareAndSet(false, true)) {
+                deadline.record(stage, elapsed, Status.ERROR);
+                ragMetrics.recordRetrieve(source(stage), kb, elapsed, "error", 0);
+            }
             log.warn("[Hybrid] {}检索失败, 降级: {}", label, e.getMessage());
             return List.of();
         }
     }
 
-    private List<Document> rrfFusion(List<Document> vectorDocs, List<Document> keywordDocs) {
-        int k = ragProperties.getRrfK();
-        int topK = ragProperties.getRetrieveTopK();
-
-        Map<String, Double> scoreMap = new HashMap<>();
-        Map<String, Document> docMap = new LinkedHashMap<>();
-
-        accumulateScores(vectorDocs, k, scoreMap, docMap);
-        accumulateScores(keywordDocs, k, scoreMap, docMap);
+    private static String source(Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
 
-        return scoreMap.entrySet().stream()
-                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-                .limit(topK)
-                .map(entry -> docMap.get(entry.getKey()))
-                .filter(Objects::nonNull)
-                .toList();
+    /**
+     * 按 kb 生效的融合配置（见 app.rag.fusion）融合两路结果，取前 retrieveTopK 个
+     */
+    List<Document> fuse(FusionProfile profile, List<Document> vectorDocs, List<Document> keywordDocs) {
+        return ScoreFusion.fuse(vectorDocs, keywordDocs, profile,
+                ragProperties.getRrfK(), ragProperties.getRetrieveTopK());
     }
 
-    private void accumulateScores(List<Document> docs, int k,
-                                  Map<String, Double> scoreMap,
-                                  Map<String, Document> docMap) {
-        for (int i = 0; i < docs.size(); i++) {
-            Document doc = docs.get(i);
-            String docId = doc.getId();
-            scoreMap.merge(docId, 1.0 / (k + i + 1), Double::sum);
-            docMap.putIfAbsent(docId, doc);
-        }
+    /**
+     * 已提交、尚未等待结果的一次检索，某一路被路由跳过或被隔离舱拒绝时对应的 future 为 null；
+     * vectorRecorded / keywordRecorded 标记该路结果（ok / timeout / error / skipped）是否已记录，
+     * 检索线程与等待方谁先到谁记录
+     */
+    record PendingRetrieval(Query query, RequestDeadline deadline, String kb, Route route, long startNanos,
+                            long vectorDeadline, long keywordDeadline, BlockingQueue<Stage> completions,
+                            Future<List<Document>> vectorFuture, Future<List<Document>> keywordFuture,
+                            AtomicBoolean vectorRecorded, AtomicBoolean keywordRecorded) {
     }
 }
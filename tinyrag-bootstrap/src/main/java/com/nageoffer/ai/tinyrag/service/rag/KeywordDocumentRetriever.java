@@ -31,7 +31,10 @@ public class KeywordDocumentRetriever implements DocumentRetriever {
         return esRepository.search(query.text(), kb, topK);
     }
 
-    private String extractKb(Query query) {
+    /**
+     * 从检索过滤表达式中解析知识库名称，未按知识库过滤时返回 null
+     */
+    static String extractKb(Query query) {
         Object filterExpr = query.context().get(VectorStoreDocumentRetriever.FILTER_EXPRESSION);
         if (filterExpr instanceof String expr) {
             Matcher matcher = KB_PATTERN.matcher(expr);
@@ -0,0 +1,63 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 检索路由：按问题本身的特征在本地决定走哪几路检索，不调用模型
+ * <p>
+ * 以编号类词（SKU、错误码、版本号、常量名）为主的短问题只走关键词检索，向量检索对这类字面匹配帮助不大；
+ * 不含编号、引号的长自然语言问题只走向量检索；其余情况两路都走
+ */
+class QueryRouteClassifier {
+
+    /**
+     * 含数字的编号（E1001、SKU-2023-001、ORA-00942、v2.3.1、0x80070005）或全大写下划线常量名（ERR_CONN_RESET）；
+     * 纯数字（100、2024、3.5）是金额、年份、数量，不算编号
+     */
+    static final Pattern IDENTIFIER = Pattern.compile(
+            "(?<![\\p{L}\\p{N}])(?:(?!\\d+(?:\\.\\d+)?(?![\\w.:#/-]))(?=[\\w.:#/-]*\\d)[A-Za-z0-9][\\w.:#/-]{2,}|[A-Z][A-Z0-9]*(?:_[A-Z0-9]+)+)(?![\\p{L}\\p{N}])");
+    private static final Pattern QUOTED = Pattern.compile("[\"“”「」『』]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    enum Route {
+        HYBRID, KEYWORD, VECTOR;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final RAGProperties.RetrievalRouting properties;
+
+    QueryRouteClassifier(RAGProperties.RetrievalRouting properties) {
+        this.properties = properties;
+    }
+
+    Route classify(String query) {
+        if (!properties.isEnabled() || query == null || query.isBlank()) {
+            return Route.HYBRID;
+        }
+        String text = query.strip();
+        int nonSpaceChars = WHITESPACE.matcher(text).replaceAll("").length();
+
+        int identifierChars = 0;
+        Matcher matcher = IDENTIFIER.matcher(text);
+        while (matcher.find()) {
+            identifierChars += matcher.end() - matcher.start();
+        }
+
+        if (identifierChars > 0) {
+            // 编号占问题的大半，或问题很短，BM25 的字面匹配已足够
+            boolean dominant = identifierChars * 2 >= nonSpaceChars;
+            return dominant || text.length() <= properties.getKeywordMaxLength() ? Route.KEYWORD : Route.HYBRID;
+        }
+        if (text.length() >= properties.getVectorMinLength() && !QUOTED.matcher(text).find()) {
+            return Route.VECTOR;
+        }
+        return Route.HYBRID;
+    }
+}
@@ -0,0 +1,212 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.rag.Query;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 单次问答请求的截止时间
+ * <p>
+ * 在 RAGService.streamChat 中创建，通过 advisor 参数传入 Query 上下文。每个阶段从这里领取预算：
+ * 阶段预算 = min(该阶段配置预算, 整个请求剩余时间)，超时的阶段按各自方式降级（改写回退原问题、
+ * 单路检索返回空、Rerank 回退向量分数排序、生成截断、推荐问题回退兜底文案）。
+ * 各阶段实际耗时与预算记录在这里，最终随 done 事件返回给前端用于调优首 token 时间。
+ * 同步阶段（改写、Rerank）超时后中断执行线程，并通过 {@link #callRemainingNanos()} 把剩余预算交给 HTTP 客户端作为响应超时，
+ * 超出预算的调用不会在降级之后继续占用线程与连接
+ */
+@Slf4j
+public class RequestDeadline {
+
+    public static final String CONTEXT_KEY = "tinyrag_request_deadline";
+
+    public enum Stage {
+        REWRITE, VECTOR, KEYWORD, RERANK, GENERATION, SUGGESTIONS
+    }
+
+    public enum Status {
+        OK, TIMEOUT, SKIPPED, ERROR
+    }
+
+    /**
+     * {@link #call} 的任务所在线程上记录该次调用的截止时间（System.nanoTime）
+     */
+    private static final ThreadLocal<Long> CALL_DEADLINE = new ThreadLocal<>();
+
+    private final RAGProperties.Deadline properties;
+    private final long startNanos;
+    private final long deadlineNanos;
+    private final Map<Stage, StageTiming> timings = new ConcurrentHashMap<>();
+    private final Map<Stage, Long> stageStarts = new ConcurrentHashMap<>();
+
+    public RequestDeadline(RAGProperties.Deadline properties) {
+        this.properties = properties;
+        this.startNanos = System.nanoTime();
+        this.deadlineNanos = startNanos + properties.getTotal().toNanos();
+    }
+
+    /**
+     * 从 Query 上下文中取出本次请求的截止时间；非问答链路调用（没有放入上下文）时按配置新建一个
+     */
+    public static RequestDeadline from(Query query, RAGProperties ragProperties) {
+        Object context = query.context().get(CONTEXT_KEY);
+        return context instanceof RequestDeadline deadline ? deadline : new RequestDeadline(ragProperties.getDeadline());
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * 阶段从现在开始可用的预算（纳秒），整个请求已超时时返回值 ≤ 0
+     */
+    public long budgetNanos(Stage stage) {
+        return Math.min(stageBudget(stage).toNanos(), remainingNanos());
+    }
+
+    /**
+     * 当前线程上正在执行的 {@link #call} 任务的剩余预算（纳秒），不在 call 内执行时返回 Long.MAX_VALUE
+     */
+    public static long callRemainingNanos() {
+        Long deadline = CALL_DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * 在阶段预算内执行同步调用，超时或预算已耗尽时返回兜底值；调用本身抛出的异常原样抛出。
+     * 超时后中断执行线程，任务执行期间发起的 HTTP 请求响应超时不超过剩余预算
+     */
+    public <T> T call(Stage stage, Supplier<T> task, Supplier<T> fallback) {
+        long budget = budgetNanos(stage);
+        long start = System.nanoTime();
+        if (budget <= 0) {
+            record(stage, 0, Status.SKIPPED);
+            log.warn("[Deadline] 请求已超时, 跳过 {} 阶段", stage);
+            return fallback.get();
+        }
+        long callDeadline = start + budget;
+        FutureTask<T> future = new FutureTask<>(() -> {
+            CALL_DEADLINE.set(callDeadline);
+            try {
+                return task.get();
+            } finally {
+                CALL_DEADLINE.remove();
+            }
+        });
+        try {
+            Schedulers.boundedElastic().schedule(future);
+            T result = future.get(budget, TimeUnit.NANOSECONDS);
+            record(stage, System.nanoTime() - start, Status.OK);
+            return result;
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            record(stage, System.nanoTime() - start, Status.TIMEOUT);
+            log.warn("[Deadline] {} 阶段超出预算 {}ms, 降级", stage, TimeUnit.NANOSECONDS.toMillis(budget));
+            return fallback.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            record(stage, System.nanoTime() - start, Status.ERROR);
+            return fallback.get();
+        } catch (ExecutionException ex) {
+            record(stage, System.nanoTime() - start, Status.ERROR);
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (RuntimeException ex) {
+            // 线程池拒绝执行
+            record(stage, System.nanoTime() - start, Status.ERROR);
+            throw ex;
+        }
+    }
+
+    /**
+     * 记录阶段耗时，同一阶段只保留第一次记录（超时后被取消的任务可能稍后才返回，不应覆盖超时结论）
+     */
+    public void record(Stage stage, long elapsedNanos, Status status) {
+        timings.putIfAbsent(stage, new StageTiming(elapsedNanos, stageBudget(stage).toNanos(), status));
+    }
+
+    /**
+     * 标记异步阶段开始（生成阶段以首 token 为起点，推荐问题以检索完成为起点），重复调用只保留第一次
+     */
+    public void markStarted(Stage stage) {
+        stageStarts.putIfAbsent(stage, System.nanoTime());
+    }
+
+    /**
+     * 异步阶段剩余预算（纳秒）：未开始时为完整阶段预算，同样受整个请求剩余时间约束
+     */
+    public long remainingNanos(Stage stage) {
+        Long started = stageStarts.get(stage);
+        long stageRemaining = started == null
+                ? stageBudget(stage).toNanos()
+                : stageBudget(stage).toNanos() - (System.nanoTime() - started);
+        return Math.min(stageRemaining, remainingNanos());
+    }
+
+    /**
+     * 以 {@link #markStarted(Stage)} 为起点记录异步阶段耗时
+     */
+    public void finish(Stage stage, Status status) {
+        Long started = stageStarts.get(stage);
+        record(stage, started == null ? 0 : System.nanoTime() - started, status);
+    }
+
+    /**
+     * 汇总各阶段耗时，按阶段顺序输出，单位毫秒
+     */
+    public Map<String, Object> timings() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        result.put("budgetMs", properties.getTotal().toMillis());
+        Long firstToken = stageStarts.get(Stage.GENERATION);
+        if (firstToken != null) {
+            result.put("firstTokenMs", TimeUnit.NANOSECONDS.toMillis(firstToken - startNanos));
+        }
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            StageTiming timing = timings.get(stage);
+            if (timing == null) {
+                continue;
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(timing.elapsedNanos()));
+            item.put("budgetMs", TimeUnit.NANOSECONDS.toMillis(timing.budgetNanos()));
+            item.put("status", timing.status().name().toLowerCase(Locale.ROOT));
+            stages.put(stage.name().toLowerCase(Locale.ROOT), item);
+        }
+        result.put("stages", stages);
+        return result;
+    }
+
+    private Duration stageBudget(Stage stage) {
+        return switch (stage) {
+            case REWRITE -> properties.getRewrite();
+            case VECTOR -> properties.getVector();
+            case KEYWORD -> properties.getKeyword();
+            case RERANK -> properties.getRerank();
+            case GENERATION -> properties.getGeneration();
+            case SUGGESTIONS -> properties.getSuggestions();
+        };
+    }
+
+    private record StageTiming(long elapsedNanos, long budgetNanos, Status status) {
+    }
+}
@@ -1,8 +1,12 @@
 package com.nageoffer.ai.tinyrag.service.rag;
 
 import com.nageoffer.ai.tinyrag.config.RAGProperties;
-import com.nageoffer.ai.tinyrag.service.RerankService;
-import com.nageoffer.ai.tinyrag.service.RerankService.RerankItem;
+import com.nageoffer.ai.tinyrag.service.Reranker;
+import com.nageoffer.ai.tinyrag.service.Reranker.RerankItem;
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache;
+import com.nageoffer.ai.tinyrag.service.cache.RerankCache.RerankKey;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Stage;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -18,18 +22,25 @@ import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
 import org.springframework.stereotype.Component;
 
 /**
- * Rerank 后处理器：调用外部 Rerank API 对检索文档重排序
+ * Rerank 后处理器：由 Reranker（远程接口或本地模型）对检索文档重排序，问题与候选集合相同时复用 RerankCache 中的结果
  */
 @Slf4j
 @Component
 public class RerankDocumentPostProcessor implements DocumentPostProcessor {
 
-    private final RerankService rerankService;
+    private final Reranker reranker;
+    private final RerankCache rerankCache;
+    private final RerankGate rerankGate;
     private final RAGProperties ragProperties;
+    private final RAGMetrics ragMetrics;
 
-    public RerankDocumentPostProcessor(RerankService rerankService, RAGProperties ragProperties) {
-        this.rerankService = rerankService;
+    public RerankDocumentPostProcessor(Reranker reranker, RerankCache rerankCache,
+                                       RAGProperties ragProperties, RAGMetrics ragMetrics) {
+        this.reranker = reranker;
+        this.rerankCache = rerankCache;
+        this.rerankGate = new RerankGate(ragProperties.getRerankGate());
         this.ragProperties = ragProperties;
+        this.ragMetrics = ragMetrics;
     }
 
     @Override
@@ -55,10 +66,41 @@ public class RerankDocumentPostProcessor implements DocumentPostProcessor {
             return List.of();
         }
 
+        String kb = KeywordDocumentRetriever.extractKb(query);
+        String skipReason = rerankGate.evaluate(validCandidates, safeTopN);
+        if (skipReason != null) {
+            ragMetrics.recordRerankSkipped(kb, skipReason, rerankGate.estimatedSavedNanos());
+            List<Document> picked = validCandidates.subList(0, Math.min(safeTopN, validCandidates.size()));
+            log.info("[Rerank] 跳过 Rerank({}), {} 个文档 → 按融合顺序保留 {} 个", skipReason, documents.size(), picked.size());
+            return List.copyOf(picked);
+        }
+
+        long startNanos = System.nanoTime();
+        RerankKey cacheKey = rerankCache.isEnabled()
+                ? rerankCache.key(kb, reranker.model(), query.text(), validCandidates, safeTopN) : null;
+        if (cacheKey != null) {
+            List<RerankItem> cached = rerankCache.get(cacheKey);
+            List<Document> reranked = pickByRerankResults(validCandidates, cached, safeTopN);
+            if (!reranked.isEmpty()) {
+                log.info("[Rerank] 命中缓存, {} 个文档 → 保留 {} 个", documents.size(), reranked.size());
+                return reranked;
+            }
+        }
+
         try {
-            List<RerankItem> rerankResults = rerankService.rerank(query.text(), candidateTexts, safeTopN);
+            long cacheGeneration = rerankCache.generation();
+            // 超出 Rerank 预算时返回 null，按失败处理，走下面的向量分数降级
+            RequestDeadline deadline = RequestDeadline.from(query, ragProperties);
+            List<RerankItem> rerankResults = deadline.call(Stage.RERANK,
+                    () -> reranker.rerank(query.text(), candidateTexts, safeTopN), () -> null);
+            if (cacheKey != null) {
+                rerankCache.put(cacheKey, rerankResults, cacheGeneration);
+            }
             List<Document> reranked = pickByRerankResults(validCandidates, rerankResults, safeTopN);
             if (!reranked.isEmpty()) {
+                long elapsedNanos = System.nanoTime() - startNanos;
+                rerankGate.recordRerankLatency(elapsedNanos);
+                ragMetrics.recordRerank(kb, elapsedNanos, false);
                 log.info("[Rerank] {} 个文档 → Rerank 后保留 {} 个", documents.size(), reranked.size());
                 return reranked;
             }
@@ -66,6 +108,7 @@ public class RerankDocumentPostProcessor implements DocumentPostProcessor {
             log.warn("[Rerank] 失败, 降级为向量分数排序. reason={}", ex.getMessage());
         }
 
+        ragMetrics.recordRerank(kb, System.nanoTime() - startNanos, true);
         List<Document> fallback = fallbackByVectorScore(validCandidates, safeTopN);
         log.info("[Rerank] 降级排序后保留 {} 个文档", fallback.size());
         return fallback;
@@ -0,0 +1,127 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.config.RAGProperties.FusionMethod;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Rerank 跳过策略：检索结果已经足够确定时不再调用 Rerank，直接按融合顺序取 topN
+ * <p>
+ * 三种情况跳过：候选数不超过 topN（Rerank 只会改变顺序）；第一名的融合分数领先第二名超过该融合算法的 minRelativeGap；
+ * 全部候选来自同一文件的相邻 chunk（间距小于 singleWindowChunks）。
+ * 同时记录实际 Rerank 耗时的指数移动平均，作为每次跳过节省时间的估算
+ */
+class RerankGate {
+
+    static final String FEW_CANDIDATES = "few_candidates";
+    static final String SCORE_GAP = "score_gap";
+    static final String SINGLE_WINDOW = "single_window";
+
+    /**
+     * 指数移动平均的平滑系数，约等于最近 10 次调用的平均
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final RAGProperties.RerankGate properties;
+    private final AtomicLong averageRerankNanos = new AtomicLong();
+
+    RerankGate(RAGProperties.RerankGate properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param candidates 按融合分数降序排列的候选
+     * @return 跳过原因，需要 Rerank 时返回 null
+     */
+    String evaluate(List<Document> candidates, int topN) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        if (properties.isSkipWhenFewCandidates() && candidates.size() <= topN) {
+            return FEW_CANDIDATES;
+        }
+        if (hasDecisiveGap(candidates)) {
+            return SCORE_GAP;
+        }
+        if (properties.getSingleWindowChunks() > 0 && isSingleWindow(candidates, properties.getSingleWindowChunks())) {
+            return SINGLE_WINDOW;
+        }
+        return null;
+    }
+
+    void recordRerankLatency(long elapsedNanos) {
+        averageRerankNanos.accumulateAndGet(elapsedNanos,
+                (average, sample) -> average == 0 ? sample : (long) (average + EWMA_ALPHA * (sample - average)));
+    }
+
+    /**
+     * 最近 Rerank 调用的平均耗时，尚无样本时为 0
+     */
+    long estimatedSavedNanos() {
+        return averageRerankNanos.get();
+    }
+
+    /**
+     * 阈值按产生融合分数的算法选取，没有融合分数或该算法未配置阈值时不跳过
+     */
+    private boolean hasDecisiveGap(List<Document> candidates) {
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        Double minRelativeGap = properties.getMinRelativeGap().get(fusionMethod(candidates.get(0)));
+        return minRelativeGap != null && minRelativeGap > 0 && relativeGap(candidates) >= minRelativeGap;
+    }
+
+    /**
+     * (第一名 - 第二名) / 第一名，只对带融合分数（两路都有结果）的候选生效，否则返回 0
+     */
+    static double relativeGap(List<Document> candidates) {
+        if (candidates.size() < 2) {
+            return 0.0;
+        }
+        double first = fusedScore(candidates.get(0));
+        double second = fusedScore(candidates.get(1));
+        if (first <= 0 || second < 0) {
+            return 0.0;
+        }
+        return (first - second) / first;
+    }
+
+    static boolean isSingleWindow(List<Document> candidates, int windowChunks) {
+        if (candidates.size() < 2) {
+            return false;
+        }
+        Object kb = candidates.get(0).getMetadata().get("kb");
+        Object source = candidates.get(0).getMetadata().get("source");
+        if (source == null) {
+            return false;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (Document candidate : candidates) {
+            if (!Objects.equals(kb, candidate.getMetadata().get("kb"))
+                    || !source.equals(candidate.getMetadata().get("source"))
+                    || !(candidate.getMetadata().get("chunk_index") instanceof Number index)) {
+                return false;
+            }
+            min = Math.min(min, index.intValue());
+            max = Math.max(max, index.intValue());
+        }
+        return max - min < windowChunks;
+    }
+
+    private static FusionMethod fusionMethod(Document document) {
+        return document.getMetadata().get(HybridDocumentRetriever.FUSION_METHOD) instanceof String method
+                ? FusionMethod.valueOf(method) : null;
+    }
+
+    private static double fusedScore(Document document) {
+        return document.getMetadata().get(HybridDocumentRetriever.FUSED_SCORE) instanceof Number score
+                ? score.doubleValue() : -1.0;
+    }
+}
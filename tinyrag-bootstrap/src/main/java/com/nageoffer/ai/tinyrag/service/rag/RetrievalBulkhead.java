@@ -0,0 +1,100 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import lombok.Getter;
+
+/**
+ * 单一检索源（向量 / 关键词）的隔离执行器
+ * <p>
+ * 固定大小线程池 + 有界队列，队列满直接拒绝，调用方按该路检索失败降级，一路变慢不会拖垮另一路，
+ * 也不会占用 ForkJoinPool.commonPool。任务以 FutureTask 提交，超时后 {@link #cancel(Future)}
+ * 会中断执行线程并把尚未开始的任务移出队列。同时记录排队深度与拒绝次数，每个任务的排队等待时间交给 waitListener
+ */
+public class RetrievalBulkhead implements AutoCloseable {
+
+    @Getter
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private volatile LongConsumer waitListener = waitNanos -> {
+    };
+
+    public RetrievalBulkhead(String name, int poolSize, int queueCapacity, ThreadFactory threadFactory) {
+        this.name = name;
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<>(queueCapacity)
+                : new SynchronousQueue<>();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS, queue, threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交检索任务
+     *
+     * @throws RejectedExecutionException 隔离舱已满
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        long enqueuedAt = System.nanoTime();
+        FutureTask<T> futureTask = new FutureTask<>(() -> {
+            waitListener.accept(System.nanoTime() - enqueuedAt);
+            return task.call();
+        });
+        try {
+            executor.execute(futureTask);
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            throw new RejectedExecutionException(name + " 检索隔离舱已满, 拒绝执行", ex);
+        }
+        return futureTask;
+    }
+
+    /**
+     * 取消任务：运行中则中断线程，排队中则直接移出队列
+     */
+    public void cancel(Future<?> future) {
+        future.cancel(true);
+        if (future instanceof Runnable runnable) {
+            executor.remove(runnable);
+        }
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int activeCount() {
+        return executor.getActiveCount();
+    }
+
+    public int poolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 任务开始执行时以排队等待的纳秒数回调，在执行线程上调用
+     */
+    public void onWait(LongConsumer listener) {
+        this.waitListener = listener;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+
+/**
+ * 单次请求的检索上下文
+ * <p>
+ * 由 RAGService 创建并通过 advisor 参数放入 Query 上下文，检索链路（Rerank 之后）把最终文档发布到这里，
+ * 推荐问题等下游任务订阅 {@link #documents()}，检索一结束即可开始，无需再做一次向量检索。
+ * 以 null 完成表示本次请求没有走检索链路（例如命中语义缓存），订阅方需自行兜底
+ */
+public final class RetrievalContext {
+
+    public static final String CONTEXT_KEY = "tinyrag_retrieval_context";
+
+    private final CompletableFuture<List<Document>> documents = new CompletableFuture<>();
+
+    public CompletableFuture<List<Document>> documents() {
+        return documents;
+    }
+
+    /**
+     * 发布检索结果，只有第一次发布生效
+     */
+    public void publish(List<Document> retrieved) {
+        documents.complete(retrieved == null ? List.of() : List.copyOf(retrieved));
+    }
+
+    /**
+     * 标记本次请求未走检索链路
+     */
+    public void skip() {
+        documents.complete(null);
+    }
+
+    public static RetrievalContext from(Query query) {
+        Object context = query.context().get(CONTEXT_KEY);
+        return context instanceof RetrievalContext retrievalContext ? retrievalContext : null;
+    }
+}
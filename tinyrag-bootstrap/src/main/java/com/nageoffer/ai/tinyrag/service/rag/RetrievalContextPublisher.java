@@ -0,0 +1,23 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import java.util.List;
+
+import org.jspecify.annotations.NonNull;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.postretrieval.document.DocumentPostProcessor;
+
+/**
+ * 挂在后处理链末尾，把最终（Rerank 后）的文档发布到请求的 {@link RetrievalContext}，文档本身原样返回
+ */
+public class RetrievalContextPublisher implements DocumentPostProcessor {
+
+    @Override
+    public @NonNull List<Document> process(@NonNull Query query, @NonNull List<Document> documents) {
+        RetrievalContext retrievalContext = RetrievalContext.from(query);
+        if (retrievalContext != null) {
+            retrievalContext.publish(documents);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,93 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 问题改写跳过策略：问题本身已经适合检索时不调用改写模型
+ * <p>
+ * 改写只做去寒暄、去多余标点、拆分多个问题三件事，两种情况跳过：不超过 shortQuestionMaxLength、
+ * 不含寒暄语与连续标点、只有一个问题的短问题；以编号类词为主的问题（改写可能改动编号，关键词检索也依赖原样的编号）。
+ * 同时记录实际改写耗时的指数移动平均，作为每次跳过节省时间的估算
+ */
+class RewriteGate {
+
+    static final String SHORT_QUESTION = "short_question";
+    static final String IDENTIFIER = "identifier";
+    static final String CACHE_HIT = "cache_hit";
+
+    /**
+     * 指数移动平均的平滑系数，约等于最近 10 次调用的平均
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    private static final Pattern FILLER = Pattern.compile(
+            "你好|您好|请问|麻烦|打扰|谢谢|多谢|感谢|\\bhi\\b|\\bhello\\b|\\bthanks\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REPEATED_PUNCTUATION = Pattern.compile("[？?！!。.，,~～]{2,}");
+    private static final Pattern QUESTION_SEPARATOR = Pattern.compile("[？?；;]");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s？?！!。.]+$");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final RAGProperties.RewriteGate properties;
+    private final AtomicLong averageRewriteNanos = new AtomicLong();
+
+    RewriteGate(RAGProperties.RewriteGate properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return 跳过原因，需要改写时返回 null
+     */
+    String evaluate(String question) {
+        if (!properties.isEnabled() || question == null || question.isBlank()) {
+            return null;
+        }
+        String text = question.strip();
+        if (properties.getShortQuestionMaxLength() > 0 && isShortQuestion(text, properties.getShortQuestionMaxLength())) {
+            return SHORT_QUESTION;
+        }
+        if (properties.isSkipIdentifierQuestions() && isIdentifierQuestion(text)) {
+            return IDENTIFIER;
+        }
+        return null;
+    }
+
+    void recordRewriteLatency(long elapsedNanos) {
+        averageRewriteNanos.accumulateAndGet(elapsedNanos,
+                (average, sample) -> average == 0 ? sample : (long) (average + EWMA_ALPHA * (sample - average)));
+    }
+
+    /**
+     * 最近改写调用的平均耗时，尚无样本时为 0
+     */
+    long estimatedSavedNanos() {
+        return averageRewriteNanos.get();
+    }
+
+    static boolean isShortQuestion(String text, int maxLength) {
+        if (text.length() > maxLength || FILLER.matcher(text).find() || REPEATED_PUNCTUATION.matcher(text).find()) {
+            return false;
+        }
+        // 句末问号不算分隔，句中再出现问号或分号说明包含多个问题
+        String body = TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+        return !QUESTION_SEPARATOR.matcher(body).find();
+    }
+
+    /**
+     * 编号类词占去掉空白后字符数的一半以上
+     */
+    static boolean isIdentifierQuestion(String text) {
+        int identifierChars = 0;
+        Matcher matcher = QueryRouteClassifier.IDENTIFIER.matcher(text);
+        while (matcher.find()) {
+            identifierChars += matcher.end() - matcher.start();
+        }
+        if (identifierChars == 0 || FILLER.matcher(text).find()) {
+            return false;
+        }
+        return identifierChars * 2 >= WHITESPACE.matcher(text).replaceAll("").length();
+    }
+}
@@ -1,5 +1,16 @@
 package com.nageoffer.ai.tinyrag.service.rag;
 
+import com.nageoffer.ai.tinyrag.config.RAGProperties;
+import com.nageoffer.ai.tinyrag.service.cache.RewriteCache;
+import com.nageoffer.ai.tinyrag.service.cache.RewriteCache.RewriteKey;
+import com.nageoffer.ai.tinyrag.service.metrics.RAGMetrics;
+import com.nageoffer.ai.tinyrag.service.prompt.PromptTemplateRegistry;
+import com.nageoffer.ai.tinyrag.service.rag.HybridDocumentRetriever.PendingRetrieval;
+import com.nageoffer.ai.tinyrag.service.rag.RequestDeadline.Stage;
+
+import java.util.HashMap;
+import java.util.Map;
+
 import lombok.extern.slf4j.Slf4j;
 import org.jspecify.annotations.NonNull;
 import org.springframework.ai.chat.client.ChatClient;
@@ -8,7 +19,6 @@ import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.rag.Query;
 import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
-import org.springframework.core.io.Resource;
 import org.springframework.util.StringUtils;
 
 /**
@@ -16,6 +26,10 @@ import org.springframework.util.StringUtils;
  * <p>
  * 将用户原始问题改写为更适合向量检索的表达，仅作用于检索阶段，
  * 不影响发送给 LLM 的用户消息。
+ * 问题已适合检索时（见 {@link RewriteGate}）直接使用原问题，相同问题的改写结果由 {@link RewriteCache} 缓存，
+ * 两种情况都不调用改写模型，并按最近改写的平均耗时记录节省的时间。
+ * 开启推测检索时，调用改写模型的同时用原问题开始混合检索，检索与改写的耗时相互重叠，
+ * 改写后的检索阶段再决定直接使用还是补充检索（见 {@link HybridDocumentRetriever}）。
  */
 @Slf4j
 public class RewriteQueryTransformer implements QueryTransformer {
@@ -23,47 +37,122 @@ public class RewriteQueryTransformer implements QueryTransformer {
     private static final int REWRITE_MAX_TOKENS = 64;
 
     private final ChatClient chatClient;
-    private final Resource rewriteSystemPrompt;
-    private final Resource rewriteUserPrompt;
+    private final PromptTemplateRegistry prompts;
     private final String rewriteModel;
+    private final RAGProperties ragProperties;
+    private final RAGMetrics ragMetrics;
+    private final RewriteCache rewriteCache;
+    private final RewriteGate rewriteGate;
+    private final HybridDocumentRetriever hybridDocumentRetriever;
 
     public RewriteQueryTransformer(ChatModel chatModel,
-                                   Resource rewriteSystemPrompt,
-                                   Resource rewriteUserPrompt,
-                                   String rewriteModel) {
+                                   PromptTemplateRegistry prompts,
+                                   RAGProperties ragProperties,
+                                   RAGMetrics ragMetrics,
+                                   RewriteCache rewriteCache,
+                                   HybridDocumentRetriever hybridDocumentRetriever) {
         this.chatClient = ChatClient.builder(chatModel).build();
-        this.rewriteSystemPrompt = rewriteSystemPrompt;
-        this.rewriteUserPrompt = rewriteUserPrompt;
-        this.rewriteModel = rewriteModel;
+        this.prompts = prompts;
+        this.rewriteModel = ragProperties.getRewriteModel();
+        this.ragProperties = ragProperties;
+        this.ragMetrics = ragMetrics;
+        this.rewriteCache = rewriteCache;
+        this.rewriteGate = new RewriteGate(ragProperties.getRewriteGate());
+        this.hybridDocumentRetriever = hybridDocumentRetriever;
     }
 
     @Override
     public @NonNull Query transform(Query query) {
-        String rewritten = rewrite(query.text());
-        return query.mutate().text(rewritten).build();
+        String question = query.text();
+        if (!StringUtils.hasText(question)) {
+            return query;
+        }
+        String kb = KeywordDocumentRetriever.extractKb(query);
+
+        String skipReason = rewriteGate.evaluate(question);
+        if (skipReason != null) {
+            ragMetrics.recordRewriteSkipped(kb, skipReason, rewriteGate.estimatedSavedNanos());
+            return query;
+        }
+
+        RewriteKey cacheKey = null;
+        if (rewriteCache.isEnabled()) {
+            cacheKey = rewriteCache.key(rewriteModel, promptVersion(), question);
+            String cached = rewriteCache.get(cacheKey);
+            if (cached != null) {
+                ragMetrics.recordRewriteSkipped(kb, RewriteGate.CACHE_HIT, rewriteGate.estimatedSavedNanos());
+                return query.mutate().text(cached).build();
+            }
+        }
+
+        PendingRetrieval speculative = ragProperties.getSpeculativeRetrieval().isEnabled()
+                ? hybridDocumentRetriever.start(query) : null;
+        RequestDeadline deadline = RequestDeadline.from(query, ragProperties);
+        long startNanos = System.nanoTime();
+        String rewritten;
+        try {
+            rewritten = deadline.call(Stage.REWRITE, () -> rewrite(question), () -> null);
+        } catch (RuntimeException ex) {
+            if (speculative != null) {
+                hybridDocumentRetriever.cancel(speculative);
+            }
+            throw ex;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        ragMetrics.recordRewrite(kb, elapsedNanos);
+        if (rewritten == null) {
+            return withSpeculative(query, question, speculative);
+        }
+        rewriteGate.recordRewriteLatency(elapsedNanos);
+        if (cacheKey != null) {
+            rewriteCache.put(cacheKey, rewritten);
+        }
+        return withSpeculative(query, rewritten, speculative);
     }
 
-    private String rewrite(String question) {
-        if (!StringUtils.hasText(question)) {
-            return question;
+    /**
+     * 推测检索经 Query context 交给检索阶段；改写失败回退原问题时重合度为 1，检索阶段直接使用推测结果
+     */
+    private static Query withSpeculative(Query query, String text, PendingRetrieval speculative) {
+        if (speculative == null) {
+            return query.mutate().text(text).build();
         }
+        Map<String, Object> context = new HashMap<>(query.context());
+        context.put(HybridDocumentRetriever.SPECULATIVE_RETRIEVAL, speculative);
+        return query.mutate().text(text).context(context).build();
+    }
+
+    /**
+     * 改写模板热更新后版本随之变化，旧的缓存条目不再命中
+     */
+    private int promptVersion() {
+        return 31 * prompts.version(PromptTemplateRegistry.REWRITE_SYSTEM)
+                + prompts.version(PromptTemplateRegistry.REWRITE_USER);
+    }
+
+    /**
+     * @return 改写结果，失败或模型返回空内容时为 null，由调用方回退原问题
+     */
+    private String rewrite(String question) {
 
         try {
             ChatClientResponse response = chatClient.prompt()
-                    .system(system -> system.text(rewriteSystemPrompt))
-                    .user(user -> user.text(rewriteUserPrompt)
-                            .param("question", question))
+                    .system(prompts.rewriteSystem())
+                    .user(prompts.rewriteUser(question))
                     .options(rewriteOptions())
                     .call()
                     .chatClientResponse();
 
             String rewrite = ChatResponseUtils.extractText(response);
-            String finalRewritten = StringUtils.hasText(rewrite) ? rewrite.trim() : question;
-            log.info("重写后问题: {}", finalRewritten);
-            return finalRewritten;
+            if (!StringUtils.hasText(rewrite)) {
+                log.warn("问题重写结果为空，回退原问题");
+                return null;
+            }
+            log.info("重写后问题: {}", rewrite.trim());
+            return rewrite.trim();
         } catch (Exception ex) {
             log.warn("问题重写失败，回退原问题: {}", ex.getMessage());
-            return question;
+            return null;
         }
     }
 
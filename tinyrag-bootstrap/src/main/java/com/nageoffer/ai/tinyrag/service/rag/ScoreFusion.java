@@ -0,0 +1,170 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import com.nageoffer.ai.tinyrag.config.RAGProperties.FusionMethod;
+import com.nageoffer.ai.tinyrag.config.RAGProperties.FusionProfile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * 混合检索两路结果的融合
+ * <p>
+ * 两路文档按 id 去重后依次编号，融合分数累加在按编号索引的 double[] 中；取前 topK 时用容量为 topK 的最小堆
+ * 做部分排序，不对全部候选排序。分数相同时先出现的文档（向量结果优先）排在前面。
+ * 原始分数取 Document#getScore，缺失时以 1 / (rank + 1) 代替
+ */
+final class ScoreFusion {
+
+    private ScoreFusion() {
+    }
+
+    static List<Document> fuse(List<Document> vectorDocs, List<Document> keywordDocs,
+                               FusionProfile profile, int rrfK, int topK) {
+        int capacity = vectorDocs.size() + keywordDocs.size();
+        Map<String, Integer> slots = new HashMap<>(capacity * 4 / 3 + 1);
+        Document[] documents = new Document[capacity];
+        double[] scores = new double[capacity];
+
+        int size = accumulate(vectorDocs, profile.method(), profile.vectorWeight(), rrfK,
+                slots, documents, scores, 0);
+        size = accumulate(keywordDocs, profile.method(), profile.keywordWeight(), rrfK,
+                slots, documents, scores, size);
+
+        int[] top = topK(scores, size, Math.max(0, topK));
+        List<Document> fused = new ArrayList<>(top.length);
+        for (int slot : top) {
+            fused.add(withFusedScore(documents[slot], scores[slot], profile.method()));
+        }
+        return fused;
+    }
+
+    /**
+     * 将一路结果按融合算法归一化、加权后累加到 scores，返回累加后的文档总数
+     */
+    private static int accumulate(List<Document> docs, FusionMethod method, double weight, int rrfK,
+                                  Map<String, Integer> slots, Document[] documents, double[] scores, int size) {
+        int count = docs.size();
+        if (count == 0) {
+            return size;
+        }
+
+        // 一次遍历得到 min / max / mean / std，RRF 不需要
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        double sumOfSquares = 0.0;
+        if (method != FusionMethod.RRF) {
+            for (int rank = 0; rank < count; rank++) {
+                double score = rawScore(docs.get(rank), rank);
+                min = Math.min(min, score);
+                max = Math.max(max, score);
+                sum += score;
+                sumOfSquares += score * score;
+            }
+        }
+        double mean = sum / count;
+        double std = Math.sqrt(Math.max(0.0, sumOfSquares / count - mean * mean));
+
+        for (int rank = 0; rank < count; rank++) {
+            Document doc = docs.get(rank);
+            double normalized = switch (method) {
+                case RRF -> 1.0 / (rrfK + rank + 1);
+                case MIN_MAX -> max > min ? (rawScore(doc, rank) - min) / (max - min) : 1.0;
+                case Z_SCORE -> std > 0 ? (rawScore(doc, rank) - mean) / std : 0.0;
+                case DBSF -> std > 0
+                        ? Math.min(1.0, Math.max(0.0, (rawScore(doc, rank) - (mean - 3 * std)) / (6 * std)))
+                        : 1.0;
+            };
+
+            Integer slot = slots.putIfAbsent(doc.getId(), size);
+            if (slot == null) {
+                slot = size++;
+                documents[slot] = doc;
+            }
+            scores[slot] += weight * normalized;
+        }
+        return size;
+    }
+
+    private static double rawScore(Document doc, int rank) {
+        Double score = doc.getScore();
+        return score != null ? score : 1.0 / (rank + 1);
+    }
+
+    /**
+     * 返回分数最高的至多 k 个编号，按分数降序
+     */
+    static int[] topK(double[] scores, int size, int k) {
+        int limit = Math.min(k, size);
+        int[] heap = new int[limit];
+        int heapSize = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (heapSize < limit) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++, scores);
+            } else if (limit > 0 && worse(heap[0], slot, scores)) {
+                heap[0] = slot;
+                siftDown(heap, heapSize, scores);
+            }
+        }
+        // 依次弹出堆顶（当前最差）放到末尾，得到降序结果
+        for (int end = heapSize - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end, scores);
+        }
+        return heap;
+    }
+
+    /**
+     * a 是否排在 b 之后：分数更低，或分数相同但编号更大
+     */
+    private static boolean worse(int a, int b, double[] scores) {
+        int compare = Double.compare(scores[a], scores[b]);
+        return compare < 0 || (compare == 0 && a > b);
+    }
+
+    private static void siftUp(int[] heap, int index, double[] scores) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!worse(slot, heap[parent], scores)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        int slot = heap[0];
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && worse(heap[right], heap[child], scores)) {
+                child = right;
+            }
+            if (!worse(heap[child], slot, scores)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private static Document withFusedScore(Document doc, double fusedScore, FusionMethod method) {
+        Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+        metadata.put(HybridDocumentRetriever.FUSED_SCORE, fusedScore);
+        metadata.put(HybridDocumentRetriever.FUSION_METHOD, method.name());
+        return doc.mutate().metadata(metadata).build();
+    }
+}
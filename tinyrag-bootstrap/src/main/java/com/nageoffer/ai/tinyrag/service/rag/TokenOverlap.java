@@ -0,0 +1,83 @@
+package com.nageoffer.ai.tinyrag.service.rag;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 两段问题文本的 token 重合度（Jaccard），用于判断改写是否实质改变了检索语义
+ * <p>
+ * 中文按相邻两字切分（连续汉字只有一个时取单字），字母数字按连续片段切分并转小写，标点与空白只作分隔。
+ * 改写只去掉寒暄、标点或拆分问题时重合度较高；替换了关键术语或补全了实体时重合度明显下降
+ */
+final class TokenOverlap {
+
+    private TokenOverlap() {
+    }
+
+    /**
+     * @return 0~1，两段文本都没有 token 时为 1
+     */
+    static double jaccard(String a, String b) {
+        Set<String> left = tokens(a);
+        Set<String> right = tokens(b);
+        if (left.isEmpty() && right.isEmpty()) {
+            return 1.0;
+        }
+        int intersection = 0;
+        for (String token : left) {
+            if (right.contains(token)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (left.size() + right.size() - intersection);
+    }
+
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new HashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        int previousHan = -1;
+        boolean hanRunEmitted = false;
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN) {
+                flushWord(word, tokens);
+                if (previousHan >= 0) {
+                    tokens.add(new StringBuilder().appendCodePoint(previousHan).appendCodePoint(codePoint).toString());
+                    hanRunEmitted = true;
+                }
+                previousHan = codePoint;
+                continue;
+            }
+            flushHan(previousHan, hanRunEmitted, tokens);
+            previousHan = -1;
+            hanRunEmitted = false;
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+            } else {
+                flushWord(word, tokens);
+            }
+        }
+        flushHan(previousHan, hanRunEmitted, tokens);
+        flushWord(word, tokens);
+        return tokens;
+    }
+
+    private static void flushHan(int previousHan, boolean hanRunEmitted, Set<String> tokens) {
+        if (previousHan >= 0 && !hanRunEmitted) {
+            tokens.add(new String(Character.toChars(previousHan)));
+        }
+    }
+
+    private static void flushWord(StringBuilder word, Set<String> tokens) {
+        if (!word.isEmpty()) {
+            tokens.add(word.toString().toLowerCase(Locale.ROOT));
+            word.setLength(0);
+        }
+    }
+}
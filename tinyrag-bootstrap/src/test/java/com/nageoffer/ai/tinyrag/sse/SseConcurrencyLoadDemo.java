@@ -0,0 +1,121 @@
+package com.nageoffer.ai.tinyrag.sse;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SSE 并发会话压测
+ * <p>
+ * 同时发起 N 个 /api/rag/chat/stream 请求，统计首 token 时间与同时处于流式输出中的会话峰值。
+ * 分别以平台线程池（默认）和虚拟线程模式（RAG_VIRTUAL_THREADS=true，Java 21+）启动服务各跑一次，对比两次输出：
+ * 平台线程池下峰值被 max-pool-size 卡住，多余请求排队，首 token 时间呈阶梯状上升
+ */
+public class SseConcurrencyLoadDemo {
+
+    private static final String CHAT_URL = "http://localhost:8080/api/rag/chat/stream";
+    private static final int CONCURRENCY = 64;
+    private static final String QUESTION = "公司年假有多少天？";
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : CONCURRENCY;
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        AtomicInteger streaming = new AtomicInteger();
+        AtomicInteger peakStreaming = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<Long> firstTokenMillis = Collections.synchronizedList(new ArrayList<>());
+        List<Long> totalMillis = Collections.synchronizedList(new ArrayList<>());
+
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(concurrency);
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+
+        for (int i = 0; i < concurrency; i++) {
+            clients.execute(() -> {
+                try {
+                    ready.await();
+                    long start = System.currentTimeMillis();
+                    HttpRequest request = HttpRequest.newBuilder()
+                            .uri(URI.create(CHAT_URL))
+                            .header("Content-Type", "application/json")
+                            .header("Accept", "text/event-stream")
+                            .timeout(Duration.ofMinutes(3))
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"question\":\"" + QUESTION + "\"}"))
+                            .build();
+                    HttpResponse<java.io.InputStream> response = httpClient.send(request,
+                            HttpResponse.BodyHandlers.ofInputStream());
+
+                    boolean firstToken = true;
+                    try (BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (firstToken && line.startsWith("event:token")) {
+                                firstToken = false;
+                                firstTokenMillis.add(System.currentTimeMillis() - start);
+                                int current = streaming.incrementAndGet();
+                                peakStreaming.accumulateAndGet(current, Math::max);
+                            }
+                            if (line.startsWith("event:done") || line.startsWith("event:error")) {
+                                break;
+                            }
+                        }
+                    } finally {
+                        if (!firstToken) {
+                            streaming.decrementAndGet();
+                        }
+                    }
+                    totalMillis.add(System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("请求失败：" + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        System.out.println("=== SSE 并发会话压测，并发数：" + concurrency + " ===");
+        long start = System.currentTimeMillis();
+        ready.countDown();
+        done.await();
+        clients.shutdown();
+
+        System.out.println("总耗时：" + (System.currentTimeMillis() - start) + "ms");
+        System.out.println("失败请求：" + failed.get());
+        System.out.println("同时流式输出的会话峰值：" + peakStreaming.get());
+        System.out.println("首 token 时间：" + percentiles(firstTokenMillis));
+        System.out.println("完整响应时间：" + percentiles(totalMillis));
+    }
+
+    private static String percentiles(List<Long> samples) {
+        if (samples.isEmpty()) {
+            return "无数据";
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return String.format("p50=%dms, p90=%dms, p99=%dms, max=%dms",
+                percentile(sorted, 0.50), percentile(sorted, 0.90),
+                percentile(sorted, 0.99), sorted.get(sorted.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}